@@ -2,7 +2,13 @@ package com.tftp;
 
 import java.net.DatagramPacket;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 
+import com.tftp.core.MulticastReceiver;
 import com.tftp.core.Socket;
 import com.tftp.core.protocol.*;
 import com.tftp.core.protocol.packets.*;
@@ -14,6 +20,10 @@ import com.tftp.io.FileTransfer;
  * Client defines and builds the logic for a user capable of transferring files to a pre-defined server port
  * through the agreed upon TFTP protocol.
  *
+ * The DATA and ACK packets of a transfer are received and written in place, in buffers reused for every block (see
+ * PacketCodec), so that a healthy transfer allocates nothing per block but the address DatagramSocket.send builds for
+ * every packet sent.
+ *
  * Course: Real Time Concurrent Systems
  * Term: Summer 2017
  *
@@ -22,16 +32,55 @@ import com.tftp.io.FileTransfer;
  */
 public class Client extends Socket {
 
-    private int block;
+    private int block, windowSize = 1, stray = -1, progress;
+    private long expected = -1, transferred;
+
+    // the free space of the disk when last checked, less the bytes received since
+    private long available;
     private boolean isNormal = true;
     private FileTransfer fileTransfer;
     private Authentication authenticator;
     private int connectionTID;
+    private TransferOptions options = new TransferOptions();
+
+    // the buffer every packet of the transfer is received in, and the ACK packet rewritten for every block
+    private PacketCodec received, ack = PacketCodec.allocate(PacketCodec.HEADER_SIZE);
 
     private enum ErrorStatus {FATAL_ERROR, NON_FATAL_ERROR, NO_ERROR, DUPLICATE}
 
     public Client() throws IOException {
         super("Client");
+
+        if (TFTPConfig.CLIENT_TIMEOUT_OPTION > 0) {
+            setOption(TransferOptions.TIMEOUT, String.valueOf(TFTPConfig.CLIENT_TIMEOUT_OPTION));
+        }
+
+        if (TFTPConfig.CLIENT_BLOCK_SIZE_OPTION > 0) {
+            setOption(TransferOptions.BLKSIZE, String.valueOf(TFTPConfig.CLIENT_BLOCK_SIZE_OPTION));
+        }
+
+        if (TFTPConfig.CLIENT_WINDOW_SIZE_OPTION > 0) {
+            setOption(TransferOptions.WINDOWSIZE, String.valueOf(TFTPConfig.CLIENT_WINDOW_SIZE_OPTION));
+        }
+
+        if (TFTPConfig.CLIENT_TSIZE_OPTION) {
+            setOption(TransferOptions.TSIZE, "0");
+        }
+
+        if (TFTPConfig.CLIENT_MULTICAST_OPTION) {
+            setOption(TransferOptions.MULTICAST, "");
+        }
+    }
+
+
+    /**
+     * Requests an option (RFC 2347) to be negotiated with the server for the subsequent transfers.
+     *
+     * @param name  the option name
+     * @param value the requested value
+     */
+    public void setOption(String name, String value) {
+        options.set(name, value);
     }
 
     /**
@@ -63,12 +112,24 @@ public class Client extends Socket {
         }
 
         Packet packet;
+        boolean netascii = new String(mode).equalsIgnoreCase(FileTransfer.NETASCII);
+        setBlockSize(FileTransfer.BLOCK_SIZE);
+        windowSize = 1;
+        expected = -1;
+        transferred = 0;
+        available = 0;
+        progress = 0;
 
         if (requestType.toLowerCase().equals("r")) {
-            packet = new RRQPacket(mode, filename, IPAddress.toInetSocketAddress(ip, port));
+            // the size of the file is requested as 0, the server replies with the actual one
+            if (options.contains(TransferOptions.TSIZE)) {
+                options.set(TransferOptions.TSIZE, "0");
+            }
+
+            packet = new RRQPacket(mode, filename, options, IPAddress.toInetSocketAddress(ip, port));
 
             try {
-                fileTransfer = new FileTransfer(new String(filename), FileTransfer.WRITE);
+                fileTransfer = new FileTransfer(new String(filename), FileTransfer.WRITE, netascii);
             } catch (AccessViolationException ex) {
                 System.out.println("Access violation: File not detectable or writable.");
                 return;
@@ -84,10 +145,29 @@ public class Client extends Socket {
                 return;
             }
 
+            // the options acknowledged by the server must be confirmed with ACK0 before the first DATA packet is sent
+            while (response != null && Packet.getPacketType(response) == Packet.PacketTypes.OACK) {
+                if (!acceptOptions(response)) {
+                    fileTransfer.delete();
+                    return;
+                }
+
+                // the read is serviced by a multicast group (RFC 2090)
+                String[] group = TransferOptions.parseMulticast(new OACKPacket(response).getOptions().get(TransferOptions.MULTICAST));
+                if (group != null) {
+                    multicast(response, group);
+                    return;
+                }
+
+                Packet ackPacket = new ACKPacket(response, BlockNumber.getBlockNumber(0));
+                inform(ackPacket, "Sending Packet", true);
+                send(ackPacket);
+
+                response = waitForPacket(ackPacket);
+            }
+
             rrq(response);
         } else {
-            packet = new WRQPacket(mode, filename, IPAddress.toInetSocketAddress(ip, port));
-
             try {
                 if (!FileTransfer.isFileExisting(new String(filename))) {
                     System.out.println("The File you wish to write does not exist.");
@@ -97,12 +177,19 @@ public class Client extends Socket {
                     return;
                 }
 
-                fileTransfer = new FileTransfer(new String(filename), FileTransfer.READ);
+                fileTransfer = new FileTransfer(new String(filename), FileTransfer.READ, netascii);
             } catch (AccessViolationException ex) {
                 System.out.println("Access violation: File not detectable or readable.");
                 return;
             }
 
+            // the size of the file is declared, so that the server may refuse it before any data is sent
+            if (options.contains(TransferOptions.TSIZE)) {
+                options.set(TransferOptions.TSIZE, String.valueOf(fileTransfer.length()));
+            }
+
+            packet = new WRQPacket(mode, filename, options, IPAddress.toInetSocketAddress(ip, port));
+
             inform(packet, "Sending Packet", true);
             send(packet);
             System.out.printf("[IMPORTANT] Sent Write request to server for file '%s'!\n", new String(filename));
@@ -113,6 +200,11 @@ public class Client extends Socket {
                 return;
             }
 
+            // the OACK packet stands for ACK0
+            if (Packet.getPacketType(response) == Packet.PacketTypes.OACK && !acceptOptions(response)) {
+                return;
+            }
+
             wrq(response);
         }
     }
@@ -133,9 +225,20 @@ public class Client extends Socket {
         authenticator.setMode("writing");
         authenticator.setFilename(fileTransfer.getFileName());
 
-        Packet ackPacket;
+        // the file has been opened, it is not checked again for every packet
+        authenticator.setAccessible(true);
+        authenticator.setBlockSize(fileTransfer.getBlockSize());
+
+        // the blocks of the window ahead of the expected one are verified like it, blocks beyond it are refused
+        authenticator.setWindow(windowSize);
+        received = PacketCodec.allocate(getPacketSize(fileTransfer.getBlockSize()));
+
         this.block = 0;
 
+        // with a window (RFC 7440), only the last block of every window is acknowledged
+        int acknowledged = 0;
+        this.stray = -1;
+
         while (true) {
             this.block++;
 
@@ -155,44 +258,68 @@ public class Client extends Socket {
                     if (fileTransfer.isComplete())
                         break;
 
-                    response = receive(); //Wont timeout if there is an incorrect TID
+                    this.block--; //the expected block is still awaited from the connection
+                    response = receive(received, 0); //Wont timeout if there is an incorrect TID
                     continue;
                 } else if (status == ErrorStatus.DUPLICATE) {
-                    // must acknowledge the DATA packet
-                    Packet packet = new ACKPacket(response, new byte[]{response.getData()[2], response.getData()[3]});
-                    inform(packet, "Sending Packet");
-                    send(packet);
+                    if (windowSize > 1) {
+                        // the server resent a window as its acknowledgment was lost, acknowledge it (once) again
+                        if (isStray(BlockNumber.getBlockNumber(response.getData(), block))) {
+                            acknowledged = acknowledge(response, block - 1);
+                        }
+                    } else {
+                        // must acknowledge the DATA packet
+                        acknowledge(response, BlockNumber.getBlockNumber(response.getData(), block));
+                    }
 
                     this.block--; //CRITICAL
-                    response = waitForPacket(null);
+                    response = await(false);
+                    continue;
+                }
+
+                // a block of the window ahead of the expected one means that a block of the window was lost: the last
+                // block received in order is acknowledged (once per window) so that the server resends the window from there
+                if (BlockNumber.getBlockNumber(response.getData(), block) > block) {
+                    if (isStray(BlockNumber.getBlockNumber(response.getData(), block))) {
+                        System.out.printf("Block %d Lost: Acknowledging Block %d.\n", block, block - 1);
+                        acknowledged = acknowledge(response, block - 1);
+                    }
+
+                    this.block--;
+                    response = await(false);
                     continue;
                 }
 
-                // unpack the data portion and write it to the file
-                int length = response.getData().length;
-                byte[] data = new byte[length - 4];
-                System.arraycopy(response.getData(), 4, data, 0, length - 4);
+                this.stray = -1;
+
+                // the data portion is written to the file straight from the receive buffer
+                int length = response.getLength() - 4;
 
-                if (FileTransfer.getFreeSpace() < data.length) {
+                // the free space is checked again only once the data received since the last check has used it up
+                if (available < length && (available = FileTransfer.getFreeSpace()) < length) {
                     System.out.println("Disk Full or Allocation Exceeded, Terminating Transfer.");
                     fileTransfer.delete();
                     send(new ERRORPacket(response, TFTPError.DISK_FULL, ("Disk Full or Allocation Exceeded").getBytes()).getDatagram());
                     return;
+                } else {
+                    available -= length;
                 }
 
-                fileTransfer.write(data);
+                fileTransfer.write(response.getData(), 4, length);
+                progress(length);
 
-                ackPacket = new ACKPacket(response, BlockNumber.getBlockNumber(block));
-                ackPacket.getDatagram().setPort(connectionTID);
-
-                inform(ackPacket, "Sending Packet", true);
-                send(ackPacket);
+                // the rest of the window is on its way
+                if (!fileTransfer.isComplete() && block - acknowledged < windowSize) {
+                    response = await(false);
+                    continue;
+                }
 
+                acknowledged = acknowledge(response, block);
                 if (fileTransfer.isComplete()) {
                     break;
                 }
 
-                response = waitForPacket(ackPacket);
+                response = await(true);
             } else {
                 if (Packet.getPacketType(response) != Packet.PacketTypes.ERROR)
                     checkPacket(response, block); //Packet Was Modified and No longer identifies as an DATA even though it is.
@@ -208,6 +335,157 @@ public class Client extends Socket {
     }
 
 
+    /**
+     * Completes a multicast read (RFC 2090) once the server has acknowledged the multicast option. The DATA packets
+     * sent to the group are received in any order and written in place. The client acknowledges them only while it
+     * is the master client, always requesting the first block it is missing, and acknowledges the last block once it
+     * holds the whole file so that the server no longer counts on it.
+     *
+     * @param response the OACK DatagramPacket received from the multicast group
+     * @param group    the group address, port and master client flag acknowledged by the server
+     * @throws IOException
+     */
+    private void multicast(DatagramPacket response, String[] group) throws IOException {
+        connectionTID = response.getPort();
+        InetSocketAddress server = new InetSocketAddress(response.getAddress(), connectionTID);
+        boolean master = group[2].equals("1");
+
+        // the blocks received so far, and the last block of the file once it has been received
+        BitSet received = new BitSet();
+        int last = -1, retries = 0;
+
+        try (MulticastReceiver receiver = new MulticastReceiver(this, InetAddress.getByName(group[0]),
+                Integer.parseInt(group[1]), getPacketSize(fileTransfer.getBlockSize()))) {
+            System.out.printf("[IMPORTANT] Joined multicast group %s:%s%s!\n", group[0], group[1], master ? " as master client" : "");
+            if (master) {
+                request(server, received);
+            }
+
+            while (last < 0 || received.nextClearBit(1) <= last) {
+                DatagramPacket packet = receiver.poll(master ? getEstimator().getTimeout() : TFTPConfig.MULTICAST_CLIENT_TIMEOUT);
+                if (packet == null) {
+                    if (!master || ++retries > TFTPConfig.RETRANSMIT_BUDGET) {
+                        System.out.println("Multicast group went silent, Terminating Transfer.");
+                        fileTransfer.delete();
+                        return;
+                    }
+
+                    getEstimator().backoff();
+                    request(server, received);
+                    continue;
+                }
+
+                inform(packet, "Packet Received", true);
+                Packet.PacketTypes type = Packet.getPacketType(packet);
+                if (!packet.getSocketAddress().equals(server)) {
+                    System.out.println("Packet from an unknown host received: Ignoring Packet.");
+                } else if (type == Packet.PacketTypes.OACK) {
+                    // the server promotes the client to master client once the previous one has left
+                    String[] promotion = TransferOptions.parseMulticast(new OACKPacket(packet).getOptions().get(TransferOptions.MULTICAST));
+                    if (!master && promotion != null && promotion[2].equals("1")) {
+                        System.out.println("[IMPORTANT] Promoted to master client!");
+                        master = true;
+                    }
+
+                    if (master) {
+                        request(server, received);
+                    }
+                } else if (type == Packet.PacketTypes.DATA && packet.getLength() <= fileTransfer.getBlockSize() + 4) {
+                    retries = 0;
+                    int block = BlockNumber.getBlockNumber(packet.getData());
+                    if (block > 0 && !received.get(block)) {
+                        byte[] data = new byte[packet.getLength() - 4];
+                        System.arraycopy(packet.getData(), 4, data, 0, data.length);
+
+                        fileTransfer.writeBlock(block, data);
+                        received.set(block);
+                        progress(data.length);
+
+                        if (data.length < fileTransfer.getBlockSize()) {
+                            last = block;
+                        }
+                    }
+
+                    if (master && (last < 0 || received.nextClearBit(1) <= last)) {
+                        request(server, received);
+                    }
+                } else if (type == Packet.PacketTypes.ERROR) {
+                    troubleshoot(packet);
+                    fileTransfer.delete();
+                    return;
+                }
+            }
+
+            // the whole file has been received, the client leaves the group
+            Packet ackPacket = new ACKPacket(new DatagramPacket(new byte[0], 0, server), BlockNumber.getBlockNumber(last));
+            inform(ackPacket, "Sending Packet", true);
+            send(ackPacket);
+        }
+
+        fileTransfer.close();
+        System.out.println("[IMPORTANT] Transfer finished!");
+    }
+
+
+    /**
+     * Requests the first block missing from a multicast read, by acknowledging the block preceding it.
+     *
+     * @param server   the address of the multicast group on the server
+     * @param received the blocks received so far
+     * @throws IOException
+     */
+    private void request(InetSocketAddress server, BitSet received) throws IOException {
+        Packet packet = new ACKPacket(new DatagramPacket(new byte[0], 0, server), BlockNumber.getBlockNumber(received.nextClearBit(1) - 1));
+        inform(packet, "Sending Packet", true);
+        send(packet);
+    }
+
+
+    /**
+     * Checks if a block received out of order must be answered with the ACK of the last block received in order.
+     * Only the first stray block of every (re)transmitted window is answered, as windows are sent in ascending order.
+     *
+     * @param received the block number received
+     * @return true if the block must be answered
+     */
+    private boolean isStray(int received) {
+        boolean first = stray < 0 || received <= stray;
+        stray = received;
+        return first;
+    }
+
+
+    /**
+     * Acknowledges the given block of a read, rewriting the ACK packet of the client in place.
+     *
+     * @param response the DatagramPacket received from the connection
+     * @param acked    the block number to acknowledge
+     * @return the acknowledged block number
+     * @throws IOException
+     */
+    private int acknowledge(DatagramPacket response, int acked) throws IOException {
+        ack.putAck(acked).getDatagram().setAddress(response.getAddress());
+        ack.getDatagram().setPort(response.getPort());
+        inform(ack, "Sending Packet");
+        send(ack.getDatagram());
+
+        return acked;
+    }
+
+
+    /**
+     * Waits for the next packet of the transfer in the receive buffer of the client. Nothing is resent on timeout, as
+     * an ACK is only resent upon a duplicate DATA packet.
+     *
+     * @param sample if the round trip may be sampled, i.e. a packet has just been sent
+     * @return the packet received, or null if none was received in time
+     * @throws IOException
+     */
+    private DatagramPacket await(boolean sample) throws IOException {
+        return waitForPacket(received, Collections.emptyList(), sample);
+    }
+
+
     /**
      * Completes the write (WRQ) cycle that has been requested by the operator.
      * Ideally, DATA packets are sent to the destination and ACK packets are received from the destination until
@@ -224,7 +502,16 @@ public class Client extends Socket {
         authenticator.setMode("reading");
         authenticator.setFilename(fileTransfer.getFileName());
 
-        Packet dataPacket;
+        // the file has been opened, it is not checked again for every packet
+        authenticator.setAccessible(true);
+        authenticator.setBlockSize(fileTransfer.getBlockSize());
+
+        received = PacketCodec.allocate(getPacketSize(fileTransfer.getBlockSize()));
+
+        // the DATA packets sent and not yet acknowledged, up to a window of them (RFC 7440)
+        PacketWindow window = new PacketWindow(fileTransfer.getBlockSize());
+        ArrayList<DatagramPacket> outstanding = new ArrayList<>();
+        int resent = -1;
         this.block = 0;
         while (true) {
             if (response == null) {
@@ -234,8 +521,14 @@ public class Client extends Socket {
 
             connectionTID = response.getPort();
             inform(response, "Packet Received", true);
-            //Ensure the packet received from the server is of type ACK
-            if (Packet.getPacketType(response) == Packet.PacketTypes.ACK) {
+            //Ensure the packet received from the server is of type ACK (or OACK, standing for ACK0)
+            Packet.PacketTypes type = Packet.getPacketType(response);
+            if (type == Packet.PacketTypes.OACK && block > 0) {
+                //The connection never received the first DATA packet and retransmitted its OACK
+                System.out.println("Duplicate OACK Received: Ignoring Packet.");
+                response = receive(received, 0);
+                continue;
+            } else if (type == Packet.PacketTypes.ACK || type == Packet.PacketTypes.OACK) {
                 ErrorStatus status = checkPacket(response, block);
                 if (status == ErrorStatus.FATAL_ERROR) {
                     break;
@@ -244,30 +537,47 @@ public class Client extends Socket {
                     if (fileTransfer.isComplete())
                         break;
 
-                    response = receive();
+                    response = receive(received, 0);
                     continue;
                 } else if (status == ErrorStatus.DUPLICATE) {
+                    int acked = BlockNumber.getBlockNumber(response.getData(), block);
+
+                    // within a window, the connection acknowledges the last block received in order when it
+                    // detects a loss: the window slides up to it and the rest of the window is resent, once per
+                    // such ACK (a repeat of it is left to the timeout, see TransferSession.duplicateReceived())
+                    if (windowSize > 1) {
+                        if (acked >= block - window.size() && acked != resent) {
+                            resent = acked;
+                            window.slide(acked, block);
+                            for (int i = 0; i < window.size(); i++) {
+                                inform(window.get(i).getDatagram(), "Resending Packet", true);
+                                send(window.get(i).getDatagram());
+                            }
+
+                            fill(window, response);
+                        }
+
+                        outstanding.clear();
+                        window.collect(outstanding);
+                        response = waitForPacket(received, outstanding, false);
+                        continue;
+                    }
+
                     //If response is a duplicate, that indicates that the connection never received the original
                     //ack and must resend the original ack.
-                    response = receive();
+                    response = receive(received, 0);
                     continue;
                 }
 
+                window.clear();
                 if (fileTransfer.isComplete()) {
                     break;
                 }
 
-                this.block++;
-                byte[] data = fileTransfer.read();
-                data = shrink(data, fileTransfer.lastBlockSize());
-
-                dataPacket = new DATAPacket(response, BlockNumber.getBlockNumber(block), data);
-                dataPacket.getDatagram().setPort(connectionTID);
-
-                inform(dataPacket, "Sending Packet", true);
-                send(dataPacket);
-
-                response = waitForPacket(dataPacket);
+                fill(window, response);
+                outstanding.clear();
+                window.collect(outstanding);
+                response = waitForPacket(received, outstanding, true);
             } else {
                 if (Packet.getPacketType(response) != Packet.PacketTypes.ERROR)
                     checkPacket(response, block); //Packet Was Modified and No longer identifies as an ACK even though it is.
@@ -282,6 +592,95 @@ public class Client extends Socket {
         System.out.println("[IMPORTANT] Transfer finished!");
     }
 
+    /**
+     * Reads and sends the next blocks of the file until the window is full or the last block has been read. Each
+     * block is written in the slot of a block already acknowledged.
+     *
+     * @param window   the DATA packets not yet acknowledged
+     * @param response the DatagramPacket received from the connection, used for addressing
+     * @throws IOException
+     */
+    private void fill(PacketWindow window, DatagramPacket response) throws IOException {
+        while (window.size() < windowSize && !fileTransfer.isComplete()) {
+            this.block++;
+
+            // the block is read from the file straight behind the header of its packet
+            PacketCodec dataPacket = window.add();
+            dataPacket.putData(block, fileTransfer.read(dataPacket.payload(fileTransfer.getBlockSize())));
+            dataPacket.getDatagram().setAddress(response.getAddress());
+            dataPacket.getDatagram().setPort(connectionTID);
+
+            inform(dataPacket.getDatagram(), "Sending Packet", true);
+            send(dataPacket.getDatagram());
+            progress(fileTransfer.lastBlockSize());
+        }
+    }
+
+    /**
+     * Accounts for the bytes transferred and reports the progress every 10% when the size of the file is known
+     * (i.e. exchanged through the RFC 2349 tsize option).
+     *
+     * @param bytes the amount of bytes just transferred
+     */
+    private void progress(int bytes) {
+        transferred += bytes;
+        if (expected <= 0) {
+            return;
+        }
+
+        int percent = (int) Math.min(100, transferred * 100 / expected);
+        if (percent / 10 > progress / 10) {
+            progress = percent;
+            System.out.printf("[IMPORTANT] Progress: %d%% (%d/%d bytes)\n", percent, transferred, expected);
+        }
+    }
+
+    /**
+     * Verifies the options acknowledged by the server in an OACK packet against the requested ones, and applies them.
+     * If they are not acceptable, the transfer is aborted with an OPTION_NEGOTIATION error as per RFC 2347.
+     *
+     * @param response the OACK DatagramPacket
+     * @return true if the transfer may proceed, false otherwise
+     * @throws IOException
+     */
+    private boolean acceptOptions(DatagramPacket response) throws IOException {
+        inform(response, "Packet Received", true);
+
+        TransferOptions acknowledged = new OACKPacket(response).getOptions();
+        if (acknowledged == null || !options.accepts(acknowledged)) {
+            System.out.println("Option Negotiation Failed, Terminating Transfer.");
+            send(new ERRORPacket(response, TFTPError.OPTION_NEGOTIATION, ("Option negotiation failed").getBytes()).getDatagram());
+            return false;
+        }
+
+        if (acknowledged.contains(TransferOptions.TIMEOUT)) {
+            getEstimator().setTimeout(acknowledged.getInt(TransferOptions.TIMEOUT, 1) * 1000L);
+        }
+
+        if (acknowledged.contains(TransferOptions.BLKSIZE)) {
+            fileTransfer.setBlockSize(acknowledged.getInt(TransferOptions.BLKSIZE, FileTransfer.BLOCK_SIZE));
+            setBlockSize(fileTransfer.getBlockSize());
+        }
+
+        if (acknowledged.contains(TransferOptions.WINDOWSIZE)) {
+            windowSize = acknowledged.getInt(TransferOptions.WINDOWSIZE, 1);
+        }
+
+        if (acknowledged.contains(TransferOptions.TSIZE)) {
+            expected = acknowledged.getLong(TransferOptions.TSIZE, -1);
+
+            // on a read, a file larger than the free space is refused before any block is received
+            if (options.getLong(TransferOptions.TSIZE, -1) == 0 && expected > FileTransfer.getFreeSpace()) {
+                System.out.println("Disk Full or Allocation Exceeded, Terminating Transfer.");
+                send(new ERRORPacket(response, TFTPError.DISK_FULL, ("Disk Full or Allocation Exceeded").getBytes()).getDatagram());
+                return false;
+            }
+        }
+
+        System.out.println("Options Acknowledged: " + acknowledged);
+        return true;
+    }
+
     /**
      * The checkPacket method calls the validatePacket on Socket which detects packet errors, this method then
      * determines whether there was an error and returns the type. It also makes a call to the errorDetected method.
@@ -292,7 +691,7 @@ public class Client extends Socket {
      * @throws IOException
      */
     private ErrorStatus checkPacket(DatagramPacket received, int blockNumber) throws IOException {
-        //Parses Received ACK & DATA Packets to check for Unknown TID, DATA size > 512, undefined opcodes, & incorrect block numbers.
+        //Parses Received ACK & DATA Packets to check for Unknown TID, DATA size > block size, undefined opcodes, & incorrect block numbers.
         if (authenticator.verify(received, blockNumber)) {
             return ErrorStatus.NO_ERROR;
         } else if (authenticator.isDuplicate()) {
@@ -322,7 +721,7 @@ public class Client extends Socket {
     private void troubleshoot(DatagramPacket errorPacket) throws IOException {
         if (Packet.getPacketType(errorPacket) == Packet.PacketTypes.ERROR) {
             byte[] errorMsg = new byte[errorPacket.getLength() - 4];
-            System.arraycopy(errorPacket.getData(), 4, errorMsg, 0, errorPacket.getData().length - 4);
+            System.arraycopy(errorPacket.getData(), 4, errorMsg, 0, errorPacket.getLength() - 4);
             System.out.println("Error Packet Received: Error Code: 0" + errorPacket.getData()[3] + ", Error Message: " + new String(errorMsg));
 
             if (errorPacket.getData()[3] == 1) //File Not Found Error
@@ -2,13 +2,23 @@ package com.tftp;
 
 import java.net.DatagramPacket;
 import java.io.IOException;
-import java.lang.Thread;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.tftp.core.AdmissionController;
+import com.tftp.core.AdmissionController.Admission;
 import com.tftp.core.Socket;
 import com.tftp.core.Connection;
+import com.tftp.core.EventLoopGroup;
+import com.tftp.core.Listener;
+import com.tftp.core.MulticastController;
+import com.tftp.core.protocol.TFTPError;
+import com.tftp.core.protocol.TransferRequest;
+import com.tftp.core.protocol.packets.ERRORPacket;
 import com.tftp.io.TransferController;
 import com.tftp.workers.QuitListener;
+import com.tftp.workers.TaskExecutor;
 import com.tftp.exceptions.InvalidPacketException;
 
 /**
@@ -23,13 +33,43 @@ import com.tftp.exceptions.InvalidPacketException;
  */
 public class Server extends Socket {
 
-    private int threadNumber;
+    // a dedicated Connection thread is spawned for every transfer
+    public static final int THREADED = 1;
+
+    // all transfers are driven by a fixed number of non-blocking event loops
+    public static final int SELECTOR = 2;
+
+    private AtomicInteger threadNumber = new AtomicInteger();
     private TransferController controller;
+    private AdmissionController admission;
+    private MulticastController multicast;
+    private EventLoopGroup loops;
+    private TaskExecutor executor;
+    private ArrayList<Listener> listeners;
 
     public Server() throws IOException {
-        super("Server, Socket 'R'", TFTPConfig.SERVER_PORT, InetAddress.getLocalHost());
+        super("Server, Socket 'R'", TFTPConfig.SERVER_PORT, InetAddress.getLocalHost(), isSharded());
         System.out.printf("Listening on: %s\n", InetAddress.getLocalHost());
+        listeners = new ArrayList<>();
+
+        if (TFTPConfig.SERVER_LISTENERS > 1 && !isSharded()) {
+            System.out.println("SO_REUSEPORT is not supported by this platform. Falling back to a single listener.");
+        }
         controller = new TransferController();
+        admission = new AdmissionController(TFTPConfig.SERVER_MAX_TRANSFERS, TFTPConfig.SERVER_PENDING_REQUESTS,
+                (long) TFTPConfig.SERVER_PENDING_TIMEOUT);
+        multicast = new MulticastController(controller);
+    }
+
+
+    /**
+     * Checks if the server port should be shared between multiple listeners (see TFTPConfig.SERVER_LISTENERS).
+     *
+     * @return  true    if more than one listener is requested and SO_REUSEPORT is supported
+     *          false   otherwise
+     */
+    private static boolean isSharded() {
+        return TFTPConfig.SERVER_LISTENERS > 1 && Socket.isReusePortSupported();
     }
 
 
@@ -42,20 +82,99 @@ public class Server extends Socket {
     }
 
 
+    /**
+     *
+     * @return the server's AdmissionController instance, holding the current/peak/rejected transfer counts.
+     */
+    public AdmissionController getAdmissionController() {
+        return admission;
+    }
+
+
     /**
      * Attempts to establish a connection for the received packet. If the packet has been determined to be invalid,
      * an InvalidPacketException is thrown.
      *
      * @throws InvalidPacketException If the packet has been found to be illegal. Critical error.
      */
-    private void establish(DatagramPacket packet) throws IOException {
-        Connection connection = new Connection(this, packet);
-        Thread thread = new Thread(connection, "Connection" + threadNumber++);
-        thread.start();
+    private void establish(TransferRequest request) throws IOException {
+        if (loops != null) {
+            loops.submit(request);
+            System.out.printf("[IMPORTANT]: Request received. Handed to the event loops!\n");
+            return;
+        }
+
+        Connection connection = new Connection(this, request);
+        executor.execute(connection, "Connection" + threadNumber.getAndIncrement());
 
         System.out.printf("[IMPORTANT]: Request received. Established new connection!\n");
     }
 
+    /**
+     * Passes the received request through the admission control. Refused requests are either answered with an
+     * ERROR packet or silently dropped, depending on TFTPConfig.SERVER_OVERLOAD_POLICY.
+     *
+     * The request is parsed first, so that malformed or oversized requests are answered with an ERROR packet by the
+     * listener itself, before any transfer is set up for them.
+     *
+     * This method is THREAD-SAFE.
+     *
+     * @param listener the socket the request has been received on, used to answer refused requests
+     * @param packet the request
+     */
+    public void admit(Socket listener, DatagramPacket packet) throws IOException {
+        TransferRequest request;
+        try {
+            request = TransferRequest.parse(packet);
+        } catch (InvalidPacketException e) {
+            ERRORPacket error = new ERRORPacket(packet, TFTPError.ILLEGAL_TFTP_OPERATION, e.getMessage().getBytes());
+            listener.inform(error, "Sending Packet");
+            listener.send(error);
+            return;
+        }
+
+        // the clients of a multicast group share a single transfer, which is not subject to the admission control
+        if (multicast.join(listener, request)) {
+            System.out.printf("[IMPORTANT]: Request received. Handed to a multicast group!\n");
+            return;
+        }
+
+        Admission result = admission.admit(request);
+        if (result == Admission.ADMITTED) {
+            try {
+                establish(request);
+            } catch (IOException e) {
+                release();
+                throw e;
+            }
+        } else if (result == Admission.QUEUED) {
+            System.out.printf("[IMPORTANT]: Request received. Server is saturated, request is pending!\n");
+        } else if (TFTPConfig.SERVER_OVERLOAD_POLICY == AdmissionController.REJECT) {
+            ERRORPacket error = new ERRORPacket(packet, TFTPError.NOT_DEFINED, ("Server busy, try again later").getBytes());
+            listener.inform(error, "Sending Packet");
+            listener.send(error);
+        }
+    }
+
+
+    /**
+     * Releases the admission slot of a completed transfer, establishing the next pending request if there is one.
+     * Invoked once by every transfer, regardless of how it has ended.
+     */
+    public void release() {
+        TransferRequest next = admission.release();
+        if (next == null || isClosed()) {
+            return;
+        }
+
+        try {
+            establish(next);
+        } catch (IOException e) {
+            System.out.printf("Unable to establish a pending connection for Client TID: %d\n", next.getPacket().getPort());
+            release();
+        }
+    }
+
     /**
      * Launches the operations of the server: starts listening for packets and establishes connections.
      *
@@ -63,15 +182,31 @@ public class Server extends Socket {
      * @throws InvalidPacketException
      */
     public void launch() throws IOException, InvalidPacketException {
+        if (TFTPConfig.SERVER_ENGINE == SELECTOR) {
+            loops = new EventLoopGroup(TFTPConfig.SERVER_EVENT_LOOPS, this);
+            loops.start();
+        } else {
+            executor = TaskExecutor.create(TFTPConfig.TASK_EXECUTOR);
+        }
+
+        if (isSharded()) {
+            for (int i = 1; i < TFTPConfig.SERVER_LISTENERS; i++) {
+                Listener listener = new Listener(this, i);
+                listeners.add(listener);
+                new Thread(listener, "Listener" + i).start();
+            }
+        }
+
         System.out.printf("Server has successfully launched.\n");
 
         new QuitListener(this).start();
-        System.out.printf("If you would like to shutdown the server, type \"quit\".\n\n");
+        System.out.printf("If you would like to shutdown the server, type \"quit\".\n");
+        System.out.printf("If you would like to see the transfer counts, type \"stats\".\n\n");
 
         while (!isClosed()) {
             DatagramPacket packet = receive();
             inform(packet, "Received Packet");
-            establish(packet);
+            admit(this, packet);
         }
     }
 
@@ -81,5 +216,13 @@ public class Server extends Socket {
      */
     public void shutdown() {
         close();
+
+        for (Listener listener : listeners) {
+            listener.close();
+        }
+
+        if (loops != null) {
+            loops.shutdown();
+        }
     }
 }
@@ -21,6 +21,147 @@ public class TFTPConfig {
     // the default verbose setting for the server
     public static boolean SERVER_VERBOSE = false;
 
+    // the engine used by the server to service transfers (i.e. Server.THREADED or Server.SELECTOR)
+    public static int SERVER_ENGINE = 1;
+
+    // the number of event-loop threads driving all transfers when the selector engine is in use
+    public static int SERVER_EVENT_LOOPS = Runtime.getRuntime().availableProcessors();
+
+    // how the event loops carry transfers (i.e. EventLoop.DEDICATED or EventLoop.SHARED)
+    public static int SERVER_TRANSPORT = 1;
+
+    // the number of pre-bound channels per event loop when transfers are multiplexed over shared channels
+    public static int SERVER_SHARED_CHANNELS = 16;
+
+    // the number of sockets sharing the server port through SO_REUSEPORT, each receiving requests on its own thread
+    public static int SERVER_LISTENERS = 1;
+
+    // the maximum number of transfers the server services at once
+    public static int SERVER_MAX_TRANSFERS = 1024;
+
+    // the maximum number of requests waiting for a transfer slot once the server is saturated
+    public static int SERVER_PENDING_REQUESTS = 256;
+
+    // the time (in milliseconds) a request may wait for a transfer slot before it is considered abandoned
+    public static int SERVER_PENDING_TIMEOUT = 5000;
+
+    // the size (in bytes) beyond which a request is rejected outright, options included (RFC 2347)
+    public static int SERVER_MAX_REQUEST_SIZE = 512;
+
+    // what to do with requests refused by the server (i.e. AdmissionController.REJECT or AdmissionController.DROP)
+    public static int SERVER_OVERLOAD_POLICY = 1;
+
+    // the threads running server connections and simulator sessions (i.e. TaskExecutor.PLATFORM or TaskExecutor.VIRTUAL)
+    public static int TASK_EXECUTOR = 1;
+
+    // if the retransmission timeout adapts to the measured round trip times (otherwise RETRANSMIT_TIMEOUT is used)
+    public static boolean ADAPTIVE_TIMEOUT = true;
+
+    // the fixed time (in milliseconds) to wait before retransmitting a packet, when the timeout is not adaptive
+    public static int RETRANSMIT_TIMEOUT = 5000;
+
+    // the adaptive retransmission timeout (in milliseconds) before any round trip has been measured, and its bounds
+    public static int INITIAL_TIMEOUT = 1000;
+    public static int MIN_TIMEOUT = 50;
+    public static int MAX_TIMEOUT = 10000;
+
+    // the number of times a packet is retransmitted before giving up on the transfer
+    public static int RETRANSMIT_BUDGET = 3;
+
+    // the block number following 65535 once a transfer exceeds 65535 blocks (0 or 1, both are found in the wild)
+    public static int BLOCK_ROLLOVER = 0;
+
+    // if the server acknowledges the options appended to requests (RFC 2347), otherwise they are ignored
+    public static boolean OPTION_NEGOTIATION = true;
+
+    // the retransmission timeout (in seconds) requested by the client through the RFC 2349 option, 0 to not request it
+    public static int CLIENT_TIMEOUT_OPTION = 0;
+
+    // the largest block size (in bytes) the server acknowledges through the RFC 2348 option, at most 65464
+    public static int SERVER_MAX_BLOCK_SIZE = 65464;
+
+    // the block size (in bytes) requested by the client through the RFC 2348 option, 0 to not request it
+    public static int CLIENT_BLOCK_SIZE_OPTION = 0;
+
+    // the largest window (in DATA packets) the server acknowledges through the RFC 7440 option for read transfers
+    public static int SERVER_MAX_WINDOW_SIZE = 64;
+
+    // the window size (in DATA packets) requested by the client through the RFC 7440 option, 0 to not request it
+    public static int CLIENT_WINDOW_SIZE_OPTION = 0;
+
+    // if the client exchanges the file size through the RFC 2349 tsize option, to refuse files larger than the free space and report progress
+    public static boolean CLIENT_TSIZE_OPTION = false;
+
+    // if the server hands the reads requesting the RFC 2090 multicast option over to a shared multicast group
+    public static boolean MULTICAST = true;
+
+    // the address of the first multicast group of the server (the following groups increment it) and their port
+    public static String MULTICAST_ADDRESS = "239.255.69.1";
+    public static int MULTICAST_PORT = 1758;
+
+    // if the client requests the RFC 2090 multicast option on reads
+    public static boolean CLIENT_MULTICAST_OPTION = false;
+
+    // the time (in milliseconds) a multicast client waits for the group, possibly for its turn as master client
+    public static int MULTICAST_CLIENT_TIMEOUT = 30000;
+
+    // the resolution (in milliseconds) of the timer wheels scheduling retransmissions
+    public static int TIMER_TICK = 100;
+
+    // the number of buckets of the timer wheels scheduling retransmissions
+    public static int TIMER_BUCKETS = 512;
+
+    // the amount of released receive buffers every thread keeps for its next packets
+    public static int BUFFER_POOL_SIZE = 16;
+
+    // if the misuses of receive buffers (i.e. leaked, released twice or used once released) are reported
+    public static boolean BUFFER_POOL_DEBUG = false;
+
+    // how the blocks of octet reads are read from the file (i.e. FileTransfer.STREAM, FileTransfer.CHANNEL or FileTransfer.MAPPED),
+    // a mapped read faults if its file is truncated meanwhile by another process, write requests are refused on files being read
+    public static int FILE_READ_BACKEND = 2;
+
+    // the size (in bytes) from which a file is memory-mapped when reads are mapped, smaller files are read by position
+    public static long FILE_MAP_THRESHOLD = 1024 * 1024;
+
+    // the amount of memory (in bytes) the server holds the content of the files being read in, 0 to disable the cache
+    public static long CONTENT_CACHE_SIZE = 64 * 1024 * 1024;
+
+    // the size (in bytes) of the largest file held by the content cache, larger files are always read from the disk
+    public static long CONTENT_CACHE_MAX_FILE = 16 * 1024 * 1024;
+
+    // if the content cache is held off-heap (in direct buffers) rather than on the Java heap
+    public static boolean CONTENT_CACHE_DIRECT = false;
+
+    // the maximum amount of bytes the server fetches from the disk ahead of every read (read through the channel of
+    // its file and not held by the content cache), 0 to disable the read-ahead
+    public static long READ_AHEAD_DEPTH = 1024 * 1024;
+
+    // the maximum amount of bytes held in memory by the read-ahead of all reads
+    public static long READ_AHEAD_MEMORY = 32 * 1024 * 1024;
+
+    // the number of threads fetching the blocks ahead of the reads
+    public static int READ_AHEAD_THREADS = 2;
+
+    // the size (in bytes) of the buffers the server coalesces the received blocks in, written in the background
+    // once full, 0 to write every block as it is received
+    public static int WRITE_BEHIND_BUFFER = 64 * 1024;
+
+    // the maximum number of buffers of every write, being filled or waiting to be written
+    public static int WRITE_BEHIND_BUFFERS = 4;
+
+    // the maximum amount of bytes held by the buffers of all writes
+    public static long WRITE_BEHIND_MEMORY = 16 * 1024 * 1024;
+
+    // the number of threads writing the buffers of all writes
+    public static int WRITE_BEHIND_THREADS = 2;
+
+    // when the files received are synced to the disk (i.e. WriteBehind.NEVER, WriteBehind.END or WriteBehind.PERIODIC)
+    public static int WRITE_SYNC = 1;
+
+    // the amount of bytes written between two syncs, when syncing periodically
+    public static long WRITE_SYNC_INTERVAL = 16 * 1024 * 1024;
+
     // the default server directory for data
     public static String SERVER_DIRECTORY = "/data/server/";
 
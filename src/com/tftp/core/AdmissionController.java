@@ -0,0 +1,194 @@
+package com.tftp.core;
+
+import com.tftp.core.protocol.TransferRequest;
+
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+
+/**
+ * AdmissionController bounds the amount of transfers the server services at once. Requests arriving while the
+ * server is saturated are held in a bounded pending queue and established as soon as a running transfer releases
+ * its slot. Once the queue is full, requests are refused and the server applies its overload policy
+ * (i.e. REJECT with an ERROR packet, or DROP silently so that the client retransmits later).
+ *
+ * Methods operating on the counters and the queue are internally synchronized to guarantee thread-safety.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 1st, 2017.
+ */
+public class AdmissionController {
+
+    // refused requests are answered immediately with an ERROR packet
+    public static final int REJECT = 1;
+
+    // refused requests are silently discarded, the client will retransmit its request
+    public static final int DROP = 2;
+
+    public enum Admission { ADMITTED, QUEUED, REFUSED }
+
+    private int maxTransfers, capacity;
+    private long timeout;
+    private int current, peak;
+    private long admitted, rejected;
+    private ArrayDeque<Pending> pending;
+    private HashSet<SocketAddress> clients;
+
+    /**
+     * @param maxTransfers the maximum amount of transfers serviced concurrently
+     * @param capacity the maximum amount of requests waiting for a free slot
+     * @param timeout the time (in milliseconds) after which a waiting request is considered abandoned by its client
+     */
+    public AdmissionController(int maxTransfers, int capacity, long timeout) {
+        this.maxTransfers = Math.max(1, maxTransfers);
+        this.capacity = Math.max(0, capacity);
+        this.timeout = timeout;
+        this.pending = new ArrayDeque<>();
+        this.clients = new HashSet<>();
+    }
+
+
+    /**
+     * Decides the fate of a newly received request.
+     *
+     * This method is THREAD-SAFE.
+     *
+     * @param request the request received by the server
+     *
+     * @return  ADMITTED    if the request may be established right away
+     *          QUEUED      if the request is waiting for a free slot (or was already waiting)
+     *          REFUSED     if the server is saturated and the overload policy must be applied
+     */
+    public synchronized Admission admit(TransferRequest request) {
+        if (current < maxTransfers) {
+            current++;
+            admitted++;
+            peak = Math.max(peak, current);
+            return Admission.ADMITTED;
+        }
+
+        expire(System.currentTimeMillis());
+        if (isPending(request)) {
+            return Admission.QUEUED;
+        }
+
+        if (pending.size() < capacity) {
+            pending.add(new Pending(request));
+            clients.add(request.getPacket().getSocketAddress());
+            return Admission.QUEUED;
+        }
+
+        rejected++;
+        return Admission.REFUSED;
+    }
+
+
+    /**
+     * Releases the slot of a completed transfer. If a request is waiting, the slot is handed over to it directly.
+     *
+     * This method is THREAD-SAFE.
+     *
+     * @return the waiting request that now owns the released slot and must be established, or null
+     */
+    public synchronized TransferRequest release() {
+        expire(System.currentTimeMillis());
+
+        Pending next = pending.poll();
+        if (next == null) {
+            current--;
+            return null;
+        }
+
+        clients.remove(next.request.getPacket().getSocketAddress());
+        admitted++;
+        return next.request;
+    }
+
+
+    /**
+     * Checks if the client of the request is already waiting in the queue (i.e. the request is a retransmission).
+     */
+    private boolean isPending(TransferRequest request) {
+        return clients.contains(request.getPacket().getSocketAddress());
+    }
+
+
+    /**
+     * Discards the waiting requests whose clients have most likely given up, the oldest being first in the queue.
+     */
+    private void expire(long now) {
+        while (!pending.isEmpty() && now - pending.peek().time > timeout) {
+            clients.remove(pending.poll().request.getPacket().getSocketAddress());
+        }
+    }
+
+
+    /**
+     *
+     * @return the amount of transfers currently being serviced.
+     */
+    public synchronized int getCurrent() {
+        return current;
+    }
+
+
+    /**
+     *
+     * @return the highest amount of transfers serviced at once since the server launched.
+     */
+    public synchronized int getPeak() {
+        return peak;
+    }
+
+
+    /**
+     *
+     * @return the amount of requests currently waiting for a free slot.
+     */
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+
+    /**
+     *
+     * @return the total amount of requests that have been established.
+     */
+    public synchronized long getAdmitted() {
+        return admitted;
+    }
+
+
+    /**
+     *
+     * @return the total amount of requests that have been refused.
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Transfers: %d/%d (peak: %d), Pending: %d/%d, Admitted: %d, Rejected: %d",
+                current, maxTransfers, peak, pending.size(), capacity, admitted, rejected);
+    }
+
+
+    /**
+     * A request waiting for a free slot, along with the time it has been received.
+     */
+    private static class Pending {
+
+        private TransferRequest request;
+        private long time;
+
+        Pending(TransferRequest request) {
+            this.request = request;
+            this.time = System.currentTimeMillis();
+        }
+    }
+}
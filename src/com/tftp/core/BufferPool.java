@@ -0,0 +1,248 @@
+package com.tftp.core;
+
+import com.tftp.TFTPConfig;
+
+import java.lang.ref.Cleaner;
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BufferPool hands out the buffers datagrams are received in, so that receiving a packet allocates nothing. A buffer
+ * is leased for as long as its packet is being processed, then released back to the pool to receive the next one.
+ *
+ * Every thread has its own pool (see local()), which is never shared: a buffer must be released by the thread that
+ * acquired it. The pool keeps up to TFTPConfig.BUFFER_POOL_SIZE released buffers, of whatever size they were
+ * acquired with (i.e. the negotiated block size of the transfer), and hands out the most recently released one that
+ * is large enough.
+ *
+ * In debug mode (TFTPConfig.BUFFER_POOL_DEBUG), misuses of the leases are reported:
+ * - a lease released twice, or by another thread, throws an IllegalStateException.
+ * - a lease used once released throws an IllegalStateException. Every acquisition is given a new lease, and the
+ *   buffer of a released lease is overwritten, so that a packet still referenced past its release is never mistaken
+ *   for the next packet received in the same buffer.
+ * - a lease collected without having been released (i.e. leaked) is reported along with where it was acquired.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 1st, 2017.
+ */
+public class BufferPool {
+
+    // the byte released buffers are filled with in debug mode
+    private static final byte POISON = (byte) 0xDD;
+
+    private static final ThreadLocal<BufferPool> POOLS = ThreadLocal.withInitial(BufferPool::new);
+    private static final AtomicInteger leaks = new AtomicInteger();
+    private static Cleaner cleaner;
+
+    private Thread owner = Thread.currentThread();
+    private Lease[] free = new Lease[Math.max(1, TFTPConfig.BUFFER_POOL_SIZE)];
+    private int size, outstanding;
+
+    private BufferPool() {
+    }
+
+
+    /**
+     *
+     * @return the pool of the calling thread.
+     */
+    public static BufferPool local() {
+        return POOLS.get();
+    }
+
+
+    /**
+     *
+     * @return the amount of leases collected without having been released, since the start of the process. Only
+     *         counted in debug mode.
+     */
+    public static int getLeaks() {
+        return leaks.get();
+    }
+
+
+    /**
+     * Leases a buffer, and its DatagramPacket, from the pool.
+     *
+     * @param capacity the size of the biggest packet to be received, in bytes (see Socket.getPacketSize())
+     *
+     * @return the lease, to be released once its packet has been processed
+     */
+    public Lease acquire(int capacity) {
+        Lease lease = null;
+        for (int i = size - 1; i >= 0; i--) {
+            if (free[i].buffer.capacity() >= capacity) {
+                lease = free[i];
+                free[i] = free[--size];
+                free[size] = null;
+                break;
+            }
+        }
+
+        if (lease == null) {
+            byte[] array = new byte[capacity];
+            lease = new Lease(ByteBuffer.wrap(array), new DatagramPacket(array, capacity));
+        } else if (TFTPConfig.BUFFER_POOL_DEBUG) {
+            // the released lease may still be referenced, the buffer is handed out through a new one
+            lease = new Lease(lease.buffer, new DatagramPacket(lease.buffer.array(), capacity));
+        }
+
+        lease.open();
+        outstanding++;
+
+        return lease;
+    }
+
+
+    /**
+     *
+     * @return the amount of buffers leased from the pool and not yet released.
+     */
+    public int getOutstanding() {
+        return outstanding;
+    }
+
+
+    /**
+     *
+     * @return the amount of released buffers kept by the pool.
+     */
+    public int size() {
+        return size;
+    }
+
+
+    //Takes a released lease back, unless the pool is full
+    private void release(Lease lease) {
+        outstanding--;
+        if (size < free.length) {
+            free[size++] = lease;
+        }
+    }
+
+    //The cleaner reporting leaked leases in debug mode, started on first use
+    private static synchronized Cleaner getCleaner() {
+        if (cleaner == null) {
+            cleaner = Cleaner.create();
+        }
+
+        return cleaner;
+    }
+
+
+    /**
+     * Lease is the handle of a buffer acquired from the pool. The buffer is shared with a DatagramPacket, so that it
+     * may be received in by either a DatagramSocket or a DatagramChannel.
+     */
+    public class Lease {
+
+        private ByteBuffer buffer;
+        private DatagramPacket datagram;
+        private LeakCheck check;
+        private boolean released;
+
+        private Lease(ByteBuffer buffer, DatagramPacket datagram) {
+            this.buffer = buffer;
+            this.datagram = datagram;
+        }
+
+
+        /**
+         *
+         * @return the buffer, cleared for a packet to be received in.
+         */
+        public ByteBuffer getBuffer() {
+            verify();
+            return buffer;
+        }
+
+
+        /**
+         *
+         * @return the DatagramPacket over the buffer, spanning its whole capacity until a packet is received.
+         */
+        public DatagramPacket getDatagram() {
+            verify();
+            return datagram;
+        }
+
+
+        /**
+         * Returns the buffer to the pool. The lease, its buffer and its DatagramPacket must no longer be used.
+         */
+        public void release() {
+            if (released && !TFTPConfig.BUFFER_POOL_DEBUG) {
+                return;
+            }
+
+            if (TFTPConfig.BUFFER_POOL_DEBUG) {
+                if (released) {
+                    throw new IllegalStateException("Buffer lease released twice");
+                }
+
+                if (Thread.currentThread() != owner) {
+                    throw new IllegalStateException(String.format("Buffer lease acquired by %s released by %s",
+                            owner.getName(), Thread.currentThread().getName()));
+                }
+
+                check.released = true;
+                Arrays.fill(buffer.array(), POISON);
+                datagram.setData(new byte[0]);
+            }
+
+            released = true;
+            BufferPool.this.release(this);
+        }
+
+
+        //Readies the lease for its next packet, the buffer may have been replaced by the previous one
+        private void open() {
+            released = false;
+            buffer.clear();
+            datagram.setData(buffer.array());
+
+            if (TFTPConfig.BUFFER_POOL_DEBUG) {
+                check = new LeakCheck(buffer.capacity());
+                getCleaner().register(this, check);
+            }
+        }
+
+        //Rejects the use of a released lease in debug mode
+        private void verify() {
+            if (released && TFTPConfig.BUFFER_POOL_DEBUG) {
+                throw new IllegalStateException("Buffer lease used after its release");
+            }
+        }
+    }
+
+
+    /**
+     * LeakCheck reports a lease that has been collected without having been released. It holds no reference to the
+     * lease itself, which would otherwise never be collected.
+     */
+    private static class LeakCheck implements Runnable {
+
+        private int capacity;
+        private Throwable origin = new Throwable("Buffer lease acquired here");
+        private volatile boolean released;
+
+        private LeakCheck(int capacity) {
+            this.capacity = capacity;
+        }
+
+
+        @Override
+        public void run() {
+            if (!released) {
+                leaks.incrementAndGet();
+                System.out.printf("BufferPool: a buffer lease of %d bytes has been leaked.\n", capacity);
+                origin.printStackTrace(System.out);
+            }
+        }
+    }
+}
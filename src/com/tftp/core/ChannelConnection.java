@@ -0,0 +1,249 @@
+package com.tftp.core;
+
+import com.tftp.Server;
+import com.tftp.TFTPConfig;
+import com.tftp.core.protocol.Packet;
+import com.tftp.core.protocol.TransferRequest;
+import com.tftp.exceptions.InvalidPacketException;
+import com.tftp.exceptions.UnknownIOModeException;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.List;
+
+/**
+ * ChannelConnection is the non-blocking counterpart of Connection. It is attached to a TransferChannel (either
+ * dedicated to it or shared with other transfers) and is driven entirely by the EventLoop owning that channel:
+ * packets are dispatched when the channel becomes readable, and retransmissions are triggered by the loop once the
+ * deadline of the last packet expires.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 1st, 2017.
+ */
+class ChannelConnection {
+
+    private String name;
+    private EventLoop loop;
+    private Server server;
+    private TransferChannel channel;
+    private InetSocketAddress remote;
+    private TransferSession session;
+    private boolean open = true;
+    private boolean waiting;
+    private TimerWheel.Timeout deadline;
+    private RoundTripEstimator estimator = new RoundTripEstimator();
+    private long sent;
+    private int timeouts;
+
+    ChannelConnection(EventLoop loop, TransferChannel channel, Server server, DatagramPacket request) {
+        this.name = String.format("Connection (Client TID: %d, TID: %d)", request.getPort(), channel.getPort());
+        this.loop = loop;
+        this.server = server;
+        this.channel = channel;
+        this.remote = (InetSocketAddress) request.getSocketAddress();
+        this.session = new TransferSession(server.getTransferController(), request.getPort(), estimator);
+        this.session.setBlocking(false, () -> loop.execute(this::resume));
+
+        channel.attach(remote, this);
+    }
+
+
+    /**
+     * Checks if the connection is still servicing the transfer.
+     */
+    boolean isOpen() {
+        return open;
+    }
+
+
+    /**
+     * Feeds a packet routed by the TransferChannel to the transfer session.
+     *
+     * @param packet the packet received from the client
+     */
+    void receive(DatagramPacket packet) {
+        // the packets received while the transfer waits for the disk are dropped, the client resends them
+        if (!open || session.isDeferred()) {
+            return;
+        }
+
+        // Karn's algorithm: only sample the round trip if the last packets were never retransmitted
+        if (waiting && timeouts == 0) {
+            estimator.sample(System.currentTimeMillis() - sent);
+        }
+
+        Socket.inform(name, packet, "Received Packet", true);
+        process(packet);
+    }
+
+
+    /**
+     * Handles the request establishing the transfer through the transfer session and dispatches the response.
+     *
+     * @param request the request, as parsed by the server
+     */
+    void process(TransferRequest request) {
+        handle(request, null);
+    }
+
+
+    /**
+     * Handles the packet through the transfer session and dispatches the response, if any.
+     *
+     * @param received the packet received from the client
+     */
+    void process(DatagramPacket received) {
+        handle(null, received);
+    }
+
+
+    /**
+     * Resumes the transfer once the disk it was waiting for is ready (see TransferSession.resume()), and dispatches
+     * the response. Run by the loop, on behalf of the thread that found the disk ready.
+     */
+    private void resume() {
+        if (open && session.isDeferred()) {
+            handle(null, null);
+        }
+    }
+
+
+    //Handles either the request or a packet of the transfer (or neither for a transfer resumed), and dispatches the
+    //response
+    private void handle(TransferRequest request, DatagramPacket received) {
+        try {
+            List<DatagramPacket> packets = request != null ? session.handleRequest(request) :
+                    received != null ? session.handlePacket(received) : session.resume();
+
+            // the request may have negotiated a larger block size
+            channel.fit(session.getBlockSize());
+            for (int i = 0; i < packets.size(); i++) {
+                Socket.inform(name, packets.get(i), "Sending Packet", false);
+                channel.send(packets.get(i), target(packets.get(i)));
+            }
+
+            if (!session.isActive()) {
+                System.out.printf("%s terminated and is closing...\n", name);
+                close();
+                return;
+            }
+
+            waiting = !packets.isEmpty();
+            sent = System.currentTimeMillis();
+            timeouts = 0;
+            arm();
+        } catch (IOException | UnknownIOModeException e) {
+            System.out.printf("A un-handled I/O error has been thrown by %s. Terminating transfer...\n", name);
+            close();
+        } catch (InvalidPacketException e) {
+            System.out.printf("%s has sent an un-handled packet. Terminating transfer...\n", name);
+            close();
+        } catch (RuntimeException e) {
+            fail(e);
+        }
+    }
+
+
+    /**
+     * Re-arms the retransmission deadline of the outstanding packets on the timer wheel of the loop.
+     */
+    private void arm() {
+        if (deadline == null) {
+            deadline = loop.getTimer().schedule(this::expire, estimator.getTimeout());
+        } else {
+            deadline.reschedule(estimator.getTimeout());
+        }
+    }
+
+
+    /**
+     * Invoked by the timer wheel of the loop once the deadline has passed without a response. Resends the packets
+     * left unacknowledged by the session (i.e. the DATA window, never an ACK or ERROR, mirroring Socket.waitForPacket)
+     * and backs the timeout off, or gives up once the retransmit budget has been exhausted.
+     */
+    private void expire() {
+        if (!open) {
+            return;
+        }
+
+        // the client is not answered before the disk is ready, its retransmissions are not held against it
+        if (session.isDeferred()) {
+            arm();
+            return;
+        }
+
+        if (++timeouts > TFTPConfig.RETRANSMIT_BUDGET) {
+            System.out.println("Packet was never Received.");
+            close();
+            return;
+        }
+
+        try {
+            List<DatagramPacket> outstanding = session.getOutstanding();
+            for (int i = 0; i < outstanding.size(); i++) {
+                DatagramPacket packet = outstanding.get(i);
+                Socket.inform(name, packet, String.format("Resending %s Packet", Packet.getPacketType(packet)), false);
+                channel.send(packet, target(packet));
+            }
+        } catch (IOException e) {
+            System.out.printf("A un-handled I/O error has been thrown by %s. Terminating transfer...\n", name);
+            close();
+            return;
+        } catch (RuntimeException e) {
+            fail(e);
+            return;
+        }
+
+        estimator.backoff();
+        arm();
+    }
+
+
+    //The address the packet is sent to: the client endpoint, unless the packet answers another one (i.e. an unknown TID)
+    private SocketAddress target(DatagramPacket packet) {
+        if (packet.getPort() == remote.getPort() && remote.getAddress().equals(packet.getAddress())) {
+            return remote;
+        }
+
+        return packet.getSocketAddress();
+    }
+
+    //Terminates the transfer on an unexpected failure, leaving the other transfers of the loop unaffected
+    private void fail(RuntimeException e) {
+        System.out.printf("An un-handled error has been thrown by %s (%s). Terminating transfer...\n", name, e);
+        try {
+            close();
+        } catch (RuntimeException ex) {
+            // the transfer has been detached and forgotten by the loop regardless, see close()
+        }
+    }
+
+
+    /**
+     * Detaches the connection from its channel and releases the transfer's resources and admission slot.
+     * Safe to invoke more than once.
+     */
+    void close() {
+        if (!open) {
+            return;
+        }
+
+        open = false;
+        if (deadline != null) {
+            deadline.cancel();
+        }
+
+        try {
+            session.terminate();
+        } finally {
+            channel.detach(remote);
+            loop.forget(this);
+            server.release();
+        }
+    }
+}
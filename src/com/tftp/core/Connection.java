@@ -1,26 +1,23 @@
 package com.tftp.core;
 
 import com.tftp.Server;
-import com.tftp.core.protocol.Authentication;
-import com.tftp.core.protocol.BlockNumber;
-import com.tftp.core.protocol.Packet;
-import com.tftp.core.protocol.Packet.PacketTypes;
-import com.tftp.core.protocol.TFTPError;
-import com.tftp.core.protocol.packets.ACKPacket;
-import com.tftp.core.protocol.packets.DATAPacket;
-import com.tftp.core.protocol.packets.ERRORPacket;
-import com.tftp.exceptions.AccessViolationException;
+import com.tftp.core.protocol.PacketCodec;
+import com.tftp.core.protocol.TransferRequest;
 import com.tftp.exceptions.InvalidPacketException;
 import com.tftp.exceptions.UnknownIOModeException;
-import com.tftp.io.FileTransfer;
 
 import java.net.DatagramPacket;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.List;
 
 /**
- * Connection allows for the dedicated thread birth for a new transfer request to be serviced. Connection containsKey
- * all the logic and power to fulfill all the needs of the transfer.
+ * Connection allows for the dedicated thread birth for a new transfer request to be serviced. Connection drives
+ * the TransferSession of the transfer by blocking on its own socket for every expected packet.
+ *
+ * Every packet of the client is received in the same buffer, sized to the block size of the transfer, so that a
+ * healthy transfer allocates nothing per block (see PacketCodec) but the address DatagramSocket.send builds for every
+ * packet sent.
  *
  * Course: Real Time Concurrent Systems
  * Term: Summer 2017
@@ -30,196 +27,54 @@ import java.net.InetAddress;
  */
 public class Connection extends Socket implements Runnable {
 
-    private DatagramPacket request;
-    private FileTransfer fileTransfer;
-    private Authentication authenticator;
+    private TransferRequest request;
+    private TransferSession session;
+    private PacketCodec received;
     private Server server;
     private int TID, clientTID;
-    private int block;
-    private boolean active = true;
 
-    public Connection(Server server, DatagramPacket packet) throws IOException {
-        super(String.format("Connection (Client TID: %d)", packet.getPort()), 0, InetAddress.getLocalHost());
+    public Connection(Server server, TransferRequest request) throws IOException {
+        super(String.format("Connection (Client TID: %d)", request.getPacket().getPort()), 0, InetAddress.getLocalHost());
         this.server = server;
-        this.request = packet;
+        this.request = request;
         this.TID = getPort();
-        this.clientTID = packet.getPort();
-        this.authenticator = new Authentication(this.clientTID);
+        this.clientTID = request.getPacket().getPort();
+        this.session = new TransferSession(server.getTransferController(), this.clientTID, getEstimator());
     }
 
 
-    //Removes the opcode & block number (first 4 bytes) from the data
-    //used only for DATA Packets
-    private byte[] extractData(byte[] msg) {
-        byte[] data = new byte[msg.length - 4];
-        System.arraycopy(msg, 4, data, 0, msg.length - 4);
-        return data;
-    }
+    private void process(TransferRequest request) throws IOException, InvalidPacketException, UnknownIOModeException {
+        List<DatagramPacket> packets = session.handleRequest(request);
+        DatagramPacket packet;
 
-    //Handles the different types of packets sent to the server, returns the returnPacket to go back to client (ACK/DATA)
-    private Packet handlePacket(DatagramPacket received) throws UnknownIOModeException, IOException, InvalidPacketException {
-        if (!authenticator.verify(received, block)) {
-            Packet result = authenticator.getResult();
+        while (true) {
 
-            if (authenticator.isDuplicate()) {
-                return duplicateReceived(result);
-            } else if (result.getType() == PacketTypes.ERROR && result.getDatagram().getData()[3] != 5) {
-                active = false;
+            for (int i = 0; i < packets.size(); i++) {
+                inform(packets.get(i), "Sending Packet");
+                send(packets.get(i));
             }
 
-            return result;
-        }
-
-        PacketTypes type = Packet.getPacketType(received);
-        Packet response;
-        if (type == PacketTypes.RRQ) {
-            response = rrqReceived(received);
-        } else if (type == PacketTypes.WRQ) {
-            response = wrqReceived(received);
-        } else if (type == PacketTypes.ACK) {
-            response = ackReceived(received);
-        } else if (type == PacketTypes.DATA) {
-            response = dataReceived(received);
-        } else if (type == PacketTypes.ERROR) {
-            response = errorReceived(received);
-        } else {
-            throw new InvalidPacketException("Illegal packet parsed!!!");
-        }
-
-        if (active) {
-            active = fileTransfer != null && !fileTransfer.isComplete();
-        }
-
-        return response;
-    }
-
-    //Read Request Received initializes the FileTransfer for mode READ, and sends DATA1 Packet
-    private Packet rrqReceived(DatagramPacket packet) throws UnknownIOModeException, IOException {
-        authenticator.setMode("reading");
-        String[] parameters = authenticator.extractTransferParameters(packet);
-        String filename = parameters[0];
-
-        if (server.getTransferController().isFileLocked(filename)) {
-            return new ERRORPacket(packet, TFTPError.ACCESS_VIOLATION, ("Access violation").getBytes());
-        }
-
-        try {
-            fileTransfer = new FileTransfer(filename, FileTransfer.READ);
-        } catch (AccessViolationException ex) {
-            return new ERRORPacket(packet, TFTPError.ACCESS_VIOLATION, ("Access violation").getBytes());
-        }
-
-        server.getTransferController().registerTransfer(fileTransfer);
-
-        byte[] data = fileTransfer.read();
-        data = shrink(data, fileTransfer.lastBlockSize());
-
-        this.block = 1;
-        return new DATAPacket(packet, BlockNumber.getBlockNumber(block), data);
-    }
-
-    //Write Request Received initializes the FileTransfer for mode WRITE, then sends ACK0 Packet
-    private Packet wrqReceived(DatagramPacket packet) throws UnknownIOModeException, IOException {
-        authenticator.setMode("writing");
-        String[] parameters = authenticator.extractTransferParameters(packet);
-        String filename = parameters[0];
-
-        if (!FileTransfer.isWritable(filename)) {
-            return new ERRORPacket(packet, TFTPError.ACCESS_VIOLATION, ("Access violation").getBytes());
-        }
-
-        try {
-            fileTransfer = new FileTransfer(filename, FileTransfer.WRITE);
-        } catch (AccessViolationException ex) {
-            return new ERRORPacket(packet, TFTPError.ACCESS_VIOLATION, ("Access violation").getBytes());
-        }
-
-        server.getTransferController().registerTransfer(fileTransfer);
-
-        this.block = 0;
-        return new ACKPacket(packet, BlockNumber.getBlockNumber(block++));
-    }
-
-    //Ack Received gets the bytes from the FileTransfer Object then sends DATA1 Packet
-    private Packet ackReceived(DatagramPacket packet) throws UnknownIOModeException, IOException {
-        //Send Data from the file
-        byte[] data = fileTransfer.read();
-        data = shrink(data, fileTransfer.lastBlockSize());
-        this.block++;
-
-        return new DATAPacket(packet, BlockNumber.getBlockNumber(block), data);
-
-    }
-
-    //Data Received extracts the data (removed opcode/block#) then uses FileTransfer Object to Write the data
-    private Packet dataReceived(DatagramPacket packet) throws UnknownIOModeException, IOException {
-        byte[] msg = extractData(packet.getData());
-        fileTransfer.write(msg);
-        return new ACKPacket(packet, BlockNumber.getBlockNumber(block++));
-    }
-
-    //Error Received handles the error packets which are sent to the server, different from detecting errors
-    //No matter which error the Connection RECEIVES it shuts down. This is because if it receives an error
-    //Packet that means the client has sent it an error, if its TID then the Connection is communicating with
-    //The incorrect client.
-    private Packet errorReceived(DatagramPacket packet) throws UnknownIOModeException, IOException {
-        //If the Server receives an invalid TID it must terminate, this means the Server is communicating with an incorrect Client
-        byte[] errorMsg = new byte[packet.getLength() - 4];
-        System.arraycopy(packet.getData(), 4, errorMsg, 0, packet.getData().length - 4);
-        System.out.println("Error Packet Received: Error Code: 0" + packet.getData()[3] + ", Error Message: " + new String(errorMsg));
-
-        active = packet.getData()[3] == (byte) 5;
-        return null;
-    }
-
-    private Packet duplicateReceived(Packet duplicatePacket) throws IOException {
-        if (duplicatePacket.getType() == Packet.PacketTypes.ACK){
-            System.out.println("Duplicate ACK Received: Ignoring Packet.");
-            return null;
-        } else if (duplicatePacket.getType() == Packet.PacketTypes.DATA) {
-            byte[] bn = new byte[2];
-            bn[0] = duplicatePacket.getDatagram().getData()[2];
-            bn[1] = duplicatePacket.getDatagram().getData()[3];
-
-            System.out.println("Duplicate DATA Received. Sending corresponding ACK packet!");
-            return new ACKPacket(duplicatePacket.getDatagram(), bn);
-        } else {
-            return null;
-        }
-    }
-
-    private void process(DatagramPacket request) throws IOException, InvalidPacketException, UnknownIOModeException {
-        Packet packet;
-
-        while (true) {
-            packet = handlePacket(request);
-
-            if (packet != null){
-                inform(packet, "Sending Packet");
-                send(packet);
+            // the request may have negotiated a larger block size
+            if (received == null || received.getCapacity() < getPacketSize(session.getBlockSize())) {
+                received = PacketCodec.allocate(getPacketSize(session.getBlockSize()));
             }
 
             // transfer complete
-            if (!active) {
-                if (fileTransfer != null) {
-                    server.getTransferController().deregisterTransfer(fileTransfer);
-                    fileTransfer.close();
-                }
-
+            if (!session.isActive()) {
+                session.terminate();
                 break;
             }
 
-            request = waitForPacket(packet);
-            if (request == null) {
+            // the whole window (if any) is resent on every timeout
+            packet = waitForPacket(received, session.getOutstanding(), !packets.isEmpty());
+            if (packet == null) {
                 System.out.println("Packet was never Received.");
-
-                if (fileTransfer != null) {
-                    server.getTransferController().deregisterTransfer(fileTransfer);
-                    fileTransfer.close();
-                }
+                session.terminate();
                 break;
             }
-            inform(request, "Received Packet", true);
+            inform(packet, "Received Packet", true);
+
+            packets = session.handlePacket(packet);
         }
 
     }
@@ -233,6 +88,10 @@ public class Connection extends Socket implements Runnable {
             System.out.printf("A un-handled I/O error has been thrown by %s. Terminating thread...\n", getName());
         } catch (InvalidPacketException e) {
             System.out.printf("%s has sent an un-handled packet. Terminating thread...\n", getName());
+        } finally {
+            session.terminate();
+            close();
+            server.release();
         }
     }
 }
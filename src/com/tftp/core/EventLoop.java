@@ -0,0 +1,258 @@
+package com.tftp.core;
+
+import com.tftp.Server;
+import com.tftp.TFTPConfig;
+import com.tftp.core.protocol.TransferRequest;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * EventLoop is an independent thread that drives many transfers at once through a single Selector. Requests are
+ * handed to the loop by the server; the loop then owns the ChannelConnection of each transfer for its whole life,
+ * so no locking is needed on the transfer state itself.
+ *
+ * Retransmission deadlines are armed on a TimerWheel owned by the loop, which is advanced between two selections
+ * so that all due retransmissions are fired in bulk on the loop thread.
+ *
+ * Other threads hand work over to the loop through execute() (i.e. a transfer woken up once the disk it was waiting
+ * for is ready), run between two selections as well.
+ *
+ * A transfer failing unexpectedly (i.e. a RuntimeException while handling one of its packets) is terminated on its
+ * own: the loop keeps selecting for all other transfers.
+ *
+ * Depending on TFTPConfig.SERVER_TRANSPORT, every transfer is either given a dedicated TransferChannel, or placed
+ * on one of the shared TransferChannels pre-bound by the loop at construction.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 1st, 2017.
+ */
+public class EventLoop extends Thread {
+
+    // every transfer binds its own ephemeral channel
+    public static final int DEDICATED = 1;
+
+    // transfers are multiplexed over a fixed pool of pre-bound channels
+    public static final int SHARED = 2;
+
+    // the most requests established per iteration, so that a flood of requests does not starve the running transfers
+    private static final int REQUEST_BATCH = 64;
+
+    private Selector selector;
+    private Server server;
+    private Queue<TransferRequest> requests;
+    private Queue<Runnable> tasks;
+    private HashSet<ChannelConnection> connections;
+    private ArrayList<TransferChannel> channels;
+    private TimerWheel timer;
+    private Consumer<SelectionKey> dispatcher = this::dispatch;
+    private int next;
+    private volatile int transfers;
+    private volatile boolean running = true;
+
+    public EventLoop(String name, Server server) throws IOException {
+        super(name);
+        this.server = server;
+        this.selector = Selector.open();
+        this.requests = new ConcurrentLinkedQueue<>();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.connections = new HashSet<>();
+        this.channels = new ArrayList<>();
+        this.timer = new TimerWheel(TFTPConfig.TIMER_TICK, TFTPConfig.TIMER_BUCKETS);
+
+        if (TFTPConfig.SERVER_TRANSPORT == SHARED) {
+            for (int i = 0; i < TFTPConfig.SERVER_SHARED_CHANNELS; i++) {
+                channels.add(new TransferChannel(selector, false));
+            }
+        }
+    }
+
+
+    /**
+     * Queues a new request to be established on this loop.
+     *
+     * This method is THREAD-SAFE.
+     *
+     * @param request the RRQ/WRQ received by the server
+     */
+    public void submit(TransferRequest request) {
+        requests.add(request);
+        selector.wakeup();
+    }
+
+
+    /**
+     * Queues a task to be run by the loop (i.e. a transfer woken up by another thread), on its next iteration.
+     *
+     * This method is THREAD-SAFE.
+     *
+     * @param task the task
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+
+    /**
+     * Stops the loop. All in-flight transfers are terminated once the loop exits.
+     *
+     * This method is THREAD-SAFE.
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+
+    /**
+     *
+     * @return the number of transfers currently serviced by this loop.
+     */
+    public int getTransferCount() {
+        return transfers;
+    }
+
+
+    /**
+     *
+     * @return the timer wheel of this loop. Must only be used from the loop thread.
+     */
+    TimerWheel getTimer() {
+        return timer;
+    }
+
+
+    /**
+     * Forgets a connection that has been closed. Invoked from the loop thread.
+     */
+    void forget(ChannelConnection connection) {
+        if (connections.remove(connection)) {
+            transfers = connections.size();
+        }
+    }
+
+
+    /**
+     * Selects the channel to carry a new transfer of the client endpoint. Shared channels are handed out in a
+     * round-robin fashion, skipping those already carrying a transfer of the same endpoint. A dedicated channel is
+     * opened if there are no shared channels (or none is eligible).
+     *
+     * @param remote the client endpoint (i.e. address and TID)
+     *
+     * @return the TransferChannel
+     */
+    private TransferChannel lease(SocketAddress remote) throws IOException {
+        for (int i = 0; i < channels.size(); i++) {
+            TransferChannel channel = channels.get(next);
+            next = (next + 1) % channels.size();
+
+            if (!channel.isAttached(remote)) {
+                return channel;
+            }
+        }
+
+        return new TransferChannel(selector, true);
+    }
+
+
+    /**
+     * Establishes a ChannelConnection for the requests that have been submitted since the last iteration, up to
+     * REQUEST_BATCH of them: the others are left to the next iteration.
+     */
+    private void establish() {
+        TransferRequest request;
+        for (int i = 0; i < REQUEST_BATCH && (request = requests.poll()) != null; i++) {
+            DatagramPacket packet = request.getPacket();
+            try {
+                ChannelConnection connection = new ChannelConnection(this, lease(packet.getSocketAddress()), server, packet);
+                connections.add(connection);
+                transfers = connections.size();
+                connection.process(request);
+            } catch (IOException | RuntimeException e) {
+                System.out.printf("%s was unable to establish a connection for Client TID: %d\n", getName(), packet.getPort());
+                server.release();
+            }
+        }
+    }
+
+
+    /**
+     * Runs the tasks that have been queued since the last iteration. A task failing unexpectedly does not end the
+     * loop.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.out.printf("An un-handled error has been thrown on %s (%s). Dropping task...\n", getName(), e);
+            }
+        }
+    }
+
+
+    /**
+     * Hands a channel selected for reading to its TransferChannel. Invoked by the selector for every selected key, as
+     * it is selected, rather than through the set of selected keys (which allocates for every key added to it).
+     */
+    private void dispatch(SelectionKey key) {
+        // a fault within a single transfer must not end the loop, along with every transfer it drives
+        try {
+            if (key.isValid() && key.isReadable()) {
+                ((TransferChannel) key.attachment()).receive();
+            }
+        } catch (RuntimeException e) {
+            System.out.printf("An un-handled error has been thrown on %s (%s). Dropping packet...\n", getName(), e);
+        }
+    }
+
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                establish();
+                runTasks();
+
+                // only wake up for the timer wheel when there are deadlines to be processed, or right away when
+                // requests or tasks are still waiting (the channels closed since are released by the selection)
+                if (!requests.isEmpty() || !tasks.isEmpty()) {
+                    selector.selectNow(dispatcher);
+                } else {
+                    selector.select(dispatcher, timer.size() > 0 ? timer.getTick() : 0);
+                }
+
+                timer.advance(System.currentTimeMillis());
+            }
+        } catch (IOException e) {
+            System.out.printf("A un-handled I/O error has been thrown by %s. Terminating loop...\n", getName());
+        } finally {
+            for (ChannelConnection connection : new ArrayList<>(connections)) {
+                connection.close();
+            }
+
+            for (TransferChannel channel : channels) {
+                channel.close();
+            }
+
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.tftp.core;
+
+import com.tftp.Server;
+import com.tftp.core.protocol.TransferRequest;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * EventLoopGroup owns a fixed number of EventLoops and spreads incoming requests between them in a round-robin
+ * fashion. The amount of threads servicing transfers stays constant no matter how many transfers are in flight.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 1st, 2017.
+ */
+public class EventLoopGroup {
+
+    private EventLoop[] loops;
+    private AtomicInteger next = new AtomicInteger();
+
+    public EventLoopGroup(int size, Server server) throws IOException {
+        loops = new EventLoop[Math.max(1, size)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop("EventLoop" + i, server);
+        }
+    }
+
+
+    /**
+     * Starts all the loops of the group.
+     */
+    public void start() {
+        for (EventLoop loop : loops) {
+            loop.start();
+        }
+    }
+
+
+    /**
+     * Hands the request to the next loop in line.
+     *
+     * This method is THREAD-SAFE.
+     *
+     * @param request the RRQ/WRQ received by the server
+     */
+    public void submit(TransferRequest request) {
+        loops[Math.floorMod(next.getAndIncrement(), loops.length)].submit(request);
+    }
+
+
+    /**
+     * Stops all the loops of the group, terminating their in-flight transfers.
+     */
+    public void shutdown() {
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+
+    /**
+     *
+     * @return the number of transfers currently in flight across all loops.
+     */
+    public int getTransferCount() {
+        int count = 0;
+        for (EventLoop loop : loops) {
+            count += loop.getTransferCount();
+        }
+
+        return count;
+    }
+}
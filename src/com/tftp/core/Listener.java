@@ -0,0 +1,45 @@
+package com.tftp.core;
+
+import com.tftp.Server;
+import com.tftp.TFTPConfig;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+
+/**
+ * Listener is an additional receive socket of the server, sharing the server port through SO_REUSEPORT. The kernel
+ * spreads incoming requests between the server and its listeners, each of which receives and admits its share of
+ * requests independently.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 1st, 2017.
+ */
+public class Listener extends Socket implements Runnable {
+
+    private Server server;
+
+    public Listener(Server server, int index) throws IOException {
+        super(String.format("Server, Socket 'R' #%d", index), TFTPConfig.SERVER_PORT, InetAddress.getLocalHost(), true);
+        this.server = server;
+    }
+
+
+    @Override
+    public void run() {
+        try {
+            while (!isClosed()) {
+                DatagramPacket packet = receive();
+                inform(packet, "Received Packet");
+                server.admit(this, packet);
+            }
+        } catch (IOException e) {
+            if (!isClosed()) {
+                System.out.printf("A un-handled I/O error has been thrown by %s. Terminating listener...\n", getName());
+            }
+        }
+    }
+}
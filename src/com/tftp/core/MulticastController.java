@@ -0,0 +1,178 @@
+package com.tftp.core;
+
+import com.tftp.TFTPConfig;
+import com.tftp.core.protocol.Authentication;
+import com.tftp.core.protocol.Packet;
+import com.tftp.core.protocol.TransferOptions;
+import com.tftp.core.protocol.TransferRequest;
+import com.tftp.exceptions.AccessViolationException;
+import com.tftp.exceptions.UnknownIOModeException;
+import com.tftp.io.FileTransfer;
+import com.tftp.io.TransferController;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+
+/**
+ * MulticastController keeps the multicast groups of the server (RFC 2090), one per file and block size. A read
+ * request carrying the multicast option joins the running group of its file, or starts a new one, instead of being
+ * serviced as a transfer of its own.
+ *
+ * Requests that cannot be multicast are left to the regular transfers, which ignore the option: netascii reads
+ * (blocks are written in place by the clients) and files of more than 65535 blocks (block numbers are requested out
+ * of order, and could not be told apart after a rollover).
+ *
+ * Methods operating on the groups are internally synchronized to guarantee thread-safety.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 1st, 2017.
+ */
+public class MulticastController {
+
+    private TransferController transfers;
+    private HashMap<String, MulticastGroup> groups = new HashMap<>();
+    private int index;
+
+    /**
+     * @param transfers the controller keeping track of all transfers of the server, which locks the files of groups
+     */
+    public MulticastController(TransferController transfers) {
+        this.transfers = transfers;
+    }
+
+
+    /**
+     * Hands the request over to the multicast group of its file, starting the group if there is none. A group is not
+     * started on a file locked by a regular read, as a regular read is not started on a file locked by a group: the
+     * request is then left to the regular transfers, which refuse it.
+     *
+     * The file of a new group is opened (and possibly loaded in the content cache) outside of the lock of the
+     * controller, so that the requests of the other groups are not held up meanwhile.
+     *
+     * This method is THREAD-SAFE.
+     *
+     * @param listener the socket the request has been received on, used to answer invalid requests
+     * @param request the request received by the server
+     *
+     * @return  true    if the request has been handled (i.e. joined a group, or has been answered with an ERROR)
+     *          false   if the request must be serviced as a regular transfer
+     */
+    public boolean join(Socket listener, TransferRequest request) throws IOException {
+        if (!TFTPConfig.MULTICAST || !TFTPConfig.OPTION_NEGOTIATION || !request.isRead()) {
+            return false;
+        }
+
+        if (!request.hasOption(TransferOptions.MULTICAST) || request.isNetascii()) {
+            return false;
+        }
+
+        // the request is verified as the one of a regular transfer (i.e. the file must exist)
+        Authentication authenticator = new Authentication(request.getPacket().getPort());
+        if (!authenticator.verify(request)) {
+            Packet result = authenticator.getResult();
+            listener.inform(result, "Sending Packet");
+            listener.send(result);
+            return true;
+        }
+
+        // the group is driven block by block by its master client, and keeps its own timeout
+        TransferOptions options = request.getOptions().negotiate();
+        options.remove(TransferOptions.WINDOWSIZE);
+        options.remove(TransferOptions.TIMEOUT);
+
+        int blockSize = options.getInt(TransferOptions.BLKSIZE, FileTransfer.BLOCK_SIZE);
+        String key = request.getFilename() + "/" + blockSize;
+
+        if (join(key, request, options)) {
+            return true;
+        }
+
+        if (transfers.isFileLocked(request.getFilename())) {
+            return false;
+        }
+
+        FileTransfer fileTransfer = open(request.getFilename(), blockSize);
+        if (fileTransfer == null) {
+            return false;
+        }
+
+        synchronized (this) {
+            // another request of the file may have started its group, or a regular read, while the file was opened
+            boolean joined = join(key, request, options);
+            if (joined || transfers.isFileLocked(request.getFilename())) {
+                fileTransfer.close();
+                return joined;
+            }
+
+            MulticastGroup group = new MulticastGroup(this, key, fileTransfer, new InetSocketAddress(nextAddress(), TFTPConfig.MULTICAST_PORT));
+            transfers.registerTransfer(fileTransfer);
+            groups.put(key, group);
+            group.join(request.getPacket(), options);
+            new Thread(group, "MulticastGroup" + index).start();
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Removes an ended group and releases its file.
+     *
+     * This method is THREAD-SAFE.
+     *
+     * @param group the ended group
+     */
+    public synchronized void remove(MulticastGroup group) {
+        groups.remove(group.getKey(), group);
+        transfers.deregisterTransfer(group.getFileTransfer());
+    }
+
+
+    /**
+     *
+     * @return the amount of multicast groups currently running.
+     */
+    public synchronized int getGroups() {
+        return groups.size();
+    }
+
+
+    //Joins the running group of the given key, if any. Returns false if there is none, or it has ended
+    private synchronized boolean join(String key, TransferRequest request, TransferOptions options) throws IOException {
+        MulticastGroup group = groups.get(key);
+        return group != null && group.join(request.getPacket(), options);
+    }
+
+    //Opens the file of a new group and loads its content, returns null if the file cannot be multicast
+    private FileTransfer open(String filename, int blockSize) throws IOException {
+        FileTransfer fileTransfer;
+        try {
+            fileTransfer = new FileTransfer(filename, FileTransfer.READ);
+        } catch (FileNotFoundException | AccessViolationException | UnknownIOModeException ex) {
+            return null;
+        }
+
+        fileTransfer.setBlockSize(blockSize);
+        if (fileTransfer.length() / fileTransfer.getBlockSize() >= 0xFFFF) {
+            fileTransfer.close();
+            return null;
+        }
+
+        fileTransfer.setCache(transfers.getContentCache());
+        return fileTransfer;
+    }
+
+    //Every group gets its own address, counting up from TFTPConfig.MULTICAST_ADDRESS
+    private InetAddress nextAddress() throws IOException {
+        byte[] address = InetAddress.getByName(TFTPConfig.MULTICAST_ADDRESS).getAddress();
+        address[address.length - 1] += (byte) (index++ % 128);
+
+        return InetAddress.getByAddress(address);
+    }
+}
@@ -0,0 +1,227 @@
+package com.tftp.core;
+
+import com.tftp.core.protocol.BlockNumber;
+import com.tftp.core.protocol.Packet;
+import com.tftp.core.protocol.Packet.PacketTypes;
+import com.tftp.core.protocol.PacketCodec;
+import com.tftp.core.protocol.TransferOptions;
+import com.tftp.core.protocol.packets.OACKPacket;
+import com.tftp.io.FileTransfer;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * MulticastGroup services every client reading the same file through the RFC 2090 multicast option. Each DATA
+ * packet is sent once to the multicast address of the group, whatever the amount of clients listening to it.
+ *
+ * The transfer is driven by a single master client at a time, which acknowledges the blocks on behalf of the group:
+ * the ACK of block n requests block n + 1, so that the master may ask for any block it has missed. Once the master
+ * client holds the whole file (it acknowledges the last block), the next client of the group is promoted to master
+ * through an OACK packet, and requests the blocks it has missed in turn (i.e. a client that joined late). Clients
+ * that complete the file without ever becoming master acknowledge the last block to leave the group.
+ *
+ * The group runs on its own thread and socket, and ends as soon as its last client has left.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 1st, 2017.
+ */
+public class MulticastGroup extends Socket implements Runnable {
+
+    private MulticastController controller;
+    private FileTransfer fileTransfer;
+    private InetSocketAddress group;
+    private String key;
+    private int lastBlock;
+    private LinkedHashSet<SocketAddress> members = new LinkedHashSet<>();
+    private SocketAddress master;
+    private boolean ended;
+
+    /**
+     * @param controller the controller keeping track of the groups of the server
+     * @param key the key of the group, identifying its file and block size
+     * @param fileTransfer the file read by the group, with the block size of the group
+     * @param group the multicast address and port the DATA packets are sent to
+     */
+    public MulticastGroup(MulticastController controller, String key, FileTransfer fileTransfer, InetSocketAddress group) throws IOException {
+        super(String.format("Multicast Group (%s:%d)", group.getAddress().getHostAddress(), group.getPort()), 0, InetAddress.getLocalHost());
+        this.controller = controller;
+        this.key = key;
+        this.fileTransfer = fileTransfer;
+        this.group = group;
+        this.lastBlock = (int) (fileTransfer.length() / fileTransfer.getBlockSize()) + 1;
+
+        // the group is sent on the interface the server is reachable on
+        NetworkInterface networkInterface = NetworkInterface.getByInetAddress(getLocalAddress());
+        if (networkInterface != null) {
+            setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+        }
+    }
+
+
+    public String getKey() {
+        return key;
+    }
+
+
+    public FileTransfer getFileTransfer() {
+        return fileTransfer;
+    }
+
+
+    /**
+     * Adds the requesting client to the group and acknowledges its options. The first client of the group becomes
+     * its master client. A retransmitted request is acknowledged again.
+     *
+     * This method is THREAD-SAFE.
+     *
+     * @param request the RRQ of the client
+     * @param options the options acknowledged to the client, to which the multicast option is added
+     *
+     * @return  true    if the client has joined the group
+     *          false   if the group has ended and may no longer be joined
+     */
+    public synchronized boolean join(DatagramPacket request, TransferOptions options) throws IOException {
+        if (ended) {
+            return false;
+        }
+
+        SocketAddress client = request.getSocketAddress();
+        members.add(client);
+        if (master == null) {
+            master = client;
+        }
+
+        if (options.contains(TransferOptions.TSIZE)) {
+            options.set(TransferOptions.TSIZE, String.valueOf(fileTransfer.length()));
+        }
+
+        options.set(TransferOptions.MULTICAST, describe(client.equals(master)));
+        Packet oack = new OACKPacket(new DatagramPacket(new byte[0], 0, client), options);
+        inform(oack, "Sending Packet");
+        send(oack);
+
+        System.out.printf("%s: Client %s joined (%d clients).\n", getName(), client, members.size());
+        return true;
+    }
+
+
+    @Override
+    public void run() {
+        try {
+            serve();
+            System.out.printf("%s terminated and is closing...\n", getName());
+        } catch (IOException e) {
+            System.out.printf("A un-handled I/O error has been thrown by %s. Terminating group...\n", getName());
+        } finally {
+            synchronized (this) {
+                ended = true;
+            }
+
+            controller.remove(this);
+            fileTransfer.close();
+            close();
+        }
+    }
+
+
+    //Sends the blocks requested by the master client to the group, until every client has left
+    private void serve() throws IOException {
+        // the last packet sent on behalf of the master client, resent on every timeout
+        List<DatagramPacket> outstanding = new ArrayList<>();
+
+        // every block is read from the file straight behind the header of the one DATA packet of the group
+        PacketCodec data = PacketCodec.allocate(fileTransfer.getBlockSize() + PacketCodec.HEADER_SIZE);
+        data.getDatagram().setSocketAddress(group);
+
+        while (true) {
+            DatagramPacket packet = waitForPacket(null, outstanding, !outstanding.isEmpty());
+            if (packet == null) {
+                // the master client is presumed gone, the next client of the group takes over
+                System.out.printf("%s: Master client %s never responded, promoting the next client.\n", getName(), master);
+                if (!leave(master, outstanding)) {
+                    return;
+                }
+
+                continue;
+            }
+
+            inform(packet, "Received Packet", true);
+            SocketAddress sender = packet.getSocketAddress();
+            PacketTypes type = Packet.getPacketType(packet);
+
+            if (type == PacketTypes.ERROR) {
+                if (isMember(sender) && !leave(sender, outstanding)) {
+                    return;
+                }
+            } else if (type == PacketTypes.ACK && isMember(sender)) {
+                int acked = BlockNumber.getBlockNumber(packet.getData());
+
+                // a client holding the whole file leaves the group, only the master client requests blocks
+                if (acked >= lastBlock) {
+                    if (!leave(sender, outstanding)) {
+                        return;
+                    }
+                } else if (sender.equals(getMaster())) {
+                    data.putData(acked + 1, fileTransfer.readBlock(acked + 1, data.payload(fileTransfer.getBlockSize())));
+
+                    inform(data, "Sending Packet");
+                    send(data.getDatagram());
+
+                    outstanding.clear();
+                    outstanding.add(data.getDatagram());
+                }
+            }
+        }
+    }
+
+    //Removes the client from the group, promoting the next client if it was the master client.
+    //Returns false once the group has no client left
+    private synchronized boolean leave(SocketAddress client, List<DatagramPacket> outstanding) throws IOException {
+        members.remove(client);
+        if (members.isEmpty()) {
+            ended = true;
+            return false;
+        }
+
+        if (client.equals(master)) {
+            master = members.iterator().next();
+
+            TransferOptions options = new TransferOptions();
+            options.set(TransferOptions.MULTICAST, describe(true));
+            Packet oack = new OACKPacket(new DatagramPacket(new byte[0], 0, master), options);
+            inform(oack, "Sending Packet");
+            send(oack);
+
+            // the promotion is resent until the new master client requests its first block
+            outstanding.clear();
+            outstanding.add(oack.getDatagram());
+        }
+
+        return true;
+    }
+
+    private synchronized boolean isMember(SocketAddress client) {
+        return members.contains(client);
+    }
+
+    private synchronized SocketAddress getMaster() {
+        return master;
+    }
+
+    //The value of the multicast option acknowledged to a client (RFC 2090)
+    private String describe(boolean master) {
+        return String.format("%s,%d,%d", group.getAddress().getHostAddress(), group.getPort(), master ? 1 : 0);
+    }
+}
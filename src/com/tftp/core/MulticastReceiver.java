@@ -0,0 +1,129 @@
+package com.tftp.core;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MulticastReceiver receives the packets of a multicast read (RFC 2090) on behalf of a client: the DATA packets sent
+ * to the group, as well as the packets sent to the client itself (i.e. the OACK promoting it to master client). Both
+ * sockets are drained by daemon threads into a single queue, so that the client waits on a single source.
+ *
+ * Several clients of the same host may join the same group, as the group socket is bound with SO_REUSEADDR.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 1st, 2017.
+ */
+public class MulticastReceiver implements AutoCloseable {
+
+    // how often (in milliseconds) the thread draining the client socket checks if the receiver has been closed
+    private static final int POLL_INTERVAL = 100;
+
+    private MulticastSocket group;
+    private InetSocketAddress address;
+    private NetworkInterface networkInterface;
+    private LinkedBlockingQueue<DatagramPacket> queue = new LinkedBlockingQueue<>();
+    private Thread unicastThread;
+    private volatile boolean closed;
+
+    /**
+     * Joins the multicast group and starts receiving.
+     *
+     * @param unicast the socket of the client, which must not be received on until the receiver is closed
+     * @param address the multicast address of the group
+     * @param port the port of the group
+     * @param packetSize the size of the buffer receiving the DATA packets of the group
+     */
+    public MulticastReceiver(Socket unicast, InetAddress address, int port, int packetSize) throws IOException {
+        this.address = new InetSocketAddress(address, port);
+        this.networkInterface = NetworkInterface.getByInetAddress(InetAddress.getLocalHost());
+
+        group = new MulticastSocket(port);
+        group.joinGroup(this.address, networkInterface);
+
+        Thread groupThread = new Thread(() -> {
+            // the packets are handed over to the client thread, only the data received is copied out of the buffer
+            BufferPool.Lease lease = BufferPool.local().acquire(packetSize);
+            try {
+                DatagramPacket received = lease.getDatagram();
+                while (!closed) {
+                    received.setLength(packetSize);
+                    group.receive(received);
+                    queue.add(new DatagramPacket(Socket.shrink(received.getData(), received.getLength()),
+                            received.getLength(), received.getSocketAddress()));
+                }
+            } catch (IOException e) {
+                // the group socket has been closed
+            } finally {
+                lease.release();
+            }
+        }, "MulticastReceiver (group)");
+
+        unicastThread = new Thread(() -> {
+            try {
+                while (!closed) {
+                    try {
+                        queue.add(unicast.receive(POLL_INTERVAL));
+                    } catch (SocketTimeoutException e) {
+                        // checks if the receiver has been closed
+                    }
+                }
+            } catch (IOException e) {
+                // the client socket has been closed
+            }
+        }, "MulticastReceiver (unicast)");
+
+        groupThread.setDaemon(true);
+        unicastThread.setDaemon(true);
+        groupThread.start();
+        unicastThread.start();
+    }
+
+
+    /**
+     * Waits for the next packet received from the group or sent to the client.
+     *
+     * @param timeout the time (in milliseconds) to wait
+     *
+     * @return the packet, or null if none was received in time
+     */
+    public DatagramPacket poll(long timeout) {
+        try {
+            return queue.poll(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Leaves the group and stops receiving. Once closed, the socket of the client may be received on again.
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        try {
+            group.leaveGroup(address, networkInterface);
+        } catch (IOException e) {
+            // the group is left as the socket closes
+        }
+
+        group.close();
+
+        try {
+            unicastThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
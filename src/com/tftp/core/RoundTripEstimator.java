@@ -0,0 +1,128 @@
+package com.tftp.core;
+
+import com.tftp.TFTPConfig;
+
+/**
+ * RoundTripEstimator derives the retransmission timeout of a transfer from its measured round trip times, in the
+ * manner of Jacobson/Karels (RFC 6298): a smoothed RTT and an RTT variance are maintained, and the timeout is
+ * SRTT + 4 * RTTVAR, bounded by TFTPConfig.MIN_TIMEOUT and TFTPConfig.MAX_TIMEOUT.
+ *
+ * Every timeout doubles the current value (exponential backoff) until a new sample is taken. As per Karn's
+ * algorithm, callers must not sample the round trip of a packet that has been retransmitted, since the response
+ * cannot be attributed to a specific transmission.
+ *
+ * If TFTPConfig.ADAPTIVE_TIMEOUT is disabled, the estimator always yields the fixed TFTPConfig.RETRANSMIT_TIMEOUT.
+ *
+ * Methods are internally synchronized, as retransmissions may be fired from a timer thread.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 1st, 2017.
+ */
+public class RoundTripEstimator {
+
+    private boolean adaptive;
+    private boolean sampled;
+    private double srtt, rttvar;
+    private long rto;
+    private int backoff;
+
+    public RoundTripEstimator() {
+        this.adaptive = TFTPConfig.ADAPTIVE_TIMEOUT;
+        this.rto = adaptive ? TFTPConfig.INITIAL_TIMEOUT : TFTPConfig.RETRANSMIT_TIMEOUT;
+    }
+
+
+    /**
+     * Feeds a round trip measurement to the estimator and clears any backoff.
+     *
+     * @param rtt the round trip time in milliseconds of a packet that has not been retransmitted
+     */
+    public synchronized void sample(long rtt) {
+        if (!adaptive) {
+            return;
+        }
+
+        if (!sampled) {
+            srtt = rtt;
+            rttvar = rtt / 2.0;
+            sampled = true;
+        } else {
+            rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - rtt);
+            srtt = 0.875 * srtt + 0.125 * rtt;
+        }
+
+        rto = bound((long) Math.ceil(srtt + Math.max(TFTPConfig.TIMER_TICK, 4 * rttvar)));
+        backoff = 0;
+    }
+
+
+    /**
+     * Fixes the timeout for the rest of the transfer, disabling adaptation (i.e. a timeout negotiated through the
+     * RFC 2349 option).
+     *
+     * @param timeout the timeout in milliseconds
+     */
+    public synchronized void setTimeout(long timeout) {
+        this.adaptive = false;
+        this.rto = timeout;
+        this.backoff = 0;
+    }
+
+
+    /**
+     * Doubles the timeout after a retransmission, up to TFTPConfig.MAX_TIMEOUT.
+     */
+    public synchronized void backoff() {
+        if (adaptive && (rto << backoff) < TFTPConfig.MAX_TIMEOUT) {
+            backoff++;
+        }
+    }
+
+
+    /**
+     *
+     * @return the current retransmission timeout in milliseconds.
+     */
+    public synchronized long getTimeout() {
+        return adaptive ? bound(rto << backoff) : rto;
+    }
+
+
+    /**
+     * Computes how long to wait for a response before giving up, given the amount of retransmissions allowed and
+     * assuming every one of them backs the timeout off.
+     *
+     * @param retransmissions the retransmission budget
+     *
+     * @return the total time to wait in milliseconds
+     */
+    public synchronized long getTotalTimeout(int retransmissions) {
+        if (!adaptive) {
+            return rto * (retransmissions + 1);
+        }
+
+        long total = 0;
+        for (int i = 0; i <= retransmissions; i++) {
+            total += bound(rto << Math.min(backoff + i, 30));
+        }
+
+        return total;
+    }
+
+
+    /**
+     *
+     * @return the smoothed round trip time in milliseconds, or -1 if no sample has been taken yet.
+     */
+    public synchronized long getSmoothedRoundTrip() {
+        return sampled ? (long) srtt : -1;
+    }
+
+
+    private long bound(long timeout) {
+        return Math.max(TFTPConfig.MIN_TIMEOUT, Math.min(TFTPConfig.MAX_TIMEOUT, timeout));
+    }
+}
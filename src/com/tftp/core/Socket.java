@@ -3,14 +3,22 @@ package com.tftp.core;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.io.IOException;
 
 import com.tftp.TFTPConfig;
 import com.tftp.core.protocol.BlockNumber;
 import com.tftp.core.protocol.Packet;
+import com.tftp.core.protocol.PacketClassifier;
+import com.tftp.core.protocol.PacketCodec;
 import com.tftp.core.protocol.Packet.PacketTypes;
+import com.tftp.io.FileTransfer;
 
 /**
  * Socket is a wrapper class of DatagramSocket that allows for easier use of the networking interface by abstracting
@@ -25,8 +33,10 @@ import com.tftp.core.protocol.Packet.PacketTypes;
 public class Socket extends DatagramSocket {
 
     private String name;
-    private static int TIMEOUT_TIME = 5000; //MilliSeconds to wait before retransmitting a packet
-    private static int RETRANSMIT_NUM = 3; //Number of times to retransmit a packet
+    private int timeout;
+    private int packetSize = getPacketSize(FileTransfer.BLOCK_SIZE);
+    private RoundTripEstimator estimator = new RoundTripEstimator();
+    private Retransmission retransmission = new Retransmission();
 
     public Socket(String name) throws IOException {
         super();
@@ -42,29 +52,74 @@ public class Socket extends DatagramSocket {
         this.name = name;
     }
 
+    /**
+     * Constructs the socket bound to the given port. If reusePort is asserted, the port is bound with SO_REUSEPORT
+     * so that several sockets may share it and the kernel spreads the incoming datagrams between them.
+     *
+     * @param reusePort if the port may be shared with other sockets (see isReusePortSupported())
+     */
+    public Socket(String name, int port, InetAddress address, boolean reusePort) throws IOException {
+        super((SocketAddress) null);
+        this.name = name;
+
+        if (reusePort) {
+            setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+
+        bind(new InetSocketAddress(address, port));
+    }
+
+
+    /**
+     * Checks if the platform allows datagram sockets to share a port through SO_REUSEPORT.
+     *
+     * @return the SO_REUSEPORT support of the platform
+     */
+    public static boolean isReusePortSupported() {
+        try (DatagramSocket probe = new DatagramSocket((SocketAddress) null)) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
     protected String getName() {
         return this.name;
     }
 
-    public DatagramPacket receive() throws IOException {
-        byte[] data = new byte[1024];
-        DatagramPacket packet = new DatagramPacket(data, data.length);
-        this.receive(packet);
+    /**
+     * Computes the size of the buffer receiving the packets of a transfer. The buffer is larger than the biggest
+     * legal DATA packet so that oversized packets are detected rather than silently truncated.
+     *
+     * @param blockSize the block size of the transfer
+     *
+     * @return the buffer size in bytes
+     */
+    public static int getPacketSize(int blockSize) {
+        return Math.max(1024, blockSize + 5);
+    }
 
-        // disable timeout if exists
-        setSoTimeout(0);
 
-        // reduce the buffer to the size of the data received, if possible
-        data = shrink(packet.getData(), packet.getLength());
-        packet.setData(data);
+    /**
+     * Resizes the buffer of the subsequent receives to fit the DATA packets of the given block size.
+     *
+     * @param blockSize the (negotiated) block size of the transfer
+     */
+    public void setBlockSize(int blockSize) {
+        this.packetSize = getPacketSize(blockSize);
+    }
 
-        return packet;
+    public DatagramPacket receive() throws IOException {
+        return receive(0);
     }
 
     /**
-     * Receive a packet but with a set timeout.
-     * PLEASE NOTE: this method still *throws* the timeout exception, even though a try-catch block is in place.
-     * The reason the try-catch block exists is to disable the timeout before throwing it.
+     * Receive a packet but with a set timeout (0 waits indefinitely).
+     * The timeout remains set on the socket until a different one is requested, so that consecutive receives
+     * with the same timeout do not reconfigure the socket for every packet.
+     *
+     * The packet is received in a buffer leased from the pool of the calling thread (see BufferPool), and only the
+     * data received is copied out, so that the packet returned belongs to the caller.
      *
      * @param timeout the time (in milliseconds) to wait before timing out
      *
@@ -72,59 +127,175 @@ public class Socket extends DatagramSocket {
      * @throws IOException importantly SocketTimeoutException
      */
     public DatagramPacket receive(int timeout) throws IOException {
-        setSoTimeout(timeout);
+        setTimeout(timeout);
 
+        BufferPool.Lease lease = BufferPool.local().acquire(packetSize);
         try {
-            return receive();
-        } catch (SocketTimeoutException ex) {
+            DatagramPacket received = lease.getDatagram();
+            this.receive(received);
 
-            setSoTimeout(0);
-            throw ex;
+            // reduce the buffer to the size of the data received
+            DatagramPacket packet = new DatagramPacket(shrink(received.getData(), received.getLength()),
+                    received.getLength(), received.getAddress(), received.getPort());
+            PacketClassifier.reclassify(packet);
+
+            return packet;
+        } finally {
+            lease.release();
         }
     }
 
+
     /**
-     * The waitForPacket method is simply a receive method with the timeout and retransmit implemented
-     * the variables TIMEOUT_TIME & RETRANSMIT_NUM correspond to the time which it takes for the socket to
-     * timeout initialized to 5000ms, and the number of times which you want to resend the packet before
-     * giving up initialized to 3.
+     * Receives a packet in the buffer of the given codec (see PacketCodec.allocate()), which is reused as is: the
+     * data of the DatagramPacket returned is not shrunk to the size of the packet received (see getLength()). The
+     * buffer must be large enough for the biggest packet expected, see getPacketSize().
+     *
+     * @param codec the codec to receive into
+     * @param timeout the time (in milliseconds) to wait before timing out
+     *
+     * @return the DatagramPacket of the codec
+     * @throws IOException importantly SocketTimeoutException
+     */
+    public DatagramPacket receive(PacketCodec codec, int timeout) throws IOException {
+        setTimeout(timeout);
+
+        // a response may have been built over the previous packet (i.e. an ERROR packet), replacing its buffer
+        DatagramPacket packet = codec.getDatagram();
+        packet.setData(codec.getBuffer().array());
+        this.receive(packet);
+        codec.received();
+        PacketClassifier.reclassify(packet);
+
+        return packet;
+    }
+
+    //Sets the timeout of the subsequent receives, the socket is only reconfigured if it changes
+    private void setTimeout(int timeout) throws IOException {
+        if (timeout != this.timeout) {
+            setSoTimeout(timeout);
+            this.timeout = timeout;
+        }
+    }
+
+    /**
+     * The waitForPacket method is simply a receive method with the timeout and retransmit implemented.
+     * The timeout is driven by the RoundTripEstimator of this socket (backed off on every retransmission), and the
+     * packet is resent up to TFTPConfig.RETRANSMIT_BUDGET times before giving up.
+     *
+     * Retransmissions are not performed by the waiting thread: they are armed on the shared TimerWheel and are
+     * cancelled as soon as a packet is received. The round trip is only sampled if nothing had to be resent.
      *
      * @param retransmitPacket the packet to be resent if the Socket Times Out
      * @return DatagramPacket, the packet which is received
      * @throws IOException although catches the SocketTimeoutException
      */
     protected DatagramPacket waitForPacket(Packet retransmitPacket) throws IOException {
-        DatagramPacket response = null;
-        for (int i = 0; i < RETRANSMIT_NUM; i++) {
-            try {
-                response = receive(TIMEOUT_TIME);
-                break;
-            } catch (SocketTimeoutException e) {
-                if (retransmitPacket != null &&
-                        (retransmitPacket.getType() != PacketTypes.ERROR && retransmitPacket.getType() != PacketTypes.ACK)) {
-                    inform(retransmitPacket, String.format("Resending %s Packet", retransmitPacket.getType()));
-                    send(retransmitPacket);
-                }
+        List<DatagramPacket> retransmit = new ArrayList<>();
+        if (retransmitPacket != null &&
+                (retransmitPacket.getType() != PacketTypes.ERROR && retransmitPacket.getType() != PacketTypes.ACK)) {
+            retransmit.add(retransmitPacket.getDatagram());
+        }
+
+        return waitForPacket(null, retransmit, retransmitPacket != null);
+    }
+
+
+    /**
+     * Waits for a packet while resending a whole window of packets on every timeout (see waitForPacket(Packet)).
+     *
+     * @param retransmit the packets to be resent, in order, if the Socket Times Out (may be empty)
+     * @param sample if the round trip may be sampled, i.e. a packet has just been sent
+     * @return DatagramPacket, the packet which is received
+     * @throws IOException although catches the SocketTimeoutException
+     */
+    protected DatagramPacket waitForPacket(List<Packet> retransmit, boolean sample) throws IOException {
+        List<DatagramPacket> datagrams = new ArrayList<>();
+        for (Packet packet : retransmit) {
+            datagrams.add(packet.getDatagram());
+        }
+
+        return waitForPacket(null, datagrams, sample);
+    }
+
+
+    /**
+     * Waits for a packet while resending a whole window of packets on every timeout (see waitForPacket(Packet)). The
+     * packet is received in the buffer of the given codec if any (see receive(PacketCodec, int)), so that a transfer
+     * may wait for every block without allocating anything.
+     *
+     * @param into the codec to receive into, or null to receive into a new DatagramPacket
+     * @param retransmit the datagrams to be resent, in order, if the Socket Times Out (may be empty). The list must
+     *                   not change until the method returns.
+     * @param sample if the round trip may be sampled, i.e. a packet has just been sent
+     * @return DatagramPacket, the packet which is received
+     * @throws IOException although catches the SocketTimeoutException
+     */
+    protected DatagramPacket waitForPacket(PacketCodec into, List<DatagramPacket> retransmit, boolean sample) throws IOException {
+        long sent = System.currentTimeMillis();
+        long total = estimator.getTotalTimeout(TFTPConfig.RETRANSMIT_BUDGET);
+
+        boolean armed = !retransmit.isEmpty();
+        if (armed) {
+            retransmission.arm(retransmit, TFTPConfig.RETRANSMIT_BUDGET);
+        }
+
+        try {
+            // rounded to the timer resolution, so that the socket is not reconfigured for every small change
+            int timeout = (int) (total + TFTPConfig.TIMER_TICK - total % TFTPConfig.TIMER_TICK);
+            DatagramPacket response = into == null ? receive(timeout) : receive(into, timeout);
+            if (sample && (!armed || retransmission.cancel())) {
+                estimator.sample(System.currentTimeMillis() - sent);
+            }
+
+            return response;
+        } catch (SocketTimeoutException e) {
+            //Will return null if the packet never arrives. Which Will lead to a NullPointerException in Connection
+            return null;
+        } finally {
+            if (armed) {
+                retransmission.cancel();
             }
         }
+    }
+
 
-        //Will return null if the packet never arrives. Which Will lead to a NullPointerException in Connection
-        return response;
+    /**
+     *
+     * @return the round trip estimator driving the retransmission timeout of this socket.
+     */
+    public RoundTripEstimator getEstimator() {
+        return estimator;
     }
 
     public void send(Packet packet) throws IOException {
         super.send(packet.getDatagram());
     }
 
+    public void inform(PacketCodec codec, String event) {
+        inform(codec.getDatagram(), event, false);
+    }
+
     public void inform(DatagramPacket packet, String event, boolean extra) {
+        inform(this.name, packet, event, extra);
+    }
+
+
+    /**
+     * Prints the details of the packet on behalf of the named endpoint, if verbose mode is enabled.
+     * Used directly by endpoints that are not backed by a Socket (i.e. channels driven by an EventLoop).
+     *
+     * @param name the name of the endpoint reporting the event
+     */
+    public static void inform(String name, DatagramPacket packet, String event, boolean extra) {
         if (!TFTPConfig.CLIENT_VERBOSE && !TFTPConfig.SERVER_VERBOSE) {
             return;
         }
 
         int len = packet.getLength();
         PacketTypes type = Packet.getPacketType(packet);
-        System.out.printf("%s: %s:\n", this.name, event);
-        System.out.printf("Packet type: %s.", Packet.getPacketType(packet));
+        System.out.printf("%s: %s:\n", name, event);
+        System.out.printf("Packet type: %s.", type);
 
         if (type == PacketTypes.DATA || type == PacketTypes.ACK) {
             System.out.printf(" Block Number: %d\n", BlockNumber.getBlockNumber(packet.getData()));
@@ -134,10 +305,10 @@ public class Socket extends DatagramSocket {
 
         System.out.printf("%s Host: %s:%d, Length: %d\n",
                         event.toLowerCase().contains("send") ? "To" : "From", packet.getAddress(), packet.getPort(), len);
-        System.out.printf("Data (as string): %s\n", new String(packet.getData(), 0, packet.getData().length));
+        System.out.printf("Data (as string): %s\n", new String(packet.getData(), packet.getOffset(), len));
 
         if (extra) {
-            System.out.printf("Data (as bytes): %s\n\n", Arrays.toString(packet.getData()));
+            System.out.printf("Data (as bytes): %s\n\n", Arrays.toString(Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + len)));
         }
     }
 
@@ -160,7 +331,7 @@ public class Socket extends DatagramSocket {
      *
      * @return the shrunk array
      */
-    protected byte[] shrink(byte[] arr, int newLength) {
+    protected static byte[] shrink(byte[] arr, int newLength) {
         if (newLength > arr.length) {
             return arr;
         }
@@ -170,4 +341,68 @@ public class Socket extends DatagramSocket {
 
         return arr1;
     }
+
+
+    /**
+     * Retransmission resends a window of packets on the shared TimerWheel every time the current timeout elapses,
+     * backing the timeout off each time, up to a number of times or until cancelled. A single retransmission is armed
+     * again for every wait of the socket, along with its timeout.
+     */
+    private class Retransmission implements Runnable {
+
+        private List<DatagramPacket> packets;
+        private int remaining;
+        private boolean cancelled, resent;
+        private TimerWheel.Timeout timeout;
+
+        /**
+         * Starts resending the given packets once the current timeout elapses.
+         */
+        synchronized void arm(List<DatagramPacket> packets, int remaining) {
+            this.packets = packets;
+            this.remaining = remaining;
+            this.cancelled = false;
+            this.resent = false;
+
+            if (timeout == null) {
+                timeout = TimerWheel.shared().schedule(this, estimator.getTimeout());
+            } else {
+                timeout.reschedule(estimator.getTimeout());
+            }
+        }
+
+        /**
+         * @return  true    if the packets have never been resent (i.e. its round trip may be sampled)
+         *          false   otherwise
+         */
+        synchronized boolean cancel() {
+            cancelled = true;
+            timeout.cancel();
+            return !resent;
+        }
+
+        @Override
+        public synchronized void run() {
+            // a run left over from a previous wait finds its timeout armed again
+            if (cancelled || !timeout.isExpired() || isClosed() || remaining <= 0) {
+                return;
+            }
+
+            try {
+                for (int i = 0; i < packets.size(); i++) {
+                    DatagramPacket packet = packets.get(i);
+                    inform(packet, String.format("Resending %s Packet", Packet.getPacketType(packet)));
+                    send(packet);
+                }
+            } catch (IOException e) {
+                return;
+            }
+
+            resent = true;
+            estimator.backoff();
+            if (--remaining > 0) {
+                timeout.reschedule(estimator.getTimeout());
+            }
+        }
+    }
 }
@@ -0,0 +1,283 @@
+package com.tftp.core;
+
+import com.tftp.TFTPConfig;
+
+import java.util.ArrayList;
+
+/**
+ * TimerWheel is a hashed timing wheel used to schedule retransmission deadlines. The wheel is divided into a fixed
+ * number of buckets, each covering one tick; a timeout is hashed to the bucket of its deadline tick and carries the
+ * number of full rotations left before it is due. Arming and cancelling are both O(1) (the buckets are doubly linked
+ * lists), which allows for hundreds of thousands of outstanding timeouts.
+ *
+ * A wheel is either advanced manually by its owner (i.e. an EventLoop, between two selections) or by the daemon
+ * thread of the shared() instance used by the blocking sockets. Due timeouts are collected in bulk on every advance
+ * and their tasks are run outside of the wheel lock.
+ *
+ * Methods operating on the wheel are internally synchronized to guarantee thread-safety.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 1st, 2017.
+ */
+public class TimerWheel {
+
+    private static TimerWheel shared;
+
+    private long tick;
+    private Timeout[] buckets;
+    private int mask;
+    private long start;
+    private long ticks;
+    private int size;
+
+    /**
+     * @param tick the duration of a tick in milliseconds, i.e. the resolution of the wheel
+     * @param buckets the amount of buckets, rounded up to a power of two
+     */
+    public TimerWheel(long tick, int buckets) {
+        int length = Integer.highestOneBit(Math.max(1, buckets - 1)) << 1;
+
+        this.tick = Math.max(1, tick);
+        this.buckets = new Timeout[length];
+        this.mask = length - 1;
+        this.start = System.currentTimeMillis();
+    }
+
+
+    /**
+     * Retrieves the wheel shared by all blocking sockets of this process, starting its driving thread on first use.
+     *
+     * @return the shared TimerWheel instance
+     */
+    public static synchronized TimerWheel shared() {
+        if (shared == null) {
+            shared = new TimerWheel(TFTPConfig.TIMER_TICK, TFTPConfig.TIMER_BUCKETS);
+
+            Thread driver = new Thread(() -> {
+                while (true) {
+                    try {
+                        Thread.sleep(shared.getTick());
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    shared.advance(System.currentTimeMillis());
+                }
+            }, "TimerWheel");
+
+            driver.setDaemon(true);
+            driver.start();
+        }
+
+        return shared;
+    }
+
+
+    /**
+     *
+     * @return the duration of a tick in milliseconds.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+
+    /**
+     *
+     * @return the amount of outstanding (armed and not yet expired) timeouts.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+
+    /**
+     * Arms a new timeout. The task will run once the delay has elapsed, unless cancelled beforehand.
+     *
+     * This method is THREAD-SAFE.
+     *
+     * @param task the task to be run on expiry
+     * @param delay the delay in milliseconds
+     *
+     * @return the Timeout handle, used for cancelling
+     */
+    public synchronized Timeout schedule(Runnable task, long delay) {
+        Timeout timeout = new Timeout(task);
+        link(timeout, delay);
+
+        return timeout;
+    }
+
+
+    //Places the timeout in the bucket of its deadline
+    private void link(Timeout timeout, long delay) {
+        long deadline = System.currentTimeMillis() + Math.max(0, delay);
+
+        // the deadline is rounded up to the next tick, and never placed on a tick that has already been processed
+        long target = Math.max(ticks, (deadline - start + tick - 1) / tick);
+        timeout.deadline = deadline;
+        timeout.rounds = (target - ticks) / buckets.length;
+
+        int index = (int) (target & mask);
+        timeout.next = buckets[index];
+        if (buckets[index] != null) {
+            buckets[index].previous = timeout;
+        }
+
+        buckets[index] = timeout;
+        timeout.bucket = index;
+        size++;
+    }
+
+
+    /**
+     * Processes every tick up to the given time, running the tasks of all timeouts that have become due.
+     *
+     * This method is THREAD-SAFE.
+     *
+     * @param now the current time in milliseconds
+     *
+     * @return the amount of timeouts that have expired
+     */
+    public int advance(long now) {
+        // only allocated once a timeout expires, most ticks expiring none
+        ArrayList<Timeout> expired = null;
+
+        synchronized (this) {
+            long target = (now - start) / tick;
+            while (ticks <= target) {
+                Timeout timeout = buckets[(int) (ticks & mask)];
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.rounds <= 0) {
+                        unlink(timeout);
+                        timeout.expired = true;
+                        if (expired == null) {
+                            expired = new ArrayList<>();
+                        }
+
+                        expired.add(timeout);
+                    } else {
+                        timeout.rounds--;
+                    }
+
+                    timeout = next;
+                }
+
+                ticks++;
+            }
+        }
+
+        if (expired == null) {
+            return 0;
+        }
+
+        for (Timeout timeout : expired) {
+            timeout.task.run();
+        }
+
+        return expired.size();
+    }
+
+
+    /**
+     * Removes the timeout from its bucket. The caller must hold the wheel lock.
+     */
+    private void unlink(Timeout timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+
+        timeout.next = null;
+        timeout.previous = null;
+        timeout.bucket = -1;
+        size--;
+    }
+
+
+    /**
+     * Timeout is the handle of an armed task on the wheel.
+     */
+    public class Timeout {
+
+        private Runnable task;
+        private long deadline, rounds;
+        private int bucket = -1;
+        private boolean expired, cancelled;
+        private Timeout next, previous;
+
+        private Timeout(Runnable task) {
+            this.task = task;
+        }
+
+
+        /**
+         *
+         * @return the time in milliseconds at which the timeout is due.
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+
+        /**
+         * Arms the timeout again with a new delay, whether it is still pending, expired or cancelled. Spares the
+         * allocation of a new timeout for a task that is armed over and over (i.e. a retransmission).
+         *
+         * This method is THREAD-SAFE.
+         *
+         * @param delay the time (in milliseconds) from now after which the task is run
+         */
+        public void reschedule(long delay) {
+            synchronized (TimerWheel.this) {
+                if (bucket >= 0) {
+                    unlink(this);
+                }
+
+                expired = false;
+                cancelled = false;
+                link(this, delay);
+            }
+        }
+
+
+        /**
+         * Cancels the timeout. Does nothing if the timeout has already expired or been cancelled.
+         *
+         * This method is THREAD-SAFE.
+         *
+         * @return if the task has been prevented from running
+         */
+        public boolean cancel() {
+            synchronized (TimerWheel.this) {
+                if (expired || cancelled) {
+                    return false;
+                }
+
+                cancelled = true;
+                unlink(this);
+                return true;
+            }
+        }
+
+
+        /**
+         *
+         * @return if the task has been run (or is about to be).
+         */
+        public boolean isExpired() {
+            synchronized (TimerWheel.this) {
+                return expired;
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.tftp.core;
+
+import com.tftp.core.protocol.PacketClassifier;
+import com.tftp.core.protocol.TFTPError;
+import com.tftp.core.protocol.packets.ERRORPacket;
+import com.tftp.io.FileTransfer;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * TransferChannel is a non-blocking DatagramChannel, registered with an EventLoop, that carries the packets of
+ * one or more ChannelConnections.
+ *
+ * A dedicated channel is opened for a single transfer and closed along with it, giving the transfer its own TID.
+ * A shared channel is pre-bound by the EventLoop and carries any number of transfers: incoming datagrams are
+ * demultiplexed by their (remote address, remote port) pair, the local port being that of the channel. A transfer
+ * is never placed on a shared channel that already carries a transfer of the same client endpoint, so every
+ * (client TID, server TID) pair remains distinct as required by RFC 1350.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 1st, 2017.
+ */
+class TransferChannel {
+
+    // the buffer every packet is sent from, per loop thread
+    private static final ThreadLocal<ByteBuffer> OUTGOING =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(Socket.getPacketSize(FileTransfer.BLOCK_SIZE)));
+
+    private DatagramChannel channel;
+    private SelectionKey key;
+    private boolean dedicated;
+    private int port;
+    private int packetSize = Socket.getPacketSize(FileTransfer.BLOCK_SIZE);
+    private Map<SocketAddress, ChannelConnection> connections;
+
+    TransferChannel(Selector selector, boolean dedicated) throws IOException {
+        this.dedicated = dedicated;
+        this.connections = new ConcurrentHashMap<>();
+
+        this.channel = DatagramChannel.open();
+        try {
+            this.channel.configureBlocking(false);
+            this.channel.bind(new InetSocketAddress(InetAddress.getLocalHost(), 0));
+            this.port = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+            this.key = channel.register(selector, SelectionKey.OP_READ, this);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     *
+     * @return the local port (i.e. the server TID) of this channel.
+     */
+    int getPort() {
+        return port;
+    }
+
+
+    /**
+     *
+     * @return if this channel is only carrying a single transfer.
+     */
+    boolean isDedicated() {
+        return dedicated;
+    }
+
+
+    /**
+     * Checks if the channel is already carrying a transfer for the given client endpoint.
+     */
+    boolean isAttached(SocketAddress remote) {
+        return connections.containsKey(remote);
+    }
+
+
+    /**
+     * Routes the packets received from the client endpoint to the given connection.
+     */
+    void attach(SocketAddress remote, ChannelConnection connection) {
+        connections.put(remote, connection);
+    }
+
+
+    /**
+     * Stops routing the packets of the client endpoint. A dedicated channel is closed along with its transfer.
+     */
+    void detach(SocketAddress remote) {
+        connections.remove(remote);
+
+        if (dedicated) {
+            close();
+        }
+    }
+
+
+    /**
+     * Raises the size of the buffers the channel receives in, to fit the DATA packets of a transfer it carries.
+     *
+     * @param blockSize the (negotiated) block size of the transfer
+     */
+    void fit(int blockSize) {
+        packetSize = Math.max(packetSize, Socket.getPacketSize(blockSize));
+    }
+
+
+    /**
+     * Drains every datagram currently queued on the channel and dispatches it to the connection of its sender.
+     * Invoked by the EventLoop once the channel has been selected for reading.
+     *
+     * Every datagram is received in a buffer leased from the pool of the loop thread, which is released once the
+     * connection has processed it: the packet must not be referenced past its processing.
+     */
+    void receive() {
+        BufferPool pool = BufferPool.local();
+
+        try {
+            while (channel.isOpen()) {
+                BufferPool.Lease lease = pool.acquire(packetSize);
+                try {
+                    if (!dispatch(lease)) {
+                        return;
+                    }
+                } finally {
+                    lease.release();
+                }
+            }
+        } catch (IOException e) {
+            System.out.printf("A un-handled I/O error has been thrown by the channel on port %d. Closing...\n", port);
+            for (ChannelConnection connection : connections.values()) {
+                connection.close();
+            }
+
+            close();
+        }
+    }
+
+    //Receives a single datagram in the leased buffer and hands it to the connection of its sender.
+    //Returns false if no datagram was queued
+    private boolean dispatch(BufferPool.Lease lease) throws IOException {
+        SocketAddress from = channel.receive(lease.getBuffer());
+        if (from == null) {
+            return false;
+        }
+
+        DatagramPacket packet = lease.getDatagram();
+        packet.setLength(lease.getBuffer().position());
+        packet.setSocketAddress(from);
+        PacketClassifier.reclassify(packet);
+
+        ChannelConnection connection = connections.get(from);
+
+        // a dedicated channel leaves TID verification to the transfer itself
+        if (connection == null && dedicated && !connections.isEmpty()) {
+            connection = connections.values().iterator().next();
+        }
+
+        if (connection != null) {
+            connection.receive(packet);
+        } else {
+            send(new ERRORPacket(packet, TFTPError.UNKNOWN_TRANSFER_ID, ("Incorrect TID").getBytes()).getDatagram(), from);
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Sends the packet through the send buffer of the calling thread (i.e. the loop owning the channel), which the
+     * packet is copied in as the channel would otherwise do from a heap buffer, so that sending allocates nothing.
+     *
+     * @param datagram the packet
+     * @param remote the address of the packet, passed along rather than built from the packet for every send
+     */
+    void send(DatagramPacket datagram, SocketAddress remote) throws IOException {
+        ByteBuffer buffer = OUTGOING.get();
+        if (buffer.capacity() < datagram.getLength()) {
+            buffer = ByteBuffer.allocateDirect(Socket.getPacketSize(FileTransfer.MAX_BLOCK_SIZE));
+            OUTGOING.set(buffer);
+        }
+
+        buffer.clear();
+        buffer.put(datagram.getData(), datagram.getOffset(), datagram.getLength()).flip();
+        channel.send(buffer, remote);
+    }
+
+
+    /**
+     * Cancels the channel registration and closes it.
+     */
+    void close() {
+        key.cancel();
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
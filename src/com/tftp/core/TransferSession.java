@@ -0,0 +1,587 @@
+package com.tftp.core;
+
+import com.tftp.TFTPConfig;
+import com.tftp.core.protocol.Authentication;
+import com.tftp.core.protocol.BlockNumber;
+import com.tftp.core.protocol.Packet;
+import com.tftp.core.protocol.Packet.PacketTypes;
+import com.tftp.core.protocol.PacketCodec;
+import com.tftp.core.protocol.PacketWindow;
+import com.tftp.core.protocol.TFTPError;
+import com.tftp.core.protocol.TransferOptions;
+import com.tftp.core.protocol.TransferRequest;
+import com.tftp.core.protocol.packets.ERRORPacket;
+import com.tftp.core.protocol.packets.OACKPacket;
+import com.tftp.exceptions.AccessViolationException;
+import com.tftp.exceptions.InvalidPacketException;
+import com.tftp.exceptions.UnknownIOModeException;
+import com.tftp.io.FileTransfer;
+import com.tftp.io.TransferController;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * TransferSession holds the server-side state machine of a single transfer (RRQ/WRQ/ACK/DATA/ERROR handling).
+ * It performs no networking on its own: every received packet is handed to handlePacket(), which returns the
+ * response to be dispatched. This allows the same logic to be driven by a dedicated Connection thread or by an
+ * EventLoop servicing many transfers at once.
+ *
+ * Read transfers may stream a window of several DATA packets before waiting for an acknowledgment (RFC 7440): the
+ * DATA packets remain outstanding until acknowledged, and the ACK of any block within the window slides the window
+ * up to that block. The transport resends the outstanding packets whenever its timeout elapses.
+ *
+ * Write transfers may be windowed as well: the blocks received ahead of the expected one (within the window) are
+ * held until the missing ones arrive, and only the highest block received in order is acknowledged, once per window.
+ *
+ * The packets of a healthy transfer (DATA and ACK) are written in place in buffers reused for every block (see
+ * PacketCodec and PacketWindow), as well as the list of packets returned to the transport. They must be sent before
+ * the next packet is handled.
+ *
+ * Options appended to the request (RFC 2347) are negotiated before the transfer starts: the accepted ones are sent
+ * back in an OACK packet, which replaces the ACK 0 of a write request and must be acknowledged with an ACK 0 before
+ * the first DATA packet of a read request. The transfer size option (RFC 2349) reports the size of the file being
+ * read, and lets a write be refused before any data is sent if the declared size does not fit on the disk.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 1st, 2017.
+ */
+public class TransferSession {
+
+    private FileTransfer fileTransfer;
+    private Authentication authenticator;
+    private TransferController controller;
+    private RoundTripEstimator estimator;
+    private TransferOptions options = new TransferOptions();
+    private PacketWindow window = new PacketWindow(FileTransfer.BLOCK_SIZE);
+    private PacketCodec ack = PacketCodec.allocate(PacketCodec.HEADER_SIZE);
+    private ArrayList<DatagramPacket> responses = new ArrayList<>(), outstanding = new ArrayList<>();
+    private HashMap<Integer, byte[]> buffered = new HashMap<>();
+
+    // the OACK packet, resent until the client answers it
+    private Packet pending;
+    private int block, acknowledged, windowSize = 1, stray = -1, resent = -1;
+    private boolean active = true;
+
+    // if the thread handling the packets may wait for the disk, i.e. it is not an event loop shared by many transfers
+    private boolean blocking = true;
+
+    // the task waking the transfer up once the disk is ready, and the sender of the DATA packet it waits to answer
+    private Runnable wakeup;
+    private DatagramPacket deferred;
+
+    /**
+     * @param controller the controller keeping track of all transfers of the server
+     * @param clientTID the port of the client
+     * @param estimator the estimator of the transport carrying the transfer, subject to the negotiated timeout
+     */
+    public TransferSession(TransferController controller, int clientTID, RoundTripEstimator estimator) {
+        this.controller = controller;
+        this.estimator = estimator;
+        this.authenticator = new Authentication(clientTID);
+    }
+
+
+    /**
+     * Sets if the thread handling the packets of the transfer may wait for the disk. A session driven by an EventLoop
+     * must not, as every transfer of the loop would wait along with it: the content cache is then only read from if
+     * the file is already held, and the blocks of a write that would wait for the write-behind are held back until
+     * the disk is ready (see resume()).
+     *
+     * @param blocking false if the session is driven by an EventLoop
+     * @param wakeup the task run from another thread once the disk is ready for a transfer that may not wait for it,
+     *               which must have resume() invoked by the thread handling the packets
+     */
+    public void setBlocking(boolean blocking, Runnable wakeup) {
+        this.blocking = blocking;
+        this.wakeup = wakeup;
+    }
+
+
+    /**
+     * Checks if the transfer is waiting for the disk before answering the last DATA packet (see setBlocking()). The
+     * packets received meanwhile must not be handled.
+     *
+     * @return true if the transfer must be resumed
+     */
+    public boolean isDeferred() {
+        return deferred != null;
+    }
+
+
+    /**
+     * Goes on with a transfer waiting for the disk once the task given to setBlocking() has been run: the blocks held
+     * back are written, and acknowledged once the window is complete (or once the file has been written).
+     *
+     * @return the packets to go back to the client. The list is reused, and remains valid until the next packet is
+     *         handled
+     */
+    public List<DatagramPacket> resume() {
+        responses.clear();
+        if (deferred != null) {
+            DatagramPacket packet = deferred;
+            deferred = null;
+            writeHeld(packet);
+            update();
+        }
+
+        return responses;
+    }
+
+
+    /**
+     *
+     * @return the options agreed upon with the client (empty if none were negotiated).
+     */
+    public TransferOptions getOptions() {
+        return options;
+    }
+
+
+    /**
+     *
+     * @return the block size of the transfer, which the transport must be able to receive.
+     */
+    public int getBlockSize() {
+        return fileTransfer == null ? FileTransfer.BLOCK_SIZE : fileTransfer.getBlockSize();
+    }
+
+
+    /**
+     *
+     * @return the packets sent and not yet acknowledged, in order, to be resent by the transport on timeout. The list
+     *         is reused, and remains valid until the next packet is handled.
+     */
+    public List<DatagramPacket> getOutstanding() {
+        outstanding.clear();
+        if (pending != null) {
+            outstanding.add(pending.getDatagram());
+        }
+
+        window.collect(outstanding);
+        return outstanding;
+    }
+
+
+    /**
+     * Checks if the transfer is still expecting packets from the client.
+     *
+     * @return  true    if the transfer has not yet completed or failed
+     *          false   otherwise
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+
+    /**
+     * Releases the file and lock held by this transfer, if any. Safe to invoke more than once.
+     */
+    public void terminate() {
+        active = false;
+        pending = null;
+        window.clear();
+        buffered.clear();
+        if (fileTransfer != null) {
+            controller.deregisterTransfer(fileTransfer);
+            fileTransfer.close();
+        }
+    }
+
+
+    //Removes the opcode & block number (first 4 bytes) from the data
+    //used only for DATA Packets held back until the missing blocks arrive
+    private byte[] extractData(DatagramPacket packet) {
+        byte[] data = new byte[packet.getLength() - 4];
+        System.arraycopy(packet.getData(), 4, data, 0, data.length);
+        return data;
+    }
+
+    //Handles the request (already parsed by the server) establishing the transfer, returns the packets to go back to
+    //client (OACK/DATA/ACK). The list returned is reused, and remains valid until the next packet is handled
+    public List<DatagramPacket> handleRequest(TransferRequest request) throws UnknownIOModeException, IOException {
+        responses.clear();
+
+        if (!authenticator.verify(request)) {
+            rejected();
+            return responses;
+        }
+
+        requestReceived(request);
+        update();
+
+        return responses;
+    }
+
+    //Handles the different types of packets sent to the server, returns the packets to go back to client (ACK/DATA).
+    //The list returned is reused, and remains valid until the next packet is handled
+    public List<DatagramPacket> handlePacket(DatagramPacket received) throws UnknownIOModeException, IOException, InvalidPacketException {
+        responses.clear();
+
+        if (!authenticator.verify(received, block)) {
+            rejected();
+            return responses;
+        }
+
+        PacketTypes type = Packet.getPacketType(received);
+        if (type == PacketTypes.RRQ || type == PacketTypes.WRQ) {
+            // a request sent again to the transfer, parsed by the authenticator
+            requestReceived(authenticator.getRequest());
+        } else if (type == PacketTypes.ACK) {
+            ackReceived(received);
+        } else if (type == PacketTypes.DATA) {
+            dataReceived(received);
+        } else if (type == PacketTypes.ERROR) {
+            errorReceived(received);
+        } else {
+            throw new InvalidPacketException("Illegal packet parsed!!!");
+        }
+
+        update();
+        return responses;
+    }
+
+    //Answers a packet rejected by the authenticator, with an ERROR packet or the response to a duplicate
+    private void rejected() throws IOException {
+        Packet result = authenticator.getResult();
+
+        if (authenticator.isDuplicate()) {
+            duplicateReceived(result);
+            return;
+        } else if (result.getType() == PacketTypes.ERROR && result.getDatagram().getData()[3] != 5) {
+            active = false;
+        }
+
+        responses.add(result.getDatagram());
+    }
+
+    //A read remains active until its last window has been acknowledged
+    private void update() {
+        if (active) {
+            active = fileTransfer != null && (!fileTransfer.isComplete() || pending != null || !window.isEmpty());
+        }
+    }
+
+    private void requestReceived(TransferRequest request) throws UnknownIOModeException, IOException {
+        if (request.isRead()) {
+            rrqReceived(request);
+        } else {
+            wrqReceived(request);
+        }
+    }
+
+    //Reads and sends the next blocks of the file until the window is full or the last block has been read.
+    //Each block is written in the slot of a block already acknowledged
+    private void fill(DatagramPacket packet) throws IOException {
+        while (window.size() < windowSize && !fileTransfer.isComplete()) {
+            PacketCodec slot = window.add();
+            this.block++;
+
+            // the block is read from the file straight behind the header of its packet
+            slot.putData(block, fileTransfer.read(slot.payload(fileTransfer.getBlockSize())));
+            address(slot.getDatagram(), packet);
+            responses.add(slot.getDatagram());
+        }
+    }
+
+    //Slides the window up to the acknowledged block, then resends the rest of the window and fills it up again
+    private void slide(DatagramPacket packet, int acked) throws IOException {
+        pending = null;
+        window.slide(acked, block);
+        this.acknowledged = acked;
+
+        window.collect(responses);
+        fill(packet);
+    }
+
+    //Acknowledges the given block to the sender of the packet
+    private void acknowledge(DatagramPacket packet, int acked) {
+        address(ack.putAck(acked).getDatagram(), packet);
+        responses.add(ack.getDatagram());
+    }
+
+    //A new datagram addressed to the sender of the packet, for a response that outlives the buffer of the packet
+    //(i.e. an OACK resent until it is acknowledged)
+    private DatagramPacket reply(DatagramPacket packet) {
+        return new DatagramPacket(new byte[0], 0, packet.getAddress(), packet.getPort());
+    }
+
+    //Addresses a reused response to the sender of the packet (getSocketAddress() would create an address every time)
+    private void address(DatagramPacket response, DatagramPacket packet) {
+        response.setAddress(packet.getAddress());
+        response.setPort(packet.getPort());
+    }
+
+    //Read Request Received initializes the FileTransfer for mode READ, and sends the first window of DATA Packets
+    private void rrqReceived(TransferRequest request) throws UnknownIOModeException, IOException {
+        authenticator.setMode("reading");
+        DatagramPacket packet = request.getPacket();
+        String filename = request.getFilename();
+
+        if (controller.isFileLocked(filename)) {
+            responses.add(new ERRORPacket(packet, TFTPError.ACCESS_VIOLATION, ("Access violation").getBytes()).getDatagram());
+            return;
+        }
+
+        try {
+            fileTransfer = new FileTransfer(filename, FileTransfer.READ, request.isNetascii());
+        } catch (AccessViolationException ex) {
+            responses.add(new ERRORPacket(packet, TFTPError.ACCESS_VIOLATION, ("Access violation").getBytes()).getDatagram());
+            return;
+        }
+
+        // the file has been opened, it is not checked again for every ACK
+        authenticator.setAccessible(true);
+
+        // the blocks of a file read by many clients are served from memory, those of the others are fetched ahead
+        fileTransfer.setCache(controller.getContentCache(), blocking);
+        fileTransfer.setReadAhead(controller.getReadAhead());
+        controller.registerTransfer(fileTransfer);
+        this.block = 0;
+        this.acknowledged = 0;
+
+        // the first DATA packet is held back until the client acknowledges the options with ACK0
+        if (negotiate(request)) {
+            pending = new OACKPacket(reply(packet), options);
+            responses.add(pending.getDatagram());
+            return;
+        }
+
+        fill(packet);
+    }
+
+    //Write Request Received initializes the FileTransfer for mode WRITE, then sends ACK0 Packet
+    private void wrqReceived(TransferRequest request) throws UnknownIOModeException, IOException {
+        authenticator.setMode("writing");
+        DatagramPacket packet = request.getPacket();
+        String filename = request.getFilename();
+
+        // a file being read is not overwritten under the read (i.e. truncated under its mapping)
+        if (!FileTransfer.isWritable(filename) || controller.isFileLocked(filename)) {
+            responses.add(new ERRORPacket(packet, TFTPError.ACCESS_VIOLATION, ("Access violation").getBytes()).getDatagram());
+            return;
+        }
+
+        // a file larger than the free space is refused early, the space is still accounted for on every DATA packet
+        long size = getDeclaredSize(request);
+        if (size > FileTransfer.getFreeSpace()) {
+            responses.add(new ERRORPacket(packet, TFTPError.DISK_FULL, ("Disk Full: " + size + " bytes declared").getBytes()).getDatagram());
+            return;
+        }
+
+        try {
+            fileTransfer = new FileTransfer(filename, FileTransfer.WRITE, request.isNetascii());
+        } catch (AccessViolationException ex) {
+            responses.add(new ERRORPacket(packet, TFTPError.ACCESS_VIOLATION, ("Access violation").getBytes()).getDatagram());
+            return;
+        }
+
+        // the file has been checked and opened, it is not checked again for every DATA packet
+        authenticator.setAccessible(true);
+
+        // the blocks are acknowledged once queued, and written in the background
+        fileTransfer.setWriteBehind(controller.getWriteBehind());
+        if (!blocking) {
+            fileTransfer.setReady(wakeup);
+        }
+
+        controller.registerTransfer(fileTransfer);
+
+        // the OACK packet stands for ACK0, and is resent until the first DATA packet is received
+        if (negotiate(request)) {
+            this.block = 1;
+            this.acknowledged = 0;
+            pending = new OACKPacket(reply(packet), options);
+            responses.add(pending.getDatagram());
+            return;
+        }
+
+        this.block = 0;
+        this.acknowledged = 0;
+        acknowledge(packet, block++);
+    }
+
+    //Retrieves the size of the file declared by the client through the tsize option, 0 if none was declared
+    private long getDeclaredSize(TransferRequest request) {
+        if (!TFTPConfig.OPTION_NEGOTIATION) {
+            return 0;
+        }
+
+        return request.getOptions().getLong(TransferOptions.TSIZE, 0);
+    }
+
+    //Negotiates the options of the request and applies the accepted ones, returns if an OACK Packet must be sent
+    private boolean negotiate(TransferRequest request) {
+        if (!TFTPConfig.OPTION_NEGOTIATION) {
+            return false;
+        }
+
+        options = request.getOptions().negotiate();
+
+        if (options.contains(TransferOptions.TIMEOUT)) {
+            estimator.setTimeout(options.getInt(TransferOptions.TIMEOUT, 1) * 1000L);
+        }
+
+        if (options.contains(TransferOptions.WINDOWSIZE)) {
+            windowSize = options.getInt(TransferOptions.WINDOWSIZE, 1);
+
+            // the blocks of a write window may arrive ahead of the expected one
+            if (!request.isRead()) {
+                authenticator.setWindow(windowSize);
+            }
+        }
+
+        if (options.contains(TransferOptions.BLKSIZE)) {
+            fileTransfer.setBlockSize(options.getInt(TransferOptions.BLKSIZE, FileTransfer.BLOCK_SIZE));
+            authenticator.setBlockSize(fileTransfer.getBlockSize());
+            window.setBlockSize(fileTransfer.getBlockSize());
+        }
+
+        // the size declared by a write is acknowledged as is, it has been checked against the free space already
+        if (options.contains(TransferOptions.TSIZE) && request.isRead()) {
+            options.set(TransferOptions.TSIZE, String.valueOf(fileTransfer.length()));
+        }
+
+        return !options.isEmpty();
+    }
+
+    //Ack Received slides the window up to the acknowledged block, then sends the next window of DATA Packets
+    private void ackReceived(DatagramPacket packet) throws UnknownIOModeException, IOException {
+        slide(packet, BlockNumber.getBlockNumber(packet.getData(), block));
+    }
+
+    //Data Received writes the data (past the opcode/block#) through the FileTransfer Object, along with the blocks
+    //of the window that were received ahead of it. The ACK is sent once the window is complete
+    private void dataReceived(DatagramPacket packet) throws UnknownIOModeException, IOException {
+        int received = BlockNumber.getBlockNumber(packet.getData(), block);
+        pending = null;
+
+        // a block ahead of the expected one means that a block of the window was lost
+        if (received > block) {
+            buffered.put(received, extractData(packet));
+            if (isStray(received)) {
+                acknowledge(packet, block - 1);
+            }
+
+            return;
+        }
+
+        // a block that would wait for the disk is held back along with the blocks received ahead of it
+        if (!blocking && !fileTransfer.canWrite(packet.getLength() - 4)) {
+            buffered.put(received, extractData(packet));
+            deferred = reply(packet);
+            return;
+        }
+
+        try {
+            fileTransfer.write(packet.getData(), 4, packet.getLength() - 4);
+            block++;
+        } catch (IOException ex) {
+            writeFailed(packet, ex);
+            return;
+        }
+
+        writeHeld(packet);
+    }
+
+    //Writes the blocks received ahead of the expected one, if any, then acknowledges the blocks written once the window
+    //is complete, or once the file has been written. A transfer that may not wait for the disk is deferred instead,
+    //and resumed once the disk is ready (see resume())
+    private void writeHeld(DatagramPacket packet) {
+        try {
+            byte[] next;
+            // the lookup boxes the block number
+            while (!fileTransfer.isComplete() && !buffered.isEmpty() && (next = buffered.get(block)) != null) {
+                if (!blocking && !fileTransfer.canWrite(next.length)) {
+                    deferred = reply(packet);
+                    return;
+                }
+
+                buffered.remove(block);
+                fileTransfer.write(next);
+                block++;
+            }
+
+            // the last block is written in the background, and acknowledged once the file has been written
+            if (fileTransfer.isFinishing() && !fileTransfer.finish()) {
+                deferred = reply(packet);
+                return;
+            }
+        } catch (IOException ex) {
+            writeFailed(packet, ex);
+            return;
+        }
+
+        stray = -1;
+        if (fileTransfer.isComplete() || block - 1 - acknowledged >= windowSize) {
+            buffered.clear();
+            acknowledged = block - 1;
+            acknowledge(packet, acknowledged);
+        }
+    }
+
+    //Answers a DATA packet with an ERROR packet once the file could not be written (i.e. a block queued by the
+    //write-behind before it failed to be written), which ends the transfer
+    private void writeFailed(DatagramPacket packet, IOException ex) {
+        active = false;
+        if (FileTransfer.getFreeSpace() < fileTransfer.getBlockSize()) {
+            responses.add(new ERRORPacket(packet, TFTPError.DISK_FULL, ("Disk Full: Not enough memory to write contents.").getBytes()).getDatagram());
+        } else {
+            responses.add(new ERRORPacket(packet, TFTPError.NOT_DEFINED, ("Unable to write: " + ex.getMessage()).getBytes()).getDatagram());
+        }
+    }
+
+    //Checks if a block received out of order must be answered with the ACK of the last block received in order.
+    //Only the first stray block of every (re)transmitted window is answered, as windows are sent in ascending order
+    private boolean isStray(int received) {
+        boolean first = stray < 0 || received <= stray;
+        stray = received;
+        return first;
+    }
+
+    //Error Received handles the error packets which are sent to the server, different from detecting errors
+    //No matter which error the Connection RECEIVES it shuts down. This is because if it receives an error
+    //Packet that means the client has sent it an error, if its TID then the Connection is communicating with
+    //The incorrect client.
+    private void errorReceived(DatagramPacket packet) throws UnknownIOModeException, IOException {
+        //If the Server receives an invalid TID it must terminate, this means the Server is communicating with an incorrect Client
+        byte[] errorMsg = new byte[packet.getLength() - 4];
+        System.arraycopy(packet.getData(), 4, errorMsg, 0, packet.getLength() - 4);
+        System.out.println("Error Packet Received: Error Code: 0" + packet.getData()[3] + ", Error Message: " + new String(errorMsg));
+
+        active = packet.getData()[3] == (byte) 5;
+    }
+
+    private void duplicateReceived(Packet duplicatePacket) throws IOException {
+        if (duplicatePacket.getType() == Packet.PacketTypes.ACK){
+            int acked = BlockNumber.getBlockNumber(duplicatePacket.getDatagram().getData(), block);
+
+            // within a window, the client acknowledges the last block received in order when it detects a loss.
+            // The window is resent once per such ACK: a repeat of it is left to the retransmission timer, as
+            // resending again would double the blocks in flight on every repeat (Sorcerer's Apprentice)
+            if (windowSize > 1 && acked >= acknowledged && acked < block && acked != resent) {
+                System.out.printf("Partial Window Acknowledged (ACK %d): Resending from DATA %d.\n", acked, acked + 1);
+                resent = acked;
+                slide(duplicatePacket.getDatagram(), acked);
+                return;
+            }
+
+            System.out.println("Duplicate ACK Received: Ignoring Packet.");
+        } else if (duplicatePacket.getType() == Packet.PacketTypes.DATA && windowSize > 1) {
+            // the client resent a window as its acknowledgment was lost, acknowledge the last block received in order
+            if (isStray(BlockNumber.getBlockNumber(duplicatePacket.getDatagram().getData(), block))) {
+                System.out.println("Duplicate DATA Received. Sending ACK of the last block received in order!");
+                acknowledge(duplicatePacket.getDatagram(), block - 1);
+            }
+        } else if (duplicatePacket.getType() == Packet.PacketTypes.DATA) {
+            System.out.println("Duplicate DATA Received. Sending corresponding ACK packet!");
+            acknowledge(duplicatePacket.getDatagram(), BlockNumber.getBlockNumber(duplicatePacket.getDatagram().getData(), block));
+        }
+    }
+}
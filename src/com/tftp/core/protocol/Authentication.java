@@ -4,6 +4,7 @@ package com.tftp.core.protocol;
 import com.tftp.core.protocol.Packet.PacketTypes;
 import com.tftp.core.protocol.packets.*;
 import com.tftp.exceptions.AccessViolationException;
+import com.tftp.exceptions.InvalidPacketException;
 import com.tftp.io.FileTransfer;
 
 import java.net.DatagramPacket;
@@ -21,10 +22,16 @@ import java.net.DatagramPacket;
 public class Authentication {
 
     private int tid;
+    private int blockSize = FileTransfer.BLOCK_SIZE;
+    private int window = 1;
+
+    // the free space of the disk when last checked, less the bytes received since
+    private long available;
     private byte error;
-    private boolean duplicate;
+    private boolean duplicate, checked, accessible;
     private String message, mode, filename;
     private Packet packet;
+    private TransferRequest request;
 
 
     /**
@@ -49,6 +56,38 @@ public class Authentication {
     }
 
 
+    /**
+     * Sets the block size of the transfer, used for detecting oversized DATA packets.
+     *
+     * @param blockSize the (negotiated) block size
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+
+    /**
+     * Sets the amount of blocks that may be received ahead of the expected one (i.e. the window of a windowed write).
+     *
+     * @param window the (negotiated) window size
+     */
+    public void setWindow(int window) {
+        this.window = Math.max(1, window);
+    }
+
+
+    /**
+     * Records the outcome of the access check of the file made as the transfer was set up (i.e. the file has been
+     * opened for the transfer), so that the file is not checked again for every packet of the transfer.
+     *
+     * @param accessible if the file may be read or written, according to the mode of the transfer
+     */
+    public void setAccessible(boolean accessible) {
+        this.checked = true;
+        this.accessible = accessible;
+    }
+
+
     /**
      * Sets the mode (i.e. writing, reading) for this authentication instance.
      * This is used for detecting if the packet received is the expected one.
@@ -127,22 +166,38 @@ public class Authentication {
 
 
     /**
-     * Extracts the RRQ/WRQ parameters. (i.e. filename, mode)
      *
-     * @param packet The DatagramPacket holding the RRQ/WRQ request
+     * @return the request of the transfer, as parsed by the most recent verify() invocation on a RRQ/WRQ.
+     */
+    public TransferRequest getRequest() {
+        return this.request;
+    }
+
+
+    /**
+     * Verifies if the request, parsed by the server as it was received, may be serviced (i.e. the file to be read
+     * exists). The request is kept for the rest of the transfer, see getRequest().
      *
-     * @return a String array of length 2, where:
-     *         index 0 is always filename, index 1 is always mode.
+     * @param request the parsed RRQ/WRQ
+     *
+     * @return  true    if the request may be serviced
+     *          false   otherwise
      */
-    public String[] extractTransferParameters(DatagramPacket packet) {
-        String[] parameters = new String[2];
-        String data = new String(packet.getData()).substring(2);
-        int delimiter = data.indexOf((char) ((byte) 0));
-
-        // filename and mode, respectively
-        parameters[0] = data.substring(0, delimiter);
-        parameters[1] = data.substring(delimiter + 1, data.length() - 1);
-        return parameters;
+    public boolean verify(TransferRequest request) {
+        reset();
+        this.request = request;
+
+        try {
+            if (verifyFileEnvironment(request.getType(), request.getPacket())) {
+                return true;
+            }
+        } catch (AccessViolationException ex) {
+            setError(TFTPError.ACCESS_VIOLATION);
+            setErrorMessage("Access Violation: File not accessible.");
+        }
+
+        storeResult(request.getPacket());
+        return false;
     }
 
 
@@ -151,22 +206,21 @@ public class Authentication {
      * Checks for both errors in the packet itself and the I/O environment.
      *
      * @param target The DatagramPacket in question
-     * @param block the actual block number
+     * @param block the absolute block number expected
      *
      * @return  true    if the packet is legal, expected, and may be consumed
      *          false   otherwise
      */
     public boolean verify(DatagramPacket target, int block) {
         reset();
-        Packet packet = toPacket(target);
-        byte[] data = target.getData();
+        PacketTypes type = Packet.getPacketType(target);
 
         if (target.getPort() != this.tid) {
             setError(TFTPError.UNKNOWN_TRANSFER_ID);
             setErrorMessage("Incorrect TID");
         } else {
             try {
-                if (verifyPacketContents(packet, data, block) && verifyFileEnvironment(packet)) {
+                if (verifyPacketContents(type, target, block) && verifyFileEnvironment(type, target)) {
                     return true;
                 }
             } catch (AccessViolationException ex) {
@@ -183,32 +237,35 @@ public class Authentication {
 
 
     /**
-     * Verifies if the provided Packet contains a legal data buffer.
+     * Verifies if the provided packet contains a legal data buffer. Only the length of the packet is considered, as
+     * its buffer may be larger (i.e. a receive buffer reused for every packet).
      *
-     * @param packet The Packet instance
-     * @param data The data buffer of the packet
-     * @param block the actual block number
+     * @param type The type of the packet
+     * @param target The DatagramPacket in question
+     * @param block the absolute block number expected
      *
      * @return  true    if the data buffer is legal
      *          false   otherwise
      */
-    private boolean verifyPacketContents(Packet packet, byte[] data, int block) {
-        if (data.length > 516) {
+    private boolean verifyPacketContents(PacketTypes type, DatagramPacket target, int block) {
+        boolean blockNumbered = type == PacketTypes.DATA || type == PacketTypes.ACK;
+
+        if (target.getLength() > blockSize + 4) {
             setError(TFTPError.ILLEGAL_TFTP_OPERATION);
-            setErrorMessage("Block greater than 516 bytes");
-        } else if (packet == null) {
+            setErrorMessage(String.format("Block greater than %d bytes", blockSize + 4));
+        } else if (type == PacketTypes.UNKNOWN) {
             setError(TFTPError.ILLEGAL_TFTP_OPERATION);
             setErrorMessage("Undefined OpCode or Packet");
-        } else if (mode.equals("reading") && packet.getType() == PacketTypes.DATA) {
+        } else if (mode.equals("reading") && type == PacketTypes.DATA) {
             setError(TFTPError.ILLEGAL_TFTP_OPERATION);
             setErrorMessage("Received DATA, Expected ACK");
-        } else if (mode.equals("writing") && packet.getType() == PacketTypes.ACK) {
+        } else if (mode.equals("writing") && type == PacketTypes.ACK) {
             setError(TFTPError.ILLEGAL_TFTP_OPERATION);
             setErrorMessage("Received ACK, Expected DATA");
-        } else if (packet.isBlockNumbered() && BlockNumber.getBlockNumber(packet.getDatagram().getData()) > block) {
+        } else if (blockNumbered && BlockNumber.getBlockNumber(target.getData(), block) > block + window - 1) {
             setError(TFTPError.ILLEGAL_TFTP_OPERATION);
             setErrorMessage("Incorrect Block Number");
-        } else if (packet.isBlockNumbered() && BlockNumber.getBlockNumber(packet.getDatagram().getData()) < block) {
+        } else if (blockNumbered && BlockNumber.getBlockNumber(target.getData(), block) < block) {
             setDuplicate(true);
         } else {
             return true;
@@ -221,34 +278,38 @@ public class Authentication {
     /**
      * Verifies if the environment set up for the packet allows for consumption (i.e. readable/writable).
      *
-     * @param packet The Packet instance, used to divert logic flow accordingly
+     * @param type The type of the packet, used to divert logic flow accordingly
+     * @param target The DatagramPacket in question
      *
      * @return  true    if the I/O environment is correctly set up
      *          false   otherwise
      */
-    private boolean verifyFileEnvironment(Packet packet) throws AccessViolationException {
-        if (packet.getType() == PacketTypes.RRQ || packet.getType() == PacketTypes.WRQ) {
-            String[] parameters = extractTransferParameters(packet.getDatagram());
-            this.filename = parameters[0];
-            String mode = parameters[1];
-
-            if (!mode.equalsIgnoreCase("octet")) {
-                setError(TFTPError.ILLEGAL_TFTP_OPERATION);
-                setErrorMessage(String.format("Illegal mode for %s", packet.getType()));
-                return false;
+    private boolean verifyFileEnvironment(PacketTypes type, DatagramPacket target) throws AccessViolationException {
+        if (type == PacketTypes.RRQ || type == PacketTypes.WRQ) {
+            // a request received by the transfer itself, rather than parsed by the server
+            if (request == null || request.getPacket() != target) {
+                try {
+                    request = TransferRequest.parse(target);
+                } catch (InvalidPacketException ex) {
+                    setError(TFTPError.ILLEGAL_TFTP_OPERATION);
+                    setErrorMessage(ex.getMessage());
+                    return false;
+                }
             }
+
+            this.filename = request.getFilename();
         }
 
-        if (packet.getType() == PacketTypes.RRQ && !FileTransfer.isFileExisting(filename)) {
+        if (type == PacketTypes.RRQ && !FileTransfer.isFileExisting(filename)) {
             setError(TFTPError.FILE_NOT_FOUND);
             setErrorMessage(String.format("File Not Found: %s", filename));
-        } else if (packet.getType() == PacketTypes.DATA && !FileTransfer.isWritable(filename)) {
+        } else if (type == PacketTypes.DATA && !isAccessible(type)) {
             setError(TFTPError.ACCESS_VIOLATION);
             setErrorMessage("Access Violation: File not writable.");
-        } else if (packet.getType() == PacketTypes.DATA && FileTransfer.getFreeSpace() < packet.getDatagram().getData().length - 4) {
+        } else if (type == PacketTypes.DATA && !isAvailable(target.getLength() - 4)) {
             setError(TFTPError.DISK_FULL);
             setErrorMessage("Disk Full: Not enough memory to write contents.");
-        } else if (packet.getType() == PacketTypes.ACK && !FileTransfer.isReadable(filename)) {
+        } else if (type == PacketTypes.ACK && !isAccessible(type)) {
             setError(TFTPError.ACCESS_VIOLATION);
             setErrorMessage("Access Violation: File not readable.");
         } else {
@@ -259,6 +320,48 @@ public class Authentication {
     }
 
 
+    /**
+     * Checks if the file may be written (DATA) or read (ACK), once per transfer: the outcome of the first check, or of
+     * the one made as the transfer was set up (see setAccessible()), holds for the rest of the transfer.
+     *
+     * @param type The type of the packet
+     *
+     * @return  true    if the file is accessible
+     *          false   otherwise
+     */
+    private boolean isAccessible(PacketTypes type) {
+        if (!checked) {
+            accessible = type == PacketTypes.DATA ? FileTransfer.isWritable(filename) : FileTransfer.isReadable(filename);
+            checked = true;
+        }
+
+        return accessible;
+    }
+
+
+    /**
+     * Accounts for the data of a DATA packet against the free space of the disk. The free space is only checked again
+     * once the data received since the last check has used it up, as other writes may have used some of it meanwhile.
+     *
+     * @param length the amount of data bytes
+     *
+     * @return  true    if the data fits on the disk
+     *          false   otherwise
+     */
+    private boolean isAvailable(int length) {
+        if (available < length) {
+            available = FileTransfer.getFreeSpace();
+        }
+
+        if (available < length) {
+            return false;
+        }
+
+        available -= length;
+        return true;
+    }
+
+
     /**
      * Stores the resulting DatagramPacket as a Packet instance.
      *
@@ -292,6 +395,8 @@ public class Authentication {
                 return new ACKPacket(packet);
             case ERROR:
                 return new ERRORPacket(packet);
+            case OACK:
+                return new OACKPacket(packet);
             default:
                 return null;
         }
@@ -1,10 +1,15 @@
 package com.tftp.core.protocol;
 
+import com.tftp.TFTPConfig;
 
 /**
  * BlockNumber encapsulates the logic between encoding blocknumbers as two's complement (i.e. default in java)
  * and reading them back correctly as unsigned numbers.
  *
+ * Transfers keep counting blocks with a plain integer past block 65535, while the two bytes on the wire roll over
+ * to TFTPConfig.BLOCK_ROLLOVER (0 or 1). A block number read from a packet is mapped back to the absolute block
+ * nearest to the one expected, which is unambiguous as long as windows stay below MAX_WINDOW blocks.
+ *
  * Course: Real Time Concurrent Systems
  * Term: Summer 2017
  *
@@ -13,6 +18,8 @@ package com.tftp.core.protocol;
  */
 public class BlockNumber {
 
+    // the largest window for which a wrapped block number can still be told apart from the expected one
+    public static final int MAX_WINDOW = 32767;
 
     /**
      * Converts the two byte block number into an unsigned integer.
@@ -27,16 +34,67 @@ public class BlockNumber {
     }
 
 
+    /**
+     * Reads the block number of a packet as the absolute block of the transfer nearest to the expected one.
+     *
+     * @param block the packet data
+     * @param reference the absolute block expected (or last processed) by the transfer
+     *
+     * @return the absolute block number
+     */
+    public static int getBlockNumber(byte[] block, int reference) {
+        return unwrap(getBlockNumber(block), reference);
+    }
+
+
+    /**
+     * Converts an absolute block number into the 16-bit number sent on the wire.
+     *
+     * @param block the absolute block number
+     *
+     * @return the wire block number, between 0 and 65535
+     */
+    public static int wrap(int block) {
+        if (block <= 0xFFFF) {
+            return block & 0xFFFF;
+        }
+
+        return TFTPConfig.BLOCK_ROLLOVER == 1 ? (block - 1) % 0xFFFF + 1 : block & 0xFFFF;
+    }
+
+
+    /**
+     * Converts a 16-bit wire block number into the absolute block number nearest to the reference.
+     *
+     * @param wire the wire block number
+     * @param reference the absolute block expected (or last processed) by the transfer
+     *
+     * @return the absolute block number
+     */
+    public static int unwrap(int wire, int reference) {
+        int period = TFTPConfig.BLOCK_ROLLOVER == 1 ? 0xFFFF : 0x10000;
+
+        int distance = Math.floorMod(wire - wrap(reference), period);
+        if (distance > period / 2) {
+            distance -= period;
+        }
+
+        int block = reference + distance;
+        return block < 0 ? block + period : block;
+    }
+
+
     /**
      * Converts the integer block number into a two-byte two's complement array.
      *
-     * @param input The block number
+     * @param input The absolute block number, rolled over past 65535
      *
      * @return The block number, as a byte array
      */
     public static byte[] getBlockNumber(int input) {
-        byte[] data = new byte[2]; // <- assuming "in" value in 0..65535 range and we can use 2 bytes only
+        byte[] data = new byte[2];
 
+        input = wrap(input);
         data[0] = (byte)((input >> 8) & 0xFF);
         data[1] = (byte)(input & 0xFF);
 
@@ -0,0 +1,209 @@
+package com.tftp.core.protocol;
+
+import com.tftp.core.protocol.Packet.PacketTypes;
+
+import java.net.DatagramPacket;
+
+/**
+ * PacketClassifier determines the type of a datagram in a single pass over its bytes: the opcode selects the layout
+ * to be validated, which is then scanned once without backtracking. The zero-terminated fields of requests are
+ * located along the way (i.e. where the filename and mode end), so that they need not be searched for again.
+ *
+ * The last datagram classified by every thread is remembered, along with the buffer and length it was classified
+ * with: a datagram that is inspected several times on its way (i.e. logged, verified, then matched by the error
+ * simulator) is only scanned once. A datagram whose buffer is modified in place must be reclassified through
+ * invalidate() or reclassify(), which receives into a reused buffer do. The packets rewriting a datagram (i.e. an
+ * ERROR built over a received one) invalidate it on their own, through Packet.setData().
+ *
+ * The classification returned belongs to the calling thread, and is only valid until the thread classifies
+ * another datagram. Nothing is allocated per datagram.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Brian Zhang, Josh Campitelli, Ahmed Sakr, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 8th, 2017.
+ */
+public final class PacketClassifier {
+
+    private static final byte RRQ = 1, WRQ = 2, DATA = 3, ACK = 4, ERROR = 5, OACK = 6;
+
+    private static final ThreadLocal<PacketClassifier> CLASSIFIERS = ThreadLocal.withInitial(PacketClassifier::new);
+
+    // the datagram last classified, and the buffer and length it was classified with
+    private DatagramPacket packet;
+    private byte[] data;
+    private int length;
+
+    private PacketTypes type;
+    private int filenameEnd, modeEnd;
+
+    private PacketClassifier() {
+    }
+
+
+    /**
+     * Classifies the datagram, unless it is the one last classified by the calling thread.
+     *
+     * @param packet the datagram to classify
+     *
+     * @return the classification of the datagram, valid until the thread classifies another one
+     */
+    public static PacketClassifier classify(DatagramPacket packet) {
+        PacketClassifier classifier = CLASSIFIERS.get();
+        if (!classifier.holds(packet)) {
+            classifier.scan(packet);
+        }
+
+        return classifier;
+    }
+
+
+    /**
+     * Classifies the datagram again, i.e. once a new packet has been received in its buffer.
+     *
+     * @param packet the datagram to classify
+     *
+     * @return the classification of the datagram, valid until the thread classifies another one
+     */
+    public static PacketClassifier reclassify(DatagramPacket packet) {
+        PacketClassifier classifier = CLASSIFIERS.get();
+        classifier.scan(packet);
+
+        return classifier;
+    }
+
+
+    /**
+     * Forgets the classification of the datagram, if it is the one remembered by the calling thread. To be invoked
+     * once the buffer of the datagram has been modified in place.
+     *
+     * @param packet the modified datagram
+     */
+    public static void invalidate(DatagramPacket packet) {
+        PacketClassifier classifier = CLASSIFIERS.get();
+        if (classifier.packet == packet) {
+            classifier.packet = null;
+        }
+    }
+
+
+    public PacketTypes getType() {
+        return type;
+    }
+
+
+    /**
+     *
+     * @return the index (within the buffer of the datagram) of the 0 terminating the filename of a RRQ/WRQ.
+     */
+    public int getFilenameEnd() {
+        return filenameEnd;
+    }
+
+
+    /**
+     *
+     * @return the index (within the buffer of the datagram) of the 0 terminating the mode of a RRQ/WRQ.
+     */
+    public int getModeEnd() {
+        return modeEnd;
+    }
+
+
+    /**
+     *
+     * @return the index (within the buffer of the datagram) at which the options of a RRQ/WRQ start, the end of the
+     *         datagram if none were requested.
+     */
+    public int getOptionsStart() {
+        return modeEnd + 1;
+    }
+
+
+    private boolean holds(DatagramPacket packet) {
+        return this.packet == packet && this.data == packet.getData() && this.length == packet.getLength();
+    }
+
+    //Validates the layout selected by the opcode in a single scan of the datagram
+    private void scan(DatagramPacket packet) {
+        this.packet = packet;
+        this.data = packet.getData();
+        this.length = packet.getLength();
+        this.filenameEnd = -1;
+        this.modeEnd = -1;
+
+        int start = packet.getOffset(), end = start + length;
+        if (length < 4 || data[start] != 0) {
+            type = PacketTypes.UNKNOWN;
+            return;
+        }
+
+        switch (data[start + 1]) {
+            case RRQ:
+                type = scanStrings(start + 2, end) ? PacketTypes.RRQ : PacketTypes.UNKNOWN;
+                break;
+            case WRQ:
+                type = scanStrings(start + 2, end) ? PacketTypes.WRQ : PacketTypes.UNKNOWN;
+                break;
+            case OACK:
+                type = scanStrings(start + 2, end) ? PacketTypes.OACK : PacketTypes.UNKNOWN;
+                break;
+            case DATA:
+                type = PacketTypes.DATA;
+                break;
+            case ACK:
+                type = length == 4 ? PacketTypes.ACK : PacketTypes.UNKNOWN;
+                break;
+            case ERROR:
+                type = scanMessage(start + 4, end) ? PacketTypes.ERROR : PacketTypes.UNKNOWN;
+                break;
+            default:
+                type = PacketTypes.UNKNOWN;
+        }
+    }
+
+    //Checks for an even amount (at least 2) of zero-terminated strings, i.e. filename and mode, followed by the
+    //option/value pairs (RFC 2347). Only the values of the pairs past the first one may be empty (i.e. the RFC 2090
+    //multicast option of a request)
+    private boolean scanStrings(int index, int end) {
+        int count = 0, length = 0;
+        for (int i = index; i < end; i++) {
+            if (data[i] != 0) {
+                length++;
+                continue;
+            }
+
+            if (length == 0 && (count < 3 || count % 2 == 0)) {
+                return false;
+            }
+
+            if (count == 0) {
+                filenameEnd = i;
+            } else if (count == 1) {
+                modeEnd = i;
+            }
+
+            count++;
+            length = 0;
+        }
+
+        return length == 0 && count >= 2 && count % 2 == 0;
+    }
+
+    //Checks for a zero-terminated error message, which may be empty. Its first byte is not inspected, as peers send
+    //messages starting with any byte
+    private boolean scanMessage(int index, int end) {
+        if (index >= end || data[end - 1] != 0) {
+            return false;
+        }
+
+        for (int i = index + 1; i < end - 1; i++) {
+            if (data[i] == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,308 @@
+package com.tftp.core.protocol;
+
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * PacketCodec reads and writes the fields of DATA, ACK and ERROR packets (i.e. opcode, block number, payload, error
+ * code and message) in place, directly within a ByteBuffer. Unlike the Packet subclasses, no object is created for
+ * every packet: a codec is a flyweight over a reusable buffer, and may be pointed at another buffer through wrap().
+ *
+ * The packet always starts at index 0 of the buffer and ends at its limit, so that the same buffer can be handed to a
+ * DatagramChannel as is. Buffers may be direct or on the heap: a codec obtained through allocate() is backed by a heap
+ * buffer shared with a DatagramPacket, whose length follows every packet written, to be sent or received through a
+ * DatagramSocket.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 16th, 2017.
+ */
+public class PacketCodec {
+
+    // the opcode and block number preceding the payload of a DATA packet
+    public static final int HEADER_SIZE = 4;
+
+    private static final byte DATA = 3, ACK = 4, ERROR = 5;
+
+    private ByteBuffer buffer;
+    private DatagramPacket datagram;
+
+    public PacketCodec() {
+    }
+
+    public PacketCodec(ByteBuffer buffer) {
+        wrap(buffer);
+    }
+
+
+    /**
+     * Creates a codec over a new heap buffer, shared with a DatagramPacket.
+     *
+     * @param capacity the size of the biggest packet to be held, in bytes
+     *
+     * @return the codec, holding an empty packet
+     */
+    public static PacketCodec allocate(int capacity) {
+        byte[] array = new byte[capacity];
+
+        PacketCodec codec = new PacketCodec(ByteBuffer.wrap(array));
+        codec.datagram = new DatagramPacket(array, capacity);
+        codec.setLength(0);
+
+        return codec;
+    }
+
+
+    /**
+     * Points the codec at another buffer. The packet spans the buffer up to its limit.
+     *
+     * @param buffer the buffer holding the packet
+     *
+     * @return this codec
+     */
+    public PacketCodec wrap(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.datagram = null;
+        return this;
+    }
+
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+
+    /**
+     *
+     * @return the DatagramPacket sharing the buffer of the codec, null if the codec was not obtained through allocate().
+     */
+    public DatagramPacket getDatagram() {
+        return datagram;
+    }
+
+
+    /**
+     *
+     * @return the maximum length of a packet held by the codec.
+     */
+    public int getCapacity() {
+        return buffer.capacity();
+    }
+
+
+    public int getLength() {
+        return buffer.limit();
+    }
+
+
+    /**
+     * Sets the length of the packet held by the codec (i.e. once a packet has been received in its buffer).
+     *
+     * @param length the length of the packet, in bytes
+     *
+     * @return this codec
+     */
+    public PacketCodec setLength(int length) {
+        buffer.limit(length);
+        if (datagram != null) {
+            datagram.setLength(length);
+            PacketClassifier.invalidate(datagram);
+        }
+
+        return this;
+    }
+
+
+    /**
+     * Reads the length of the packet last received through the DatagramPacket of the codec.
+     *
+     * @return this codec
+     */
+    public PacketCodec received() {
+        buffer.limit(datagram.getLength());
+        PacketClassifier.invalidate(datagram);
+        return this;
+    }
+
+
+    /**
+     *
+     * @return the opcode of the packet, -1 if the packet is too short to hold one.
+     */
+    public int getOpcode() {
+        if (buffer.limit() < 2) {
+            return -1;
+        }
+
+        return ((buffer.get(0) & 0xFF) << 8) | (buffer.get(1) & 0xFF);
+    }
+
+
+    public boolean isData() {
+        return buffer.limit() >= HEADER_SIZE && getOpcode() == DATA;
+    }
+
+
+    public boolean isAck() {
+        return buffer.limit() == HEADER_SIZE && getOpcode() == ACK;
+    }
+
+
+    public boolean isError() {
+        return buffer.limit() > HEADER_SIZE && getOpcode() == ERROR && buffer.get(buffer.limit() - 1) == 0;
+    }
+
+
+    /**
+     *
+     * @return the block number of a DATA/ACK packet, as sent on the wire (between 0 and 65535).
+     */
+    public int getBlockNumber() {
+        return ((buffer.get(2) & 0xFF) << 8) | (buffer.get(3) & 0xFF);
+    }
+
+
+    /**
+     * Reads the block number of a DATA/ACK packet as the absolute block of the transfer nearest to the expected one.
+     *
+     * @param reference the absolute block expected (or last processed) by the transfer
+     *
+     * @return the absolute block number
+     */
+    public int getBlockNumber(int reference) {
+        return BlockNumber.unwrap(getBlockNumber(), reference);
+    }
+
+
+    /**
+     *
+     * @return the amount of data bytes carried by a DATA packet.
+     */
+    public int getPayloadLength() {
+        return buffer.limit() - HEADER_SIZE;
+    }
+
+
+    /**
+     * Copies the data carried by a DATA packet.
+     *
+     * @param destination the array to copy the data to
+     * @param offset the index of the array to copy the data at
+     */
+    public void getPayload(byte[] destination, int offset) {
+        buffer.get(HEADER_SIZE, destination, offset, getPayloadLength());
+    }
+
+
+    public byte getErrorCode() {
+        return buffer.get(3);
+    }
+
+
+    /**
+     *
+     * @return the message of an ERROR packet. Allocates, as errors are not on the path of a healthy transfer.
+     */
+    public String getErrorMessage() {
+        byte[] message = new byte[Math.max(0, buffer.limit() - HEADER_SIZE - 1)];
+        buffer.get(HEADER_SIZE, message, 0, message.length);
+
+        return new String(message, StandardCharsets.US_ASCII);
+    }
+
+
+    /**
+     * Writes the header of a DATA packet. The payload is expected to have been written by the caller right after the
+     * header (i.e. by reading the file straight into the buffer returned by payload()).
+     *
+     * @param block the absolute block number, rolled over past 65535
+     * @param length the amount of data bytes following the header
+     *
+     * @return this codec
+     */
+    public PacketCodec putData(int block, int length) {
+        putHeader(DATA, BlockNumber.wrap(block));
+        buffer.position(0);
+        return setLength(HEADER_SIZE + length);
+    }
+
+
+    /**
+     * Readies the buffer for the payload of a DATA packet to be written in place, behind the header: the buffer is
+     * positioned right after the header, and limited to the given length of payload. The packet is then completed
+     * through putData(block, length), with the amount of bytes actually written.
+     *
+     * @param length the maximum amount of data bytes, i.e. the block size of the transfer
+     *
+     * @return the buffer of the codec, to be written the payload into
+     */
+    public ByteBuffer payload(int length) {
+        buffer.limit(Math.min(buffer.capacity(), HEADER_SIZE + length));
+        buffer.position(HEADER_SIZE);
+        return buffer;
+    }
+
+
+    /**
+     * Writes a DATA packet, copying its payload behind the header.
+     *
+     * @param block the absolute block number, rolled over past 65535
+     * @param data the array holding the data
+     * @param offset the index of the data within the array
+     * @param length the amount of data bytes
+     *
+     * @return this codec
+     */
+    public PacketCodec putData(int block, byte[] data, int offset, int length) {
+        buffer.limit(buffer.capacity());
+        buffer.put(HEADER_SIZE, data, offset, length);
+        return putData(block, length);
+    }
+
+
+    /**
+     * Writes an ACK packet.
+     *
+     * @param block the absolute block number, rolled over past 65535
+     *
+     * @return this codec
+     */
+    public PacketCodec putAck(int block) {
+        putHeader(ACK, BlockNumber.wrap(block));
+        return setLength(HEADER_SIZE);
+    }
+
+
+    /**
+     * Writes an ERROR packet. The message is truncated to the capacity of the buffer.
+     *
+     * @param code the TFTPError code
+     * @param message the error message
+     *
+     * @return this codec
+     */
+    public PacketCodec putError(byte code, String message) {
+        byte[] text = message.getBytes(StandardCharsets.US_ASCII);
+        int length = Math.min(text.length, buffer.capacity() - HEADER_SIZE - 1);
+
+        buffer.limit(buffer.capacity());
+        putHeader(ERROR, code & 0xFF);
+        buffer.put(HEADER_SIZE, text, 0, length);
+        buffer.put(HEADER_SIZE + length, (byte) 0);
+
+        return setLength(HEADER_SIZE + length + 1);
+    }
+
+
+    //Writes the opcode followed by the block number (or error code) in the first 4 bytes of the buffer
+    private void putHeader(byte opcode, int value) {
+        buffer.limit(buffer.capacity());
+        buffer.put(0, (byte) 0);
+        buffer.put(1, opcode);
+        buffer.put(2, (byte) ((value >> 8) & 0xFF));
+        buffer.put(3, (byte) (value & 0xFF));
+    }
+}
@@ -0,0 +1,126 @@
+package com.tftp.core.protocol;
+
+import java.net.DatagramPacket;
+import java.util.List;
+
+/**
+ * PacketWindow holds the DATA packets sent and not yet acknowledged by a transfer (RFC 7440), in order. Every packet
+ * is written in place in one of the slots of a ring: the slot of an acknowledged packet is reused by the next block,
+ * so that a transfer running at a steady window allocates no packet at all.
+ *
+ * Slots are allocated the first time the window grows to them, with the block size of the transfer at the time.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 16th, 2017.
+ */
+public class PacketWindow {
+
+    private PacketCodec[] slots = new PacketCodec[1];
+    private int head, size, blockSize;
+
+    /**
+     * @param blockSize the block size of the transfer
+     */
+    public PacketWindow(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+
+    /**
+     * Sets the (negotiated) block size of the transfer, slots too small for it are replaced as they are reused.
+     *
+     * @param blockSize the block size of the transfer
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+
+    public int size() {
+        return size;
+    }
+
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+
+    /**
+     *
+     * @return the packet sent at the given position of the window, the oldest one being at index 0.
+     */
+    public PacketCodec get(int index) {
+        return slots[(head + index) % slots.length];
+    }
+
+
+    /**
+     * Appends a packet to the window.
+     *
+     * @return the slot of the packet, to be written by the caller
+     */
+    public PacketCodec add() {
+        if (size == slots.length) {
+            grow();
+        }
+
+        int index = (head + size) % slots.length;
+        if (slots[index] == null || slots[index].getCapacity() < blockSize + PacketCodec.HEADER_SIZE) {
+            slots[index] = PacketCodec.allocate(blockSize + PacketCodec.HEADER_SIZE);
+        }
+
+        size++;
+        return slots[index];
+    }
+
+
+    /**
+     * Drops the packets of the window up to the acknowledged block.
+     *
+     * @param acked the acknowledged (absolute) block number
+     * @param reference the absolute block last sent, which the block numbers are read against
+     */
+    public void slide(int acked, int reference) {
+        while (size > 0 && get(0).getBlockNumber(reference) <= acked) {
+            head = (head + 1) % slots.length;
+            size--;
+        }
+    }
+
+
+    /**
+     * Drops every packet of the window. The slots are kept for the next packets.
+     */
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+
+    /**
+     * Appends the datagrams of the packets of the window, in order, to the given list.
+     *
+     * @param datagrams the list to append the datagrams to
+     */
+    public void collect(List<DatagramPacket> datagrams) {
+        for (int i = 0; i < size; i++) {
+            datagrams.add(get(i).getDatagram());
+        }
+    }
+
+
+    //Doubles the ring, keeping the packets in order
+    private void grow() {
+        PacketCodec[] grown = new PacketCodec[slots.length * 2];
+        for (int i = 0; i < slots.length; i++) {
+            grown[i] = get(i);
+        }
+
+        slots = grown;
+        head = 0;
+    }
+}
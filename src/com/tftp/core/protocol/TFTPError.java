@@ -19,4 +19,5 @@ public class TFTPError {
     public static final byte UNKNOWN_TRANSFER_ID = 5;
     public static final byte FILE_EXISTS = 6;
     public static final byte NO_SUCH_USER = 7;
+    public static final byte OPTION_NEGOTIATION = 8;
 }
@@ -0,0 +1,383 @@
+package com.tftp.core.protocol;
+
+import com.tftp.TFTPConfig;
+import com.tftp.io.FileTransfer;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * TransferOptions holds the option/value pairs appended to a request or an OACK packet, as per the TFTP option
+ * extension (RFC 2347). Option names are case-insensitive and are kept in lower case, in the order they appeared.
+ *
+ * Each supported option registers a Negotiator, which decides the value the server acknowledges for a requested one
+ * and whether the client may accept the value acknowledged by the server. Unsupported options are silently left out
+ * of the acknowledgment, so that the requester falls back to the RFC 1350 behaviour for them.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 1st, 2017.
+ */
+public class TransferOptions {
+
+    // the retransmission timeout in seconds (RFC 2349)
+    public static final String TIMEOUT = "timeout";
+
+    // the amount of data bytes per DATA packet (RFC 2348)
+    public static final String BLKSIZE = "blksize";
+
+    // the amount of DATA packets sent before waiting for an acknowledgment (RFC 7440)
+    public static final String WINDOWSIZE = "windowsize";
+
+    // the size in bytes of the file being transferred (RFC 2349), requested as 0 for reads
+    public static final String TSIZE = "tsize";
+
+    // the multicast group of a read (RFC 2090), requested empty and acknowledged as "address,port,master client"
+    public static final String MULTICAST = "multicast";
+
+    private static final Map<String, Negotiator> negotiators = new HashMap<>();
+
+    static {
+        register(TIMEOUT, (requested) -> {
+            int seconds = parse(requested);
+            return seconds >= 1 && seconds <= 255 ? String.valueOf(seconds) : null;
+        });
+
+        // the server may lower the requested size, never raise it
+        register(BLKSIZE, new Negotiator() {
+            @Override
+            public String negotiate(String requested) {
+                int size = parse(requested);
+                if (size < 8 || size > FileTransfer.MAX_BLOCK_SIZE) {
+                    return null;
+                }
+
+                return String.valueOf(Math.min(size, Math.max(8, TFTPConfig.SERVER_MAX_BLOCK_SIZE)));
+            }
+
+            @Override
+            public boolean accepts(String requested, String acknowledged) {
+                int size = parse(acknowledged);
+                return size >= 8 && size <= parse(requested);
+            }
+        });
+
+        // the server may lower the requested window, never raise it, nor past the range of the block numbers
+        register(WINDOWSIZE, new Negotiator() {
+            @Override
+            public String negotiate(String requested) {
+                int size = parse(requested);
+                if (size < 1 || size > 65535) {
+                    return null;
+                }
+
+                int max = Math.min(BlockNumber.MAX_WINDOW, Math.max(1, TFTPConfig.SERVER_MAX_WINDOW_SIZE));
+                return String.valueOf(Math.min(size, max));
+            }
+
+            @Override
+            public boolean accepts(String requested, String acknowledged) {
+                int size = parse(acknowledged);
+                return size >= 1 && size <= parse(requested);
+            }
+        });
+
+        // the server reports the size of the file on reads, and checks the declared size on writes
+        register(TSIZE, new Negotiator() {
+            @Override
+            public String negotiate(String requested) {
+                return parseLong(requested) < 0 ? null : requested.trim();
+            }
+
+            @Override
+            public boolean accepts(String requested, String acknowledged) {
+                long size = parseLong(acknowledged);
+                return parseLong(requested) == 0 ? size >= 0 : size == parseLong(requested);
+            }
+        });
+
+        // only a multicast group acknowledges the option, with its own address (see MulticastController)
+        register(MULTICAST, new Negotiator() {
+            @Override
+            public String negotiate(String requested) {
+                return null;
+            }
+
+            @Override
+            public boolean accepts(String requested, String acknowledged) {
+                return parseMulticast(acknowledged) != null;
+            }
+        });
+    }
+
+    private LinkedHashMap<String, String> options = new LinkedHashMap<>();
+
+    public TransferOptions() {
+    }
+
+    /**
+     * Copies the option/value pairs of another instance, in order.
+     *
+     * @param other the options to be copied
+     */
+    public TransferOptions(TransferOptions other) {
+        options.putAll(other.options);
+    }
+
+
+    /**
+     * Registers the negotiation logic of a supported option.
+     *
+     * @param name the option name
+     * @param negotiator the option Negotiator
+     */
+    public static synchronized void register(String name, Negotiator negotiator) {
+        negotiators.put(name.toLowerCase(), negotiator);
+    }
+
+
+    private static synchronized Negotiator getNegotiator(String name) {
+        return negotiators.get(name);
+    }
+
+
+    /**
+     * Parses the option/value pairs of a packet, starting at the given offset.
+     *
+     * @param data the packet data
+     * @param offset the index of the first option name
+     * @param length the length of the packet
+     *
+     * @return the parsed TransferOptions, or null if the pairs are malformed (i.e. a value is missing)
+     */
+    public static TransferOptions parse(byte[] data, int offset, int length) {
+        TransferOptions options = new TransferOptions();
+        String name = null;
+
+        int start = offset;
+        for (int i = offset; i < length; i++) {
+            if (data[i] != 0) {
+                continue;
+            }
+
+            String field = new String(data, start, i - start);
+            if (name == null) {
+                name = field;
+            } else {
+                options.set(name, field);
+                name = null;
+            }
+
+            start = i + 1;
+        }
+
+        return name == null && start == length ? options : null;
+    }
+
+
+    /**
+     * Parses a numeric option value.
+     *
+     * @param value the option value
+     *
+     * @return the value as an integer, or -1 if it is not a valid number
+     */
+    public static int parse(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException | NullPointerException ex) {
+            return -1;
+        }
+    }
+
+
+    /**
+     * Parses a numeric option value that may exceed the integer range (i.e. tsize).
+     *
+     * @param value the option value
+     *
+     * @return the value as a long, or -1 if it is not a valid number
+     */
+    public static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException | NullPointerException ex) {
+            return -1;
+        }
+    }
+
+
+    public void set(String name, String value) {
+        options.put(name.toLowerCase(), value);
+    }
+
+
+    public void remove(String name) {
+        options.remove(name.toLowerCase());
+    }
+
+
+    public String get(String name) {
+        return options.get(name.toLowerCase());
+    }
+
+
+    /**
+     * Parses the value of an acknowledged multicast option (RFC 2090), i.e. "224.100.100.100,1758,1".
+     *
+     * @param value the option value
+     *
+     * @return the group address, the group port and the master client flag (1 or 0), or null if malformed
+     */
+    public static String[] parseMulticast(String value) {
+        String[] fields = value == null ? new String[0] : value.split(",", -1);
+        if (fields.length != 3 || fields[0].trim().isEmpty()) {
+            return null;
+        }
+
+        int port = parse(fields[1]), master = parse(fields[2]);
+        if (port < 1 || port > 65535 || master < 0 || master > 1) {
+            return null;
+        }
+
+        return new String[] { fields[0].trim(), String.valueOf(port), String.valueOf(master) };
+    }
+
+
+    /**
+     *
+     * @param name the option name
+     * @param fallback the value to return if the option is absent or not numeric
+     *
+     * @return the numeric value of the option
+     */
+    public int getInt(String name, int fallback) {
+        int value = parse(get(name));
+        return value < 0 ? fallback : value;
+    }
+
+
+    /**
+     *
+     * @param name the option name
+     * @param fallback the value to return if the option is absent or not numeric
+     *
+     * @return the numeric value of the option
+     */
+    public long getLong(String name, long fallback) {
+        long value = parseLong(get(name));
+        return value < 0 ? fallback : value;
+    }
+
+
+    public boolean contains(String name) {
+        return options.containsKey(name.toLowerCase());
+    }
+
+
+    public boolean isEmpty() {
+        return options.isEmpty();
+    }
+
+
+    public Set<String> names() {
+        return options.keySet();
+    }
+
+
+    /**
+     * Decides, on the server side, which of the requested options are acknowledged and with what value.
+     *
+     * @return the options to be sent back in an OACK packet (empty if none is supported)
+     */
+    public TransferOptions negotiate() {
+        TransferOptions accepted = new TransferOptions();
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            Negotiator negotiator = getNegotiator(option.getKey());
+            String value = negotiator == null ? null : negotiator.negotiate(option.getValue());
+
+            if (value != null) {
+                accepted.set(option.getKey(), value);
+            }
+        }
+
+        return accepted;
+    }
+
+
+    /**
+     * Checks, on the client side, if the options acknowledged by the server are acceptable given the ones requested.
+     * An option that was never requested, or that was acknowledged with an unacceptable value, fails the negotiation.
+     *
+     * @param acknowledged the options of the OACK packet
+     *
+     * @return  true    if the transfer may proceed with the acknowledged options
+     *          false   otherwise, in which case the client must answer with an OPTION_NEGOTIATION error
+     */
+    public boolean accepts(TransferOptions acknowledged) {
+        for (String name : acknowledged.names()) {
+            Negotiator negotiator = getNegotiator(name);
+            if (!contains(name) || negotiator == null || !negotiator.accepts(get(name), acknowledged.get(name))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Encodes the options as consecutive zero-terminated name and value strings.
+     *
+     * @return the encoded options
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            byte[] name = option.getKey().getBytes();
+            byte[] value = option.getValue().getBytes();
+
+            stream.write(name, 0, name.length);
+            stream.write(0);
+            stream.write(value, 0, value.length);
+            stream.write(0);
+        }
+
+        return stream.toByteArray();
+    }
+
+
+    @Override
+    public String toString() {
+        return options.toString();
+    }
+
+
+    /**
+     * Negotiator encloses the negotiation rules of a single option.
+     */
+    public interface Negotiator {
+
+        /**
+         * @param requested the value requested by the client
+         *
+         * @return the value acknowledged by the server, or null if the option must be left out
+         */
+        String negotiate(String requested);
+
+        /**
+         * @param requested the value requested by the client
+         * @param acknowledged the value acknowledged by the server
+         *
+         * @return if the client may proceed with the acknowledged value. By default, it must be the requested one.
+         */
+        default boolean accepts(String requested, String acknowledged) {
+            return requested.equals(acknowledged);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.tftp.core.protocol;
+
+import com.tftp.TFTPConfig;
+import com.tftp.core.protocol.Packet.PacketTypes;
+import com.tftp.exceptions.InvalidPacketException;
+import com.tftp.io.FileTransfer;
+
+import java.net.DatagramPacket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * TransferRequest is the parsed form of a RRQ/WRQ packet: its type, filename, mode and requested options (RFC 2347).
+ * The request is parsed once, as soon as it has been received by the server, and is then handed as is to the
+ * admission control, the multicast groups and the transfer itself, none of which parse it again.
+ *
+ * Parsing works on the bytes of the datagram: the fields are located by the PacketClassifier, the mode is compared
+ * in place, and the only String created is the filename (the options are parsed only if any were appended). A
+ * request that is oversized or malformed is rejected before anything is allocated for its transfer.
+ *
+ * A TransferRequest is immutable, its options are copied on every access.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since June the 1st, 2017.
+ */
+public final class TransferRequest {
+
+    private static final byte[] OCTET = FileTransfer.OCTET.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NETASCII = FileTransfer.NETASCII.getBytes(StandardCharsets.US_ASCII);
+
+    private final DatagramPacket packet;
+    private final PacketTypes type;
+    private final String filename;
+    private final boolean netascii;
+    private final TransferOptions options;
+
+    private TransferRequest(DatagramPacket packet, PacketTypes type, String filename, boolean netascii, TransferOptions options) {
+        this.packet = packet;
+        this.type = type;
+        this.filename = filename;
+        this.netascii = netascii;
+        this.options = options;
+    }
+
+
+    /**
+     * Parses and validates a RRQ/WRQ packet.
+     *
+     * @param packet the datagram holding the request
+     *
+     * @return the parsed request
+     * @throws InvalidPacketException if the packet is not a legal request, the message describing why
+     */
+    public static TransferRequest parse(DatagramPacket packet) throws InvalidPacketException {
+        if (packet.getLength() > TFTPConfig.SERVER_MAX_REQUEST_SIZE) {
+            throw new InvalidPacketException(String.format("Request greater than %d bytes", TFTPConfig.SERVER_MAX_REQUEST_SIZE));
+        }
+
+        PacketClassifier layout = PacketClassifier.classify(packet);
+        PacketTypes type = layout.getType();
+        if (type != PacketTypes.RRQ && type != PacketTypes.WRQ) {
+            throw new InvalidPacketException("Undefined OpCode or Packet");
+        }
+
+        byte[] data = packet.getData();
+        int start = packet.getOffset() + 2, filenameEnd = layout.getFilenameEnd(), modeEnd = layout.getModeEnd();
+        for (int i = start; i < filenameEnd; i++) {
+            if ((data[i] & 0xFF) < 0x20) {
+                throw new InvalidPacketException("Illegal character in filename");
+            }
+        }
+
+        boolean netascii = equalsIgnoreCase(data, filenameEnd + 1, modeEnd, NETASCII);
+        if (!netascii && !equalsIgnoreCase(data, filenameEnd + 1, modeEnd, OCTET)) {
+            throw new InvalidPacketException(String.format("Illegal mode for %s", type));
+        }
+
+        TransferOptions options = new TransferOptions();
+        int end = packet.getOffset() + packet.getLength();
+        if (layout.getOptionsStart() < end) {
+            options = TransferOptions.parse(data, layout.getOptionsStart(), end);
+            if (options == null) {
+                throw new InvalidPacketException("Malformed options");
+            }
+        }
+
+        return new TransferRequest(packet, type, new String(data, start, filenameEnd - start), netascii, options);
+    }
+
+
+    /**
+     *
+     * @return the datagram the request has been received in, which the responses of the transfer are addressed with.
+     */
+    public DatagramPacket getPacket() {
+        return packet;
+    }
+
+
+    /**
+     *
+     * @return the type of the request, RRQ or WRQ.
+     */
+    public PacketTypes getType() {
+        return type;
+    }
+
+
+    public boolean isRead() {
+        return type == PacketTypes.RRQ;
+    }
+
+
+    public String getFilename() {
+        return filename;
+    }
+
+
+    /**
+     *
+     * @return the mode of the request, either FileTransfer.OCTET or FileTransfer.NETASCII.
+     */
+    public String getMode() {
+        return netascii ? FileTransfer.NETASCII : FileTransfer.OCTET;
+    }
+
+
+    public boolean isNetascii() {
+        return netascii;
+    }
+
+
+    /**
+     *
+     * @return a copy of the options requested after the mode, empty for a plain RFC 1350 request.
+     */
+    public TransferOptions getOptions() {
+        return new TransferOptions(options);
+    }
+
+
+    public boolean hasOption(String name) {
+        return options.contains(name);
+    }
+
+
+    //Compares an ASCII field of the packet with the expected bytes, ignoring case
+    private static boolean equalsIgnoreCase(byte[] data, int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+
+        for (int i = 0; i < expected.length; i++) {
+            int b = data[start + i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+
+            if (b != expected[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("%s %s (%s) %s", type, filename, getMode(), options);
+    }
+}
@@ -5,7 +5,8 @@ import com.tftp.core.protocol.Packet;
 
 
 /**
- * DATAPacket is one type of TFTP packet that is used for transmitting data blocks with a maximum size of 512 bytes
+ * DATAPacket is one type of TFTP packet that is used for transmitting data blocks with a maximum size of 512 bytes,
+ * unless a larger block size has been negotiated (RFC 2348)
  *
  * Course: Real Time Concurrent Systems
  * Term: Summer 2017
@@ -0,0 +1,58 @@
+package com.tftp.core.protocol.packets;
+
+import com.tftp.core.protocol.Packet;
+import com.tftp.core.protocol.TransferOptions;
+
+import java.net.DatagramPacket;
+
+
+/**
+ * OACKPacket is one type of TFTP packet that is used by the server to acknowledge the options of a request it has
+ * accepted (RFC 2347). It takes the place of the ACK 0 of a write request, and must be acknowledged with an ACK 0
+ * by the client of a read request before the first DATA packet is sent.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Brian Zhang, Ahmed Sakr, Josh Campitelli, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 18th, 2017.
+ */
+public class OACKPacket extends Packet {
+
+    public OACKPacket(DatagramPacket packet) {
+        super(packet);
+    }
+
+    public OACKPacket(DatagramPacket packet, TransferOptions options) {
+        super(packet);
+        setData(prepare(options));
+    }
+
+    private byte[] prepare(TransferOptions options) {
+        byte[] extension = options.toBytes();
+        byte[] oack = new byte[2 + extension.length];
+
+        oack[1] = 6;
+        System.arraycopy(extension, 0, oack, 2, extension.length);
+        return oack;
+    }
+
+
+    /**
+     *
+     * @return the acknowledged options, or null if malformed.
+     */
+    public TransferOptions getOptions() {
+        return TransferOptions.parse(getDatagram().getData(), 2, getDatagram().getLength());
+    }
+
+    @Override
+    public PacketTypes getType() {
+        return PacketTypes.OACK;
+    }
+
+    @Override
+    public boolean isBlockNumbered() {
+        return false;
+    }
+}
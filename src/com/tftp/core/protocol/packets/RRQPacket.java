@@ -1,5 +1,7 @@
 package com.tftp.core.protocol.packets;
 
+import com.tftp.core.protocol.TransferOptions;
+
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -21,8 +23,12 @@ public class RRQPacket extends ReadWritePacket {
     }
 
     public RRQPacket(byte[] mode, byte[] filename, InetSocketAddress address) {
+        this(mode, filename, new TransferOptions(), address);
+    }
+
+    public RRQPacket(byte[] mode, byte[] filename, TransferOptions options, InetSocketAddress address) {
         super(new DatagramPacket(new byte[516], 516, address));
-        setData(form(mode, filename));
+        setData(form(mode, filename, options));
     }
 
 
@@ -37,7 +43,7 @@ public class RRQPacket extends ReadWritePacket {
     }
 
     @Override
-    protected byte[] form(byte[] mode, byte[] filename) {
-        return prepare((byte) 1, mode, filename);
+    protected byte[] form(byte[] mode, byte[] filename, TransferOptions options) {
+        return prepare((byte) 1, mode, filename, options);
     }
 }
\ No newline at end of file
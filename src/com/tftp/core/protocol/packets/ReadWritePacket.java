@@ -1,12 +1,15 @@
 package com.tftp.core.protocol.packets;
 
 import com.tftp.core.protocol.Packet;
+import com.tftp.core.protocol.PacketClassifier;
+import com.tftp.core.protocol.TransferOptions;
 
 import java.net.DatagramPacket;
 
 
 /**
  * ReadWritePacket is an abstract TFTP Packet class that engulfs two other packets: RRQPacket and WRQPacket.
+ * Both may carry option/value pairs after the mode, as per the TFTP option extension (RFC 2347).
  *
  * Course: Real Time Concurrent Systems
  * Term: Summer 2017
@@ -20,9 +23,10 @@ public abstract class ReadWritePacket extends Packet {
         super(packet);
     }
 
-    protected abstract byte[] form(byte[] mode, byte[] filename);
-    protected byte[] prepare(byte rw, byte[] mode, byte[] filename) {
-        byte[] request = new byte[4 + mode.length + filename.length];
+    protected abstract byte[] form(byte[] mode, byte[] filename, TransferOptions options);
+    protected byte[] prepare(byte rw, byte[] mode, byte[] filename, TransferOptions options) {
+        byte[] extension = options.toBytes();
+        byte[] request = new byte[4 + mode.length + filename.length + extension.length];
         int counter = 2; // filename starts at index 2
 
         request[0] = 0;
@@ -34,6 +38,33 @@ public abstract class ReadWritePacket extends Packet {
 
         System.arraycopy(mode, 0, request, counter, mode.length);
 
+        counter += (mode.length + 1); // options start after the 0 terminating the mode
+
+        System.arraycopy(extension, 0, request, counter, extension.length);
+
         return request;
     }
+
+
+    public String getFilename() {
+        int start = getDatagram().getOffset() + 2;
+        return new String(getDatagram().getData(), start, PacketClassifier.classify(getDatagram()).getFilenameEnd() - start);
+    }
+
+
+    public String getMode() {
+        PacketClassifier layout = PacketClassifier.classify(getDatagram());
+        int start = layout.getFilenameEnd() + 1;
+        return new String(getDatagram().getData(), start, layout.getModeEnd() - start);
+    }
+
+
+    /**
+     *
+     * @return the options requested after the mode (empty for a plain RFC 1350 request), or null if malformed.
+     */
+    public TransferOptions getOptions() {
+        int start = PacketClassifier.classify(getDatagram()).getOptionsStart();
+        return TransferOptions.parse(getDatagram().getData(), start, getDatagram().getOffset() + getDatagram().getLength());
+    }
 }
@@ -1,5 +1,7 @@
 package com.tftp.core.protocol.packets;
 
+import com.tftp.core.protocol.TransferOptions;
+
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -22,8 +24,12 @@ public class WRQPacket extends ReadWritePacket {
     }
 
     public WRQPacket(byte[] mode, byte[] filename, InetSocketAddress address) {
+        this(mode, filename, new TransferOptions(), address);
+    }
+
+    public WRQPacket(byte[] mode, byte[] filename, TransferOptions options, InetSocketAddress address) {
         super(new DatagramPacket(new byte[516], 516, address));
-        setData(form(mode, filename));
+        setData(form(mode, filename, options));
     }
 
 
@@ -38,8 +44,8 @@ public class WRQPacket extends ReadWritePacket {
     }
 
     @Override
-    protected byte[] form(byte[] mode, byte[] filename) {
-        return prepare((byte) 2, mode, filename);
+    protected byte[] form(byte[] mode, byte[] filename, TransferOptions options) {
+        return prepare((byte) 2, mode, filename, options);
     }
 
 }
@@ -0,0 +1,333 @@
+package com.tftp.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ContentCache holds the content of the files read by the server in memory, shared by every transfer reading them
+ * (i.e. the same boot images read by hundreds of clients at once), so that a file is read from the disk once rather
+ * than once per transfer.
+ *
+ * Files are keyed by their canonical path, and an entry is only served as long as the size and modification time of
+ * its file are unchanged: a modified file is loaded again. The cache holds up to a budget of bytes, the least recently
+ * read files being evicted first. Concurrent reads of a file missing from the cache are coalesced: the file is loaded
+ * once, by the first of them, while the others wait for its content.
+ *
+ * The content of a file is handed out as a read-only buffer, which remains valid for as long as the transfer reading
+ * it, even if the entry is evicted or replaced in the meantime.
+ *
+ * A read that must not wait for the disk (i.e. a transfer of an event loop, which would stall every other transfer of
+ * the loop) is never made to: a missing file is then loaded in the background, by a loader thread, for the reads to
+ * come, and the read itself is left to the disk.
+ *
+ * Methods operating on the entries are internally synchronized to guarantee thread-safety. Files are loaded outside
+ * of the lock.
+ *
+ * @author Ahmed Sakr, Brian Zhang, Josh Campitelli, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 28th, 2017.
+ */
+public class ContentCache {
+
+    private long capacity, maxFileSize, size;
+    private boolean direct;
+    private long hits, misses, coalesced, evictions;
+
+    // the cached files in access order, the least recently read first
+    private LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // the files being loaded, along with the content awaited by the concurrent reads
+    private HashMap<String, Loading> loading = new HashMap<>();
+
+    // the thread loading the files missed by the reads that do not wait, started on first use
+    private ExecutorService loader;
+
+    /**
+     * @param capacity the amount of bytes the cache may hold, 0 to disable the cache
+     * @param maxFileSize the size (in bytes) of the largest file held by the cache
+     * @param direct if the content is held off-heap, in direct buffers
+     */
+    public ContentCache(long capacity, long maxFileSize, boolean direct) {
+        this.capacity = capacity;
+        this.maxFileSize = Math.min(maxFileSize, Math.min(capacity, Integer.MAX_VALUE));
+        this.direct = direct;
+    }
+
+
+    /**
+     * Retrieves the content of the file, loading it in the cache if it is missing or has been modified since it was
+     * cached. A file being loaded by another thread is waited for rather than loaded again.
+     *
+     * This method is THREAD-SAFE.
+     *
+     * @param file the file to read
+     *
+     * @return the content of the file as a read-only buffer, or null if the file is not held by the cache (the cache
+     *         is disabled, the file is too large or could not be loaded), in which case it must be read from the disk.
+     */
+    public ByteBuffer get(File file) {
+        return get(file, true);
+    }
+
+
+    /**
+     * Retrieves the content of the file if it is held by the cache. A file missing from the cache (or modified since
+     * it was cached) is loaded by the calling thread if it waits, and by the loader thread otherwise, in which case
+     * this read is left to the disk.
+     *
+     * This method is THREAD-SAFE.
+     *
+     * @param file the file to read
+     * @param wait if the calling thread may wait for the file to be loaded
+     *
+     * @return the content of the file as a read-only buffer, or null if the file is not held by the cache (see get()).
+     */
+    public ByteBuffer get(File file, boolean wait) {
+        if (capacity <= 0) {
+            return null;
+        }
+
+        Loading load;
+        boolean loader = false;
+        String key;
+        BasicFileAttributes attributes;
+
+        try {
+            key = file.getCanonicalPath();
+            attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException ex) {
+            return null;
+        }
+
+        if (!attributes.isRegularFile() || attributes.size() > maxFileSize) {
+            return null;
+        }
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.matches(attributes)) {
+                hits++;
+                return entry.content.asReadOnlyBuffer();
+            }
+
+            // the file has been modified since it was cached
+            if (entry != null) {
+                remove(key);
+            }
+
+            load = loading.get(key);
+            if (load == null || !load.entry.matches(attributes)) {
+                load = new Loading(new Entry(attributes));
+                loading.put(key, load);
+                loader = true;
+                misses++;
+            } else if (wait) {
+                coalesced++;
+            } else {
+                return null;
+            }
+        }
+
+        if (loader && !wait) {
+            Loading missed = load;
+            getLoader().execute(() -> load(key, file.toPath(), missed));
+            return null;
+        } else if (loader) {
+            load(key, file.toPath(), load);
+        }
+
+        try {
+            Entry entry = load.future.get();
+            return entry == null ? null : entry.content.asReadOnlyBuffer();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException ex) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Drops every file held by the cache.
+     *
+     * This method is THREAD-SAFE.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+
+    /**
+     *
+     * @return the amount of bytes currently held by the cache.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+
+    /**
+     *
+     * @return the amount of reads served from the cache.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+
+    /**
+     *
+     * @return the amount of reads that had to load their file from the disk.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+
+    /**
+     *
+     * @return the amount of reads that waited for their file to be loaded by a concurrent read.
+     */
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+
+    //Loads the file on behalf of every read waiting for it, then caches it unless it has been modified meanwhile. The
+    //reads waiting are released whatever happens, left to the disk if the file could not be loaded
+    private void load(String key, Path path, Loading load) {
+        Entry entry = null;
+        try {
+            entry = read(path, load.entry);
+        } finally {
+            synchronized (this) {
+                loading.remove(key, load);
+                if (entry != null) {
+                    insert(key, entry);
+                }
+            }
+
+            load.future.complete(entry);
+        }
+    }
+
+    //Reads the whole file in the content of the entry. Returns null if the file could not be read, or has been modified
+    private Entry read(Path path, Entry entry) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer content = direct ? ByteBuffer.allocateDirect((int) entry.length) : ByteBuffer.allocate((int) entry.length);
+
+            // a single read may return less than requested for large files
+            int count;
+            do {
+                count = channel.read(content, content.position());
+            } while (count > 0 && content.hasRemaining());
+
+            content.flip();
+            entry.content = content;
+
+            if (content.limit() != entry.length || !entry.matches(Files.readAttributes(path, BasicFileAttributes.class))) {
+                return null;
+            }
+
+            return entry;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    //The loader thread, started on first use
+    private synchronized ExecutorService getLoader() {
+        if (loader == null) {
+            loader = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "Content-Cache");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        return loader;
+    }
+
+    //Adds the entry, evicting the least recently read files until it fits. The caller must hold the lock
+    private void insert(String key, Entry entry) {
+        remove(key);
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (size + entry.length > capacity && iterator.hasNext()) {
+            size -= iterator.next().length;
+            iterator.remove();
+            evictions++;
+        }
+
+        entries.put(key, entry);
+        size += entry.length;
+    }
+
+    //Removes the entry of the file, if any. The caller must hold the lock
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.length;
+        }
+    }
+
+
+    /**
+     * Reports the amount of bytes held and the hit and miss counts of the cache.
+     *
+     * This method is THREAD-SAFE.
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format("Content Cache: %d/%d bytes (%d files), Hits: %d, Misses: %d, Coalesced: %d, Evictions: %d",
+                size, capacity, entries.size(), hits, misses, coalesced, evictions);
+    }
+
+
+    /**
+     * The content of a cached file, along with the size and modification time of the file it was read at.
+     */
+    private static class Entry {
+
+        private long length, modified;
+        private ByteBuffer content;
+
+        private Entry(BasicFileAttributes attributes) {
+            this.length = attributes.size();
+            this.modified = attributes.lastModifiedTime().toMillis();
+        }
+
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return length == attributes.size() && modified == attributes.lastModifiedTime().toMillis();
+        }
+    }
+
+
+    /**
+     * A file being loaded, the content of which is awaited by every concurrent read of the file.
+     */
+    private static class Loading {
+
+        private Entry entry;
+        private CompletableFuture<Entry> future = new CompletableFuture<>();
+
+        private Loading(Entry entry) {
+            this.entry = entry;
+        }
+    }
+}
@@ -2,9 +2,13 @@ package com.tftp.io;
 
 import java.io.*;
 import java.lang.AutoCloseable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.Scanner;
 
+import com.tftp.TFTPConfig;
 import com.tftp.exceptions.AccessViolationException;
 import com.tftp.exceptions.UnknownIOModeException;
 
@@ -13,8 +17,19 @@ import com.tftp.exceptions.UnknownIOModeException;
  * Please note: FileTransfer is intended to be use for one READ or WRITE operation. The class stream
  * will automatically close and terminate once the last block has been reached.
  *
- * FileTransfer determines the last block by reading its length. If its length is less than BLOCK_SIZE,
- * then the last block has been received and the class shall terminate after processing it.
+ * FileTransfer determines the last block by reading its length. If its length is less than the block size of
+ * the transfer (BLOCK_SIZE, unless another one was negotiated), then the last block has been received and the
+ * class shall terminate after processing it.
+ *
+ * In netascii mode, the file is translated block by block as it is read or written (see NetasciiInputStream and
+ * NetasciiOutputStream): blocks are always full-sized netascii, so the last block detection is left unchanged.
+ *
+ * The blocks of an octet read are read according to TFTPConfig.FILE_READ_BACKEND: sequentially from the stream, by
+ * position through the channel of the file, or copied from a memory mapping of the file (from the page cache, without
+ * a system call per block). Either way, any block may be read again by its number (see readBlock()). On the server,
+ * the content of frequently read files is held in memory by a ContentCache shared by all transfers (see setCache()),
+ * and the blocks of the other files may be fetched from the disk ahead of the transfer (see setReadAhead()). The files
+ * received by the server are written in the background, in large writes (see setWriteBehind()).
  *
  * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
  * @since May the 6th, 2017.
@@ -24,10 +39,37 @@ public class FileTransfer {
     public static int READ = 1;
     public static int WRITE = 2;
     public static int BLOCK_SIZE = 512; // 512 bytes
+    public static int MAX_BLOCK_SIZE = 65464; // RFC 2348
+    public static String OCTET = "octet";
+    public static String NETASCII = "netascii";
     public static String parentDirectory;
+
+    // the blocks of a read are read sequentially from the stream of the file
+    public static final int STREAM = 1;
+
+    // the blocks of a read are read by position through the channel of the file
+    public static final int CHANNEL = 2;
+
+    // the file is mapped in memory, and the blocks of a read are copied from the mapping (see TFTPConfig.FILE_MAP_THRESHOLD)
+    public static final int MAPPED = 3;
+
     private File file;
     private AutoCloseable stream;
     private int lastBlockSize;
+    private int blockSize = BLOCK_SIZE;
+    private FileChannel channel;
+
+    // the whole content of the file being read, when mapped in memory or held by the content cache
+    private ByteBuffer content;
+
+    private int backend = STREAM;
+    private long position;
+    private ReadAhead.Stream readAhead;
+    private boolean netascii;
+
+    // the write-behind of a write, and if the transfer may not wait for it (i.e. driven by an EventLoop)
+    private WriteBehind.Stream output;
+    private boolean waiting = true, finishing;
 
     /**
      * Constructs and preapres the class for all operations.
@@ -35,6 +77,17 @@ public class FileTransfer {
      * @throws UnknownIOModeException a rogue mode value was provided, which is critical to the operations.
      */
     public FileTransfer(String file, int mode) throws FileNotFoundException, AccessViolationException, UnknownIOModeException {
+        this(file, mode, false);
+    }
+
+
+    /**
+     * Constructs and prepares the class for all operations, translating the file from or to netascii if requested.
+     *
+     * @throws UnknownIOModeException a rogue mode value was provided, which is critical to the operations.
+     */
+    public FileTransfer(String file, int mode, boolean netascii) throws FileNotFoundException, AccessViolationException, UnknownIOModeException {
+        this.netascii = netascii;
         if (mode == WRITE && isFileExisting(file)) {
             file = getAdjustedFilename(file);
         }
@@ -44,6 +97,34 @@ public class FileTransfer {
     }
 
 
+    /**
+     * Sets the block size of this transfer, as negotiated through the RFC 2348 blksize option.
+     *
+     * @param blockSize the amount of bytes per block, between 8 and MAX_BLOCK_SIZE
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = Math.max(8, Math.min(MAX_BLOCK_SIZE, blockSize));
+    }
+
+
+    /**
+     *
+     * @return the amount of bytes per block of this transfer.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+
+    /**
+     *
+     * @return the size of the file in bytes.
+     */
+    public long length() {
+        return file.length();
+    }
+
+
     /**
      * Sets the parent directory of FileTransfer.
      *
@@ -86,12 +167,7 @@ public class FileTransfer {
      * @return the write privileges of the file
      */
     public static boolean isWritable(String filename) {
-        File f;
-        if (parentDirectory.endsWith("/") || parentDirectory.endsWith("\\")) {
-            f = new File(parentDirectory + filename);
-        } else {
-            f = new File(parentDirectory + "\\" + filename);
-        }
+        File f = resolve(filename);
 
         if (f.exists()) {
             return Files.isWritable(f.toPath());
@@ -115,12 +191,7 @@ public class FileTransfer {
      * @return the read privileges of the parent directory
      */
     public static boolean isReadable(String filename) {
-        File f;
-        if (parentDirectory.endsWith("/") || parentDirectory.endsWith("\\")) {
-            f = new File(parentDirectory + filename);
-        } else {
-            f = new File(parentDirectory + "\\" + filename);
-        }
+        File f = resolve(filename);
 
         if (f.exists()) {
             return Files.isReadable(f.toPath());
@@ -146,7 +217,7 @@ public class FileTransfer {
      *          false   otherwise
      */
     public static boolean isFileExisting(String file) throws AccessViolationException {
-        File f = new File(parentDirectory + "\\" + file);
+        File f = resolve(file);
         if (!Files.exists(f.toPath()) && !Files.notExists(f.toPath())) {
             throw new AccessViolationException("File Access Denied");
         } else {
@@ -155,13 +226,20 @@ public class FileTransfer {
     }
 
 
+    //Resolves the file within the parent directory, with the name separator of the platform
+    private static File resolve(String filename) {
+        return new File(parentDirectory, filename);
+    }
+
+
     /**
      * Retrieves the total allocatable bytes in the parent directory.
      *
      * @return the amount of allocatable bytes as a long primitive type
      */
     public static long getFreeSpace() {
-        return new File(parentDirectory).getFreeSpace();
+        // the usable space, as the blocks reserved by the file system cannot be written to
+        return new File(parentDirectory).getUsableSpace();
     }
 
 
@@ -201,56 +279,356 @@ public class FileTransfer {
 
 
     /**
-     * Reads up to BLOCK_SIZE worth of data from the FileInputStream.
+     * Reads up to a block worth of data from the FileInputStream.
      * Checks if last block was reached and takes appropriate measures if necessary.
      *
      * @return the buffer byte array with the data read.
      */
     public byte[] read() throws IOException {
         byte[] block = null;
-        if (this.stream instanceof FileInputStream) {
+        if (this.stream instanceof InputStream) {
+            block = new byte[blockSize];
+            read(ByteBuffer.wrap(block));
+        }
 
-            // safe typecast, no need to worry about runtime errors
-            FileInputStream reader = (FileInputStream) stream;
-            block = new byte[BLOCK_SIZE];
-            lastBlockSize = reader.read(block);
+        return block;
+    }
+
+
+    /**
+     * Reads up to a block worth of data straight into the given buffer, at its position (i.e. behind the header of
+     * the DATA packet about to be sent, see PacketCodec.payload()), so that the block is copied once from the file
+     * to the packet. The position of the buffer is advanced past the data read.
+     * Checks if last block was reached and takes appropriate measures if necessary.
+     *
+     * @param destination the buffer to read into, with room for a whole block
+     *
+     * @return the amount of bytes read, 0 once the transfer is complete.
+     */
+    public int read(ByteBuffer destination) throws IOException {
+        if (!(this.stream instanceof InputStream)) {
+            return 0;
+        }
 
-            // if nothing was read, lastBlockSize has to be set to 0
-            if (lastBlockSize == -1) {
-                lastBlockSize = 0;
+        // safe typecast, no need to worry about runtime errors
+        InputStream reader = (InputStream) stream;
+        int start = destination.position(), end = start + Math.min(blockSize, destination.remaining());
+        lastBlockSize = 0;
+
+        // a single read may return less than requested for large blocks, only the end of file ends the block
+        int count = 0;
+        if (readAhead != null && (count = readAhead.read(position, destination, end - start)) >= 0) {
+            // the block has been fetched ahead of the transfer
+            lastBlockSize = count;
+        } else if (backend != STREAM || content != null) {
+            lastBlockSize = readAt(position, destination, end - start);
+        } else if (destination.hasArray()) {
+            byte[] array = destination.array();
+            int offset = destination.arrayOffset() + start;
+            while (lastBlockSize < end - start && (count = reader.read(array, offset + lastBlockSize, end - start - lastBlockSize)) != -1) {
+                lastBlockSize += count;
             }
 
-            if (lastBlockSize < BLOCK_SIZE) {
-                done();
+            destination.position(start + lastBlockSize);
+        } else if (!netascii) {
+            // a direct buffer is read into by the channel of the stream, which shares its position
+            int limit = destination.limit();
+            destination.limit(end);
+            while (destination.hasRemaining() && (count = channel.read(destination)) != -1) {
+                lastBlockSize += count;
+            }
+
+            destination.limit(limit);
+        } else {
+            byte[] block = new byte[end - start];
+            while (lastBlockSize < block.length && (count = reader.read(block, lastBlockSize, block.length - lastBlockSize)) != -1) {
+                lastBlockSize += count;
             }
+
+            destination.put(block, 0, lastBlockSize);
         }
 
-        return block;
+        position += lastBlockSize;
+        if (readAhead != null) {
+            readAhead.advance(position, blockSize);
+        }
+
+        if (lastBlockSize < blockSize) {
+            done();
+        }
+
+        return lastBlockSize;
     }
 
 
     /**
-     * Writes up to 512 bytes of data to the FileOutputStream.
+     * Writes up to a block worth of data to the FileOutputStream.
      * Checks if last block was reached and takes appropriate measures if necessary.
      */
     public void write(byte[] b) throws IOException {
-        // TODO: abnormal request: writing more than 512 bytes at a time: should it be critical?
-        if (b.length > BLOCK_SIZE) {
+        write(b, 0, b.length);
+    }
+
+
+    /**
+     * Writes up to a block worth of data, held within a larger array (i.e. the payload of a received DATA packet).
+     * Checks if last block was reached and takes appropriate measures if necessary.
+     *
+     * @param b the array holding the data
+     * @param offset the index of the data within the array
+     * @param length the amount of data bytes
+     */
+    public void write(byte[] b, int offset, int length) throws IOException {
+        // TODO: abnormal request: writing more than a block at a time: should it be critical?
+        if (length > blockSize) {
             return;
         }
 
-        if (this.stream instanceof FileOutputStream) {
+        if (this.stream instanceof OutputStream) {
 
             // safe typecast, no need to worry about runtime errors
-            FileOutputStream writer = (FileOutputStream) stream;
-            writer.write(b);
-            if (b.length < BLOCK_SIZE) {
+            OutputStream writer = (OutputStream) stream;
+            writer.write(b, offset, length);
+            if (length < blockSize) {
+                // the file is completely written before the last block is acknowledged, so that a failure is reported
+                if (stream instanceof NetasciiOutputStream) {
+                    ((NetasciiOutputStream) stream).finish();
+                }
+
+                // in the background for a transfer that may not wait, completed by finish()
+                if (!waiting) {
+                    finishing = true;
+                    output.finish();
+                    return;
+                }
+
+                writer.flush();
                 done();
             }
         }
     }
 
 
+    /**
+     * Reads the given block of the file, regardless of the blocks read before (i.e. a block requested by the master
+     * client of a multicast group). The stream is left open.
+     *
+     * @param block the block number, starting at 1
+     *
+     * @return the data of the block, shorter than the block size for the last block.
+     */
+    public byte[] readBlock(int block) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        readBlock(block, buffer);
+
+        return Arrays.copyOf(buffer.array(), lastBlockSize);
+    }
+
+
+    /**
+     * Reads the given block of the file straight into the given buffer, at its position (see read(ByteBuffer)),
+     * regardless of the blocks read before. The stream is left open.
+     *
+     * @param block the block number, starting at 1
+     * @param destination the buffer to read into, with room for a whole block
+     *
+     * @return the amount of bytes read, less than the block size for the last block.
+     */
+    public int readBlock(int block, ByteBuffer destination) throws IOException {
+        lastBlockSize = readAt((long) (block - 1) * blockSize, destination, Math.min(blockSize, destination.remaining()));
+        return lastBlockSize;
+    }
+
+
+    /**
+     * Reads the blocks of this (octet) read from the content cache of the server rather than from the file itself,
+     * the file being loaded in the cache first if needed. Has no effect on netascii reads and on writes, or if the file
+     * is not held by the cache (see ContentCache.get()).
+     *
+     * @param cache the content cache of the server
+     */
+    public void setCache(ContentCache cache) {
+        setCache(cache, true);
+    }
+
+
+    /**
+     * Reads the blocks of this (octet) read from the content cache of the server, as setCache(ContentCache), unless the
+     * file is missing from the cache and the calling thread may not wait for it to be loaded: the file is then loaded
+     * in the background for the reads to come, and this one reads from the file itself.
+     *
+     * @param cache the content cache of the server
+     * @param wait if the calling thread may wait for the file to be loaded
+     */
+    public void setCache(ContentCache cache, boolean wait) {
+        if (netascii || !(stream instanceof InputStream)) {
+            return;
+        }
+
+        ByteBuffer cached = cache.get(file, wait);
+        if (cached != null) {
+            content = cached;
+        }
+    }
+
+
+    /**
+     * Fetches the blocks of this (octet) read from the disk in the background, ahead of the blocks sent, so that the
+     * next block is in memory by the time it is acknowledged. Has no effect on netascii reads and on writes, if the
+     * file is held by the content cache (see setCache()), or if it is not read through its channel (see
+     * TFTPConfig.FILE_READ_BACKEND).
+     *
+     * @param readAhead the read-ahead of the server
+     */
+    public void setReadAhead(ReadAhead readAhead) {
+        if (netascii || !(stream instanceof InputStream) || content != null || backend != CHANNEL) {
+            return;
+        }
+
+        this.readAhead = readAhead.open(channel, file.length());
+    }
+
+
+    /**
+     * Writes the blocks of this write in the background, coalesced in large writes, so that a block may be
+     * acknowledged as soon as it has been queued. Has no effect on reads. A failure to write the blocks queued is
+     * thrown by the next write, or by the last one.
+     *
+     * @param writeBehind the write-behind of the server
+     */
+    public void setWriteBehind(WriteBehind writeBehind) {
+        if (!(stream instanceof OutputStream)) {
+            return;
+        }
+
+        output = writeBehind.open(channel);
+        if (output != null) {
+            stream = netascii ? new NetasciiOutputStream(output) : output;
+        }
+    }
+
+
+    /**
+     * Makes this write never wait for the disk, for a transfer driven by an EventLoop: a block is only written once the
+     * write-behind has room for it (see canWrite()), and the last block is written and synced in the background (see
+     * finish()). Has no effect on reads, or if the write-behind is disabled (see setWriteBehind()).
+     *
+     * @param ready the task run from a writer thread once the transfer may go on, i.e. a block it could not write may
+     *              be written, or its last block has been written
+     */
+    public void setReady(Runnable ready) {
+        if (output != null) {
+            output.setReady(ready);
+            waiting = false;
+        }
+    }
+
+
+    /**
+     * Checks if a block of the given length may be written without waiting for the disk (see setReady()). If not, the
+     * task given to setReady() is run once it may.
+     *
+     * @param length the length of the block
+     *
+     * @return true if the block may be written without waiting, always for a transfer that may wait.
+     */
+    public boolean canWrite(int length) {
+        // a netascii block may double as it is translated, and the CR held by the previous one is written along
+        return waiting || output.isReady(netascii ? 2 * length + 1 : length);
+    }
+
+
+    /**
+     *
+     * @return true if the last block has been written, and the file is being written and synced in the background
+     *         (see finish()).
+     */
+    public boolean isFinishing() {
+        return finishing;
+    }
+
+
+    /**
+     * Completes a write whose last block has been written in the background (see setReady()), once the task given to
+     * setReady() has been run: the file is then closed, and the transfer complete.
+     *
+     * @return true if the write is complete, false if the file is still being written.
+     *
+     * @throws IOException if the file could not be written
+     */
+    public boolean finish() throws IOException {
+        if (!output.isFinished()) {
+            return false;
+        }
+
+        // the file has been written, it is closed without waiting
+        finishing = false;
+        waiting = true;
+        output.flush();
+        done();
+
+        return true;
+    }
+
+
+    //Reads up to the given amount of bytes from the given position of the file into the buffer, from its content if
+    //mapped or cached, or through a positional read of its channel. Returns the amount of bytes read, fewer at the end of file
+    private int readAt(long position, ByteBuffer destination, int length) throws IOException {
+        if (backend == MAPPED && content == null) {
+            map();
+        }
+
+        int start = destination.position();
+        if (content != null) {
+            int count = (int) Math.max(0, Math.min(length, content.limit() - position));
+            destination.put(start, content, (int) Math.min(position, content.limit()), count);
+            destination.position(start + count);
+
+            return count;
+        }
+
+        int limit = destination.limit();
+        destination.limit(start + length);
+
+        // a single read may return less than requested for large blocks, only the end of file ends the block
+        int count;
+        do {
+            count = channel.read(destination, position + destination.position() - start);
+        } while (count > 0 && destination.hasRemaining());
+
+        destination.limit(limit);
+        return destination.position() - start;
+    }
+
+    //Maps the whole file in memory, on its first read. Files smaller than TFTPConfig.FILE_MAP_THRESHOLD (not worth the
+    //mapping) or too large for a single mapping are read through the channel instead
+    private void map() throws IOException {
+        long size = channel.size();
+        if (size < TFTPConfig.FILE_MAP_THRESHOLD || size > Integer.MAX_VALUE) {
+            backend = CHANNEL;
+            return;
+        }
+
+        content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+
+    /**
+     * Writes the given block at its place in the file, regardless of the blocks written before (i.e. the blocks of
+     * a multicast group, received in any order). The transfer must be closed once all blocks have been written.
+     *
+     * @param block the block number, starting at 1
+     * @param b the data of the block
+     */
+    public void writeBlock(int block, byte[] b) throws IOException {
+        long position = (long) (block - 1) * blockSize;
+        ByteBuffer buffer = ByteBuffer.wrap(b);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+
     /**
      *
      * @return The name of the file.
@@ -272,11 +650,11 @@ public class FileTransfer {
     /**
      * Checks if this instance of FileTransfer owns the exclusive right to hold the file lock.
      *
-     * @return  true    if there is an active READ (FileInputStream) on the file
+     * @return  true    if there is an active READ (InputStream) on the file
      *          false   otherwise
      */
     public boolean hasFileLock() {
-        return !isComplete() && stream instanceof FileInputStream;
+        return !isComplete() && stream instanceof InputStream;
     }
 
 
@@ -298,7 +676,12 @@ public class FileTransfer {
     private void initialize(int mode) throws FileNotFoundException, AccessViolationException, UnknownIOModeException {
         if (mode == READ) {
             try {
-                stream = new FileInputStream(this.file.getAbsolutePath());
+                FileInputStream input = new FileInputStream(this.file.getAbsolutePath());
+                channel = input.getChannel();
+                stream = netascii ? new NetasciiInputStream(input) : input;
+
+                // netascii is translated as the stream is read, it can only be read sequentially
+                backend = netascii ? STREAM : TFTPConfig.FILE_READ_BACKEND;
             } catch (FileNotFoundException ex) {
                 if (!isFileExisting(this.file.getName())) {
                     throw ex;
@@ -308,7 +691,9 @@ public class FileTransfer {
             }
         } else if (mode == WRITE) {
             try {
-                stream = new FileOutputStream(this.file.getAbsolutePath());
+                FileOutputStream output = new FileOutputStream(this.file.getAbsolutePath());
+                channel = output.getChannel();
+                stream = netascii ? new NetasciiOutputStream(output) : output;
             } catch (FileNotFoundException ex) {
                 throw new AccessViolationException("File Access Denied: Unable to write.");
             }
@@ -331,6 +716,31 @@ public class FileTransfer {
     private void done(){
         try {
             if (stream != null) {
+                // a write ended early that may not wait has the blocks queued written, and the file closed, in the
+                // background
+                if (!waiting) {
+                    output.closeLater();
+                    stream = null;
+                    return;
+                }
+
+                if (stream instanceof NetasciiOutputStream) {
+                    ((NetasciiOutputStream) stream).finish();
+                }
+
+                if (readAhead != null) {
+                    readAhead.close();
+                }
+
+                // the blocks queued by the write-behind are written before the file is closed
+                if (stream instanceof OutputStream) {
+                    try {
+                        ((OutputStream) stream).flush();
+                    } catch (IOException ex) {
+                        // already thrown by the write that failed, the file is closed regardless
+                    }
+                }
+
                 stream.close();
                 stream = null;
             }
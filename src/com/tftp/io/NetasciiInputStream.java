@@ -0,0 +1,140 @@
+package com.tftp.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * NetasciiInputStream translates a local file into netascii (RFC 764) as it is read: every line ending becomes a
+ * CR LF pair, and every bare CR becomes a CR NUL pair. A CR LF already present in the file is kept as is.
+ *
+ * The translation is streamed: the CR of a pair is produced right away and its second byte is decided upon the next
+ * byte of the file, and the bytes of a pair that do not fit in the caller's buffer are carried over to the next
+ * read. Consequently, every read fills the buffer completely unless the end of the file is reached, which keeps the
+ * last block detection of FileTransfer correct after the expansion.
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 6th, 2017.
+ */
+class NetasciiInputStream extends FilterInputStream {
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    private byte[] buffer = new byte[8192];
+    private int position, limit;
+
+    // the translated bytes that did not fit in the caller's buffer, at most a NUL followed by a CR LF pair
+    private byte[] carried = new byte[3];
+    private int head, tail;
+
+    // if the last byte read from the file is a CR, whose second byte depends on the next one
+    private boolean carriage;
+
+    NetasciiInputStream(InputStream in) {
+        super(in);
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : Byte.toUnsignedInt(single[0]);
+    }
+
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = 0;
+        while (count < len) {
+            if (head < tail) {
+                b[off + count++] = carried[head++];
+                continue;
+            }
+
+            if (position == limit) {
+                if (!fill()) {
+                    break;
+                }
+
+                continue;
+            }
+
+            // most bytes are neither CR nor LF and are copied through
+            byte c = buffer[position++];
+            if (!carriage && c != CR && c != LF) {
+                b[off + count++] = c;
+                continue;
+            }
+
+            head = tail = 0;
+            if (carriage) {
+                carriage = false;
+                if (c == LF) {
+                    carried[tail++] = LF;
+                    continue;
+                }
+
+                carried[tail++] = 0;
+            }
+
+            if (c == CR) {
+                carried[tail++] = CR;
+                carriage = true;
+            } else if (c == LF) {
+                carried[tail++] = CR;
+                carried[tail++] = LF;
+            } else {
+                carried[tail++] = c;
+            }
+        }
+
+        return count == 0 && len > 0 ? -1 : count;
+    }
+
+
+    /**
+     * Reads the next chunk of the file. At the end of the file, a trailing CR is completed with its NUL.
+     *
+     * @return if there are bytes left to translate or carry over
+     */
+    private boolean fill() throws IOException {
+        position = 0;
+        limit = Math.max(0, in.read(buffer, 0, buffer.length));
+        if (limit > 0) {
+            return true;
+        }
+
+        if (carriage) {
+            carriage = false;
+            head = tail = 0;
+            carried[tail++] = 0;
+            return true;
+        }
+
+        return false;
+    }
+
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && read() != -1) {
+            skipped++;
+        }
+
+        return skipped;
+    }
+
+
+    @Override
+    public int available() {
+        return (tail - head) + (limit - position);
+    }
+
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,93 @@
+package com.tftp.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * NetasciiOutputStream translates netascii (RFC 764) back into a local file as it is written: every CR LF pair
+ * becomes the line separator of the platform, and every CR NUL pair becomes a bare CR.
+ *
+ * The translation is streamed block by block. A CR ending a block is held until the first byte of the next block
+ * tells which pair it belongs to, and is written as is by finish() if the transfer ends on it.
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 6th, 2017.
+ */
+class NetasciiOutputStream extends FilterOutputStream {
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    private byte[] separator = System.lineSeparator().getBytes();
+    private byte[] translated = new byte[0];
+
+    // if the last byte written is a CR, whose meaning depends on the next one
+    private boolean carriage;
+
+    NetasciiOutputStream(OutputStream out) {
+        super(out);
+    }
+
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // a pair never translates to more than two bytes, plus the byte following a held CR
+        if (translated.length < len + 2) {
+            translated = new byte[len + 2];
+        }
+
+        int count = 0;
+        for (int i = off; i < off + len; i++) {
+            byte c = b[i];
+            if (carriage) {
+                carriage = false;
+                if (c == LF) {
+                    for (byte s : separator) {
+                        translated[count++] = s;
+                    }
+
+                    continue;
+                }
+
+                // CR NUL stands for a bare CR, a CR followed by anything else is kept as is
+                translated[count++] = CR;
+                if (c == 0) {
+                    continue;
+                }
+            }
+
+            if (c == CR) {
+                carriage = true;
+            } else {
+                translated[count++] = c;
+            }
+        }
+
+        out.write(translated, 0, count);
+    }
+
+
+    /**
+     * Writes the CR held at the end of the transfer, if any.
+     */
+    void finish() throws IOException {
+        if (carriage) {
+            carriage = false;
+            out.write(CR);
+        }
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        super.close();
+    }
+}
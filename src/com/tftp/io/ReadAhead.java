@@ -0,0 +1,356 @@
+package com.tftp.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * ReadAhead fetches the upcoming blocks of the reads served from the disk in the background, so that the block sent
+ * on the next ACK is already in memory rather than read from the disk while the client waits for it.
+ *
+ * Every read has a small ring of buffers (see Stream), filled with the next chunks of its file by a few worker threads
+ * shared by all transfers, and drained by the transfer: a block fetched already is copied from the ring into its DATA
+ * packet, a block the transfer reached first is read from the file as it otherwise would. The depth of every ring
+ * follows the pace of its transfer: it covers the bytes the transfer sends (i.e. at the rate it is acknowledged)
+ * while the next chunk is fetched, up to a maximum depth, so that a slow client holds little ahead of it and a fast
+ * one much more.
+ *
+ * The buffers of the rings are drawn from a pool bounded across all transfers, and returned to it once a transfer is
+ * complete: once the pool is exhausted, the rings are left shorter (or empty) until other transfers complete.
+ *
+ * Methods operating on the pool and the counters are internally synchronized to guarantee thread-safety.
+ *
+ * @author Ahmed Sakr, Brian Zhang, Josh Campitelli, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 28th, 2017.
+ */
+public class ReadAhead {
+
+    // the size of the buffers of the rings, each filled by a single fetch (so that a fetch, and the wake-up of a
+    // worker, is shared by many blocks)
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    // the maximum amount of buffers of a ring, and of all rings
+    private int maxChunks, capacity;
+
+    // the buffers allocated, and those returned by the transfers complete
+    private int allocated;
+    private ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+    private long fetched, served, overtaken;
+    private ExecutorService workers;
+
+    /**
+     * @param maxDepth the maximum amount of bytes fetched ahead of every transfer, 0 to disable the read-ahead
+     * @param memory the maximum amount of bytes held by the rings of all transfers
+     * @param threads the amount of worker threads fetching the blocks
+     */
+    public ReadAhead(long maxDepth, long memory, int threads) {
+        maxChunks = (int) Math.min(Integer.MAX_VALUE, maxDepth / CHUNK_SIZE);
+        capacity = (int) Math.min(Integer.MAX_VALUE, memory / CHUNK_SIZE);
+
+        // a ring holds at least the chunk being read and the next one
+        if (maxChunks >= 2 && capacity >= 2) {
+            workers = Executors.newFixedThreadPool(Math.max(1, threads), task -> {
+                Thread worker = new Thread(task, "Read-Ahead");
+                worker.setDaemon(true);
+                return worker;
+            });
+        }
+    }
+
+
+    /**
+     * Starts a read-ahead over the given file, sequentially read from its start.
+     *
+     * @param channel the channel of the file being read, closed once the transfer is complete
+     * @param length the size of the file in bytes
+     *
+     * @return the read-ahead of the transfer, or null if the read-ahead is disabled.
+     */
+    public Stream open(FileChannel channel, long length) {
+        if (workers == null) {
+            return null;
+        }
+
+        Stream stream = new Stream(channel, length);
+        stream.schedule();
+
+        return stream;
+    }
+
+
+    /**
+     *
+     * @return the amount of bytes fetched ahead of the transfers.
+     */
+    public synchronized long getFetched() {
+        return fetched;
+    }
+
+
+    /**
+     *
+     * @return the amount of blocks copied from the rings by the transfers.
+     */
+    public synchronized long getServed() {
+        return served;
+    }
+
+
+    /**
+     *
+     * @return the amount of blocks read by the transfers before they had been fetched ahead of them.
+     */
+    public synchronized long getOvertaken() {
+        return overtaken;
+    }
+
+
+    //Takes a buffer from the pool, or allocates one within the capacity of the pool. null if the pool is exhausted
+    private synchronized ByteBuffer acquire() {
+        if (!free.isEmpty()) {
+            return free.pop();
+        }
+
+        if (allocated == capacity) {
+            return null;
+        }
+
+        allocated++;
+        return ByteBuffer.allocateDirect(CHUNK_SIZE);
+    }
+
+    //Returns the buffer of a ring to the pool
+    private synchronized void release(ByteBuffer buffer) {
+        free.push(buffer);
+    }
+
+    //Records the bytes fetched by a worker, or the blocks read by a transfer complete
+    private synchronized void record(long fetched, long served, long overtaken) {
+        this.fetched += fetched;
+        this.served += served;
+        this.overtaken += overtaken;
+    }
+
+
+    /**
+     * Reports the amount of bytes fetched ahead of the transfers, how often the transfers were served from their ring
+     * or ahead of the fetches, and the memory held by the rings.
+     *
+     * This method is THREAD-SAFE.
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format("Read-Ahead: Fetched: %d bytes, Served: %d blocks, Overtaken: %d blocks, Memory: %d of %d bytes",
+                fetched, served, overtaken, (long) (allocated - free.size()) * CHUNK_SIZE, (long) capacity * CHUNK_SIZE);
+    }
+
+
+    /**
+     * Stream is the read-ahead of a single transfer: a ring of buffers, the chunk i of the file (i.e. the bytes from
+     * i * CHUNK_SIZE) being fetched in the slot i modulo the size of the ring. It is read and advanced by the transfer
+     * after every block, and fetches the next chunks whenever less than half of its depth remains ahead of the
+     * transfer (checked once per chunk read). A single fetch is in progress at a time per transfer.
+     *
+     * A slot is published to the transfer once filled (see Slot.chunk), and is only filled again with a chunk at most
+     * a ring away from the chunk being read, so that the chunks the transfer is reading are never overwritten. The
+     * position and pace of the transfer are only written by the thread driving the transfer, the fetch in progress by
+     * the worker running it.
+     */
+    public class Stream {
+
+        private FileChannel channel;
+        private long length;
+        private Slot[] slots;
+
+        // the chunk being read by the transfer, the next chunk fetched, and the amount of chunks fetched ahead
+        private volatile long consumed, next;
+        private volatile int depth = 2;
+
+        // the moving averages (in nanoseconds) of the time between two blocks read by the transfer, and of a fetch
+        private long interval, last;
+        private volatile long latency;
+
+        private long served, overtaken;
+        private volatile boolean busy, closed;
+
+        private Stream(FileChannel channel, long length) {
+            this.channel = channel;
+            this.length = length;
+
+            long chunks = (length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            slots = new Slot[(int) Math.max(2, Math.min(maxChunks, chunks))];
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = new Slot();
+            }
+        }
+
+
+        /**
+         * Copies the block at the given position from the ring, if it has been fetched already.
+         *
+         * @param position the position of the block in the file
+         * @param destination the buffer to copy the block into, at its position
+         * @param length the size of the block
+         *
+         * @return the amount of bytes copied (less than the block size for the last block), or -1 if the block has not
+         *         been fetched yet.
+         */
+        public int read(long position, ByteBuffer destination, int length) {
+            int start = destination.position(), copied = 0;
+            while (copied < length && position + copied < this.length) {
+                long offset = position + copied, chunk = offset / CHUNK_SIZE;
+                Slot slot = slots[(int) (chunk % slots.length)];
+                if (slot.chunk != chunk) {
+                    overtaken++;
+                    return -1;
+                }
+
+                int from = (int) (offset - chunk * CHUNK_SIZE), count = Math.min(length - copied, slot.length - from);
+                if (count <= 0) {
+                    // the file is shorter than when the transfer started
+                    break;
+                }
+
+                destination.put(start + copied, slot.buffer, from, count);
+                copied += count;
+            }
+
+            served++;
+            destination.position(start + copied);
+
+            return copied;
+        }
+
+
+        /**
+         * Records a block read by the transfer, and fetches the next chunks if the read-ahead is running short once the
+         * transfer moves on to the next chunk.
+         *
+         * @param position the position of the transfer in the file, past the block read
+         * @param blockSize the amount of bytes per block of the transfer
+         */
+        public void advance(long position, int blockSize) {
+            if (closed) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            if (last != 0) {
+                interval = interval == 0 ? now - last : (7 * interval + now - last) / 8;
+            }
+
+            last = now;
+            long chunk = position / CHUNK_SIZE;
+            if (chunk == consumed) {
+                return;
+            }
+
+            consumed = chunk;
+
+            // deep enough to cover twice the bytes sent while the next chunk is fetched, the ACK rate setting the pace
+            if (interval != 0 && latency != 0) {
+                long bytes = 2 * latency / Math.max(1, interval) * blockSize;
+                depth = (int) Math.max(2, Math.min(slots.length, bytes / CHUNK_SIZE + 2));
+            }
+
+            if (next - consumed <= depth / 2) {
+                schedule();
+            }
+        }
+
+
+        /**
+         * Stops the read-ahead once the transfer is complete, abandoning the fetch in progress. The buffers of the ring
+         * are returned to the pool once the fetch in progress, if any, has stopped.
+         */
+        public void close() {
+            synchronized (this) {
+                closed = true;
+                if (!busy) {
+                    release();
+                }
+            }
+
+            record(0, served, overtaken);
+        }
+
+
+        //Starts a fetch, unless one is in progress or the file has been fetched completely
+        private void schedule() {
+            if (busy || next * CHUNK_SIZE >= length) {
+                return;
+            }
+
+            busy = true;
+            try {
+                workers.execute(this::fetch);
+            } catch (RejectedExecutionException ex) {
+                busy = false;
+            }
+        }
+
+        //Fills the slots of the next chunks, up to the depth of the ring ahead of the transfer, or until the pool of
+        //buffers is exhausted
+        private void fetch() {
+            try {
+                for (long chunk = Math.max(next, consumed); !closed && chunk < consumed + depth
+                        && chunk * CHUNK_SIZE < length; chunk = Math.max(next, consumed)) {
+                    Slot slot = slots[(int) (chunk % slots.length)];
+                    if (slot.buffer == null && (slot.buffer = acquire()) == null) {
+                        break;
+                    }
+
+                    long start = System.nanoTime();
+                    ByteBuffer buffer = slot.buffer.clear();
+                    int count;
+                    do {
+                        count = channel.read(buffer, chunk * CHUNK_SIZE + buffer.position());
+                    } while (count > 0 && buffer.hasRemaining());
+
+                    latency = latency == 0 ? System.nanoTime() - start : (3 * latency + System.nanoTime() - start) / 4;
+                    slot.length = buffer.position();
+                    slot.chunk = chunk;
+                    next = chunk + 1;
+                    record(slot.length, 0, 0);
+                }
+            } catch (IOException ex) {
+                // the channel is closed once the last block has been read, there is nothing left to fetch
+            } finally {
+                synchronized (this) {
+                    busy = false;
+                    if (closed) {
+                        release();
+                    }
+                }
+            }
+        }
+
+        //Returns the buffers of the ring to the pool, the caller must hold the lock
+        private void release() {
+            for (Slot slot : slots) {
+                if (slot.buffer != null) {
+                    slot.chunk = -1;
+                    ReadAhead.this.release(slot.buffer);
+                    slot.buffer = null;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Slot is a buffer of a ring, holding a chunk of the file once fetched. The buffer and the length of the chunk are
+     * written before the chunk number, and read after it.
+     */
+    private static class Slot {
+
+        private ByteBuffer buffer;
+        private int length;
+        private volatile long chunk = -1;
+    }
+}
@@ -1,27 +1,68 @@
 package com.tftp.io;
 
+import com.tftp.TFTPConfig;
+
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * TransferController controls and limits the operations on all transfers happening on the server.
- * Very critical in applying locks to files.
+ * Very critical in applying locks to files. It also holds the content cache shared by all reads (see ContentCache),
+ * the read-ahead fetching the files read from the disk (see ReadAhead) and the write-behind writing the files
+ * received (see WriteBehind).
  *
- * Methods operating on the data structure must be internally synchronized to guarantee thread-safety.
+ * The transfers are indexed by file name, so that checking the lock of a file does not go through every transfer of
+ * the server. Methods operating on the data structure must be internally synchronized to guarantee thread-safety.
  *
  * @author Ahmed Sakr, Brian Zhang, Josh Campitelli, Ahmed Khattab, Dario Luzuriaga
  * @since May the 28th, 2017.
  */
 public class TransferController {
 
-    private ArrayList<FileTransfer> transfers;
+    private HashMap<String, ArrayList<FileTransfer>> transfers;
+    private ContentCache cache;
+    private ReadAhead readAhead;
+    private WriteBehind writeBehind;
 
     public TransferController() {
-        transfers = new ArrayList<>();
+        transfers = new HashMap<>();
+        cache = new ContentCache(TFTPConfig.CONTENT_CACHE_SIZE, TFTPConfig.CONTENT_CACHE_MAX_FILE, TFTPConfig.CONTENT_CACHE_DIRECT);
+        readAhead = new ReadAhead(TFTPConfig.READ_AHEAD_DEPTH, TFTPConfig.READ_AHEAD_MEMORY, TFTPConfig.READ_AHEAD_THREADS);
+        writeBehind = new WriteBehind(TFTPConfig.WRITE_BEHIND_BUFFER, TFTPConfig.WRITE_BEHIND_BUFFERS,
+                TFTPConfig.WRITE_BEHIND_MEMORY, TFTPConfig.WRITE_SYNC, TFTPConfig.WRITE_SYNC_INTERVAL,
+                TFTPConfig.WRITE_BEHIND_THREADS);
+    }
+
+
+    /**
+     *
+     * @return the content cache shared by all reads of the server.
+     */
+    public ContentCache getContentCache() {
+        return cache;
     }
 
 
     /**
-     * Determines if the file provided is currently locked by polling the transfers collection.
+     *
+     * @return the read-ahead shared by all reads of the server.
+     */
+    public ReadAhead getReadAhead() {
+        return readAhead;
+    }
+
+
+    /**
+     *
+     * @return the write-behind shared by all writes of the server.
+     */
+    public WriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
+
+    /**
+     * Determines if the file provided is currently locked by polling the transfers of the file.
      *
      * This method is THREAD-SAFE.
      *
@@ -30,9 +71,12 @@ public class TransferController {
      * @return the file's lock status
      */
     public synchronized boolean isFileLocked(String file) {
-        for (FileTransfer ft : transfers) {
-            if (ft.getFileName().equalsIgnoreCase(file) && ft.hasFileLock()) {
-                return true;
+        ArrayList<FileTransfer> named = transfers.get(key(file));
+        if (named != null) {
+            for (FileTransfer ft : named) {
+                if (ft.hasFileLock()) {
+                    return true;
+                }
             }
         }
 
@@ -48,7 +92,7 @@ public class TransferController {
      * @param transfer The FileTransfer object to be registered
      */
     public synchronized void registerTransfer(FileTransfer transfer) {
-        transfers.add(transfer);
+        transfers.computeIfAbsent(key(transfer.getFileName()), name -> new ArrayList<>()).add(transfer);
     }
 
 
@@ -60,6 +104,16 @@ public class TransferController {
      * @param transfer The FileTransfer object to be deregistered
      */
     public synchronized void deregisterTransfer(FileTransfer transfer) {
-        transfers.remove(transfer);
+        String key = key(transfer.getFileName());
+        ArrayList<FileTransfer> named = transfers.get(key);
+        if (named != null && named.remove(transfer) && named.isEmpty()) {
+            transfers.remove(key);
+        }
+    }
+
+
+    //The files are locked regardless of the case of their name
+    private static String key(String file) {
+        return file.toLowerCase();
     }
 }
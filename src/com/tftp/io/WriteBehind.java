@@ -0,0 +1,680 @@
+package com.tftp.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * WriteBehind writes the files received by the server in the background, so that a DATA packet is acknowledged as
+ * soon as its block has been queued rather than once it has been written to the disk.
+ *
+ * The blocks of every write (see Stream) are coalesced in large buffers, written sequentially by a few writer threads
+ * shared by all transfers: a file is written in a write per buffer, rather than in a write per block. The transfer
+ * only waits for the writers when all of its buffers are queued (i.e. the disk is slower than the client), and once
+ * its last block has been received: the file is completely written (and synced, if required) before the last block
+ * is acknowledged, so that a failure to write the file is still reported to the client.
+ *
+ * A transfer driven by an EventLoop never waits for the writers (see Stream.setReady()): it checks that a block may be
+ * written without waiting before writing it, and has its last block written and synced in the background, the
+ * writers waking it up once it may go on.
+ *
+ * The buffers are drawn from a pool shared by all transfers, bounded by the memory given to the write-behind, every
+ * transfer holding a few of them at most: once the pool is exhausted, the transfers short of a buffer wait for one in
+ * turn (first come, first served), the others handing their buffers back to the pool once written rather than
+ * filling them again.
+ *
+ * The durability policy sets when the data written is synced to the disk: NEVER (left to the operating system), at
+ * the END of the transfer, or PERIODICally, every given amount of bytes written, and at the end of the transfer.
+ *
+ * Methods operating on the pool and the counters are internally synchronized to guarantee thread-safety.
+ *
+ * @author Ahmed Sakr, Brian Zhang, Josh Campitelli, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 28th, 2017.
+ */
+public class WriteBehind {
+
+    // the data written is never explicitly synced
+    public static final int NEVER = 1;
+
+    // the file is synced once completely written
+    public static final int END = 2;
+
+    // the file is synced every TFTPConfig.WRITE_SYNC_INTERVAL bytes written, and once completely written
+    public static final int PERIODIC = 3;
+
+    private int bufferSize, buffers, policy;
+    private long syncInterval;
+
+    // the maximum amount of buffers of all transfers, those allocated, and those returned by the transfers complete
+    private int capacity, allocated;
+    private ArrayDeque<ByteBuffer> spare = new ArrayDeque<>();
+
+    // the transfers waiting for a buffer to be returned to the pool, in turn
+    private ArrayDeque<Stream> starved = new ArrayDeque<>();
+
+    private long written, writes, syncs, stalls, failures;
+    private ExecutorService writers;
+
+    /**
+     * @param bufferSize the size (in bytes) of the buffers the blocks are coalesced in, 0 to disable the write-behind
+     * @param buffers the maximum amount of buffers of every transfer, filled or queued for the writers
+     * @param memory the maximum amount of bytes held by the buffers of all transfers
+     * @param policy when the data written is synced to the disk (i.e. NEVER, END or PERIODIC)
+     * @param syncInterval the amount of bytes written between two syncs, when syncing periodically
+     * @param threads the amount of writer threads
+     */
+    public WriteBehind(int bufferSize, int buffers, long memory, int policy, long syncInterval, int threads) {
+        this.bufferSize = bufferSize;
+        this.buffers = Math.max(2, buffers);
+        this.capacity = bufferSize > 0 ? (int) Math.min(Integer.MAX_VALUE, memory / bufferSize) : 0;
+        this.policy = policy;
+        this.syncInterval = Math.max(bufferSize, syncInterval);
+
+        if (bufferSize > 0 && capacity > 0) {
+            writers = Executors.newFixedThreadPool(Math.max(1, threads), task -> {
+                Thread writer = new Thread(task, "Write-Behind");
+                writer.setDaemon(true);
+                return writer;
+            });
+        }
+    }
+
+
+    /**
+     * Starts writing a file in the background, from the current position of its channel.
+     *
+     * @param channel the channel of the file being written, closed along with the write-behind
+     *
+     * @return the write-behind of the transfer, or null if the write-behind is disabled.
+     */
+    public Stream open(FileChannel channel) {
+        if (writers == null) {
+            return null;
+        }
+
+        return new Stream(channel);
+    }
+
+
+    /**
+     *
+     * @return the amount of bytes written by the writers.
+     */
+    public synchronized long getWritten() {
+        return written;
+    }
+
+
+    /**
+     *
+     * @return the amount of writes (i.e. system calls) the bytes have been written in.
+     */
+    public synchronized long getWrites() {
+        return writes;
+    }
+
+
+    //Takes a buffer from the pool, or allocates one within the capacity of the pool. null if the pool is exhausted or
+    //other streams are waiting for a buffer before this one, the stream then waits for its turn
+    private synchronized ByteBuffer acquire(Stream stream) {
+        if ((spare.isEmpty() && allocated == capacity) || (!starved.isEmpty() && starved.peek() != stream)) {
+            if (!stream.starving) {
+                stream.starving = true;
+                starved.add(stream);
+            }
+
+            return null;
+        }
+
+        if (stream.starving) {
+            stream.starving = false;
+            starved.poll();
+        }
+
+        if (!spare.isEmpty()) {
+            return spare.pop();
+        }
+
+        allocated++;
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    //Checks if streams are waiting for a buffer to be returned to the pool
+    private synchronized boolean isStarved() {
+        return !starved.isEmpty();
+    }
+
+    //Returns the buffers of a stream to the pool, takes the stream out of the streams waiting for a buffer if it no
+    //longer needs one, and wakes up the streams whose turn it is
+    private void release(ArrayDeque<ByteBuffer> returned, Stream leaving) {
+        Stream[] turn;
+        synchronized (this) {
+            while (!returned.isEmpty()) {
+                spare.push(returned.pop().clear());
+            }
+
+            if (leaving != null && leaving.starving) {
+                leaving.starving = false;
+                starved.remove(leaving);
+            }
+
+            turn = new Stream[Math.min(starved.size(), spare.size() + capacity - allocated)];
+            int i = 0;
+            for (Stream stream : starved) {
+                if (i == turn.length) {
+                    break;
+                }
+
+                turn[i++] = stream;
+            }
+        }
+
+        for (Stream stream : turn) {
+            stream.wake();
+        }
+    }
+
+    //Records a buffer written by a writer (if any bytes were written), and whether the file has been synced since
+    private synchronized void record(long bytes, boolean synced) {
+        if (bytes > 0) {
+            written += bytes;
+            writes++;
+        }
+
+        if (synced) {
+            syncs++;
+        }
+    }
+
+    //Records a transfer waiting for its buffers to be written, or failing to be written
+    private synchronized void record(boolean stalled, boolean failed) {
+        if (stalled) {
+            stalls++;
+        }
+
+        if (failed) {
+            failures++;
+        }
+    }
+
+
+    /**
+     * Reports the amount of bytes and writes of the writers, how often the transfers had to wait for them, and the
+     * memory held by the buffers.
+     *
+     * This method is THREAD-SAFE.
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format("Write-Behind: Written: %d bytes in %d writes, Syncs: %d, Stalls: %d, Failures: %d, " +
+                "Memory: %d of %d bytes", written, writes, syncs, stalls, failures,
+                (long) (allocated - spare.size()) * bufferSize, (long) capacity * bufferSize);
+    }
+
+
+    /**
+     * Stream is the write-behind of a single transfer, written to by the transfer as an OutputStream. The buffer being
+     * filled is only accessed by the thread driving the transfer, the queued buffers are handed over to the writers
+     * under the lock of the stream: a single writer drains the queue of a stream at a time, in order.
+     *
+     * A failure of the writers is thrown by the next write, or by the flush of the stream. The buffers of the stream
+     * are returned to the pool once it is closed.
+     */
+    public class Stream extends OutputStream {
+
+        private FileChannel channel;
+
+        // the buffer being filled by the transfer
+        private ByteBuffer current;
+
+        // the buffers waiting for a writer, and those written already (or taken from the pool), to be filled again
+        private ArrayDeque<ByteBuffer> queued = new ArrayDeque<>(), free = new ArrayDeque<>();
+        private int allocated;
+        private long unsynced;
+
+        // whether the stream is waiting for its turn to take a buffer from the pool, guarded by the lock of the pool
+        private volatile boolean starving;
+
+        private boolean draining, finishing, waiting, closed;
+        private IOException failure;
+
+        // the task waking the transfer up once it may go on, if it may not wait for the writers
+        private Runnable ready;
+
+        private Stream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+
+        /**
+         * Makes the transfer never wait for the writers: it must check that every write may be made without waiting
+         * (see isReady()), and end with finish() rather than flush(). The task is run from a writer thread once a
+         * write the stream was not ready for may be made, or once finish() is complete.
+         *
+         * @param ready the task waking the transfer up
+         */
+        public synchronized void setReady(Runnable ready) {
+            this.ready = ready;
+        }
+
+
+        /**
+         * Checks if the given amount of bytes may be written without waiting for the writers, taking the buffers
+         * needed from the pool. If not, the task given to setReady() is run once they may.
+         *
+         * @param length the amount of bytes to be written
+         *
+         * @return true if the bytes may be written without waiting (or if the write would throw a failure).
+         */
+        public boolean isReady(int length) {
+            if (!reserve(length)) {
+                return false;
+            }
+
+            // the stream no longer waits for a buffer of the pool, the next stream takes its turn
+            if (starving) {
+                release(new ArrayDeque<>(0), this);
+            }
+
+            return true;
+        }
+
+
+        @Override
+        public void write(int b) throws IOException {
+            if (current == null || !current.hasRemaining()) {
+                next();
+            }
+
+            current.put((byte) b);
+        }
+
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (current == null || !current.hasRemaining()) {
+                    next();
+                }
+
+                int count = Math.min(len, current.remaining());
+                current.put(b, off, count);
+                off += count;
+                len -= count;
+            }
+        }
+
+
+        /**
+         * Writes the data queued, waiting for the writers to complete, and syncs the file unless the policy is NEVER.
+         *
+         * @throws IOException if the data could not be written
+         */
+        @Override
+        public void flush() throws IOException {
+            if (current != null && current.position() > 0) {
+                submit(current);
+                current = null;
+            }
+
+            synchronized (this) {
+                while (draining && failure == null) {
+                    await();
+                }
+
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+
+            if (policy != NEVER && unsynced > 0) {
+                channel.force(false);
+                unsynced = 0;
+                record(0, true);
+            }
+        }
+
+
+        /**
+         * Writes the data queued and syncs the file (unless the policy is NEVER) in the background, then runs the task
+         * given to setReady(). The stream may then be closed without waiting, its close() or flush() throwing the
+         * failure to write the file, if any.
+         *
+         * @throws IOException if the data queued already could not be written
+         */
+        public void finish() throws IOException {
+            if (current != null && current.position() > 0) {
+                submit(current);
+                current = null;
+            }
+
+            synchronized (this) {
+                finishing = true;
+                if (!draining) {
+                    start();
+                }
+            }
+        }
+
+
+        /**
+         *
+         * @return true once the data queued has been written (and synced) by finish().
+         */
+        public synchronized boolean isFinished() {
+            return !finishing && !draining;
+        }
+
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+                ArrayDeque<ByteBuffer> returned;
+                synchronized (this) {
+                    closed = true;
+                    returned = take();
+                }
+
+                release(returned, this);
+            }
+        }
+
+
+        /**
+         * Closes the stream without waiting for the writers: the data queued is written (and synced, unless the policy
+         * is NEVER) in the background, then the file is closed. A failure to write it is only recorded.
+         */
+        public void closeLater() {
+            try {
+                synchronized (this) {
+                    ready = this::closeQuietly;
+                }
+
+                finish();
+            } catch (IOException ex) {
+                closeQuietly();
+            }
+        }
+
+
+        //Closes the stream, the failure to write it having been recorded already
+        private void closeQuietly() {
+            try {
+                close();
+            } catch (IOException ex) {
+                // recorded by the writer that failed
+            }
+        }
+
+        //Takes the buffers needed for the given amount of bytes from the pool, or hands the buffer being filled over to
+        //the writers and waits to be woken up if there are not enough
+        private synchronized boolean reserve(int length) {
+            long room = (current == null ? 0 : current.remaining()) + (long) free.size() * bufferSize;
+            ByteBuffer buffer;
+            while (room < length && allocated < buffers && (buffer = acquire(this)) != null) {
+                allocated++;
+                free.add(buffer);
+                room += bufferSize;
+            }
+
+            if (room >= length || failure != null) {
+                return true;
+            }
+
+            // the buffer being filled is written as is, so that the stream has a buffer of its own once it has been
+            if (current != null && current.position() > 0) {
+                try {
+                    submit(current);
+                    current = null;
+                } catch (IOException ex) {
+                    // thrown again by the write
+                    return true;
+                }
+            }
+
+            waiting = true;
+            record(true, false);
+
+            return false;
+        }
+
+        //Hands the full buffer over to the writers, and takes the next one to be filled: a buffer written already, or
+        //one of the pool while the stream holds less than its share
+        private void next() throws IOException {
+            if (current != null) {
+                submit(current);
+                current = null;
+            }
+
+            synchronized (this) {
+                boolean stalled = false;
+                while (failure == null && free.isEmpty()) {
+                    ByteBuffer buffer;
+                    if (allocated < buffers && (buffer = acquire(this)) != null) {
+                        allocated++;
+                        free.add(buffer);
+                        break;
+                    }
+
+                    if (!stalled) {
+                        stalled = true;
+                        record(true, false);
+                    }
+
+                    await();
+                }
+
+                if (failure != null) {
+                    throw failure;
+                }
+
+                current = free.poll();
+            }
+
+            // a buffer of the stream was written before its turn came, the next stream takes the turn
+            if (starving) {
+                release(new ArrayDeque<>(0), this);
+            }
+        }
+
+        //Queues the buffer, and starts a writer on the stream unless one is draining it already
+        private synchronized void submit(ByteBuffer buffer) throws IOException {
+            if (failure != null) {
+                free.add(buffer.clear());
+                if (buffer == current) {
+                    current = null;
+                }
+
+                throw failure;
+            }
+
+            buffer.flip();
+            queued.add(buffer);
+            if (!draining) {
+                start();
+            }
+        }
+
+        //Starts a writer on the stream, the caller must hold the lock
+        private void start() throws IOException {
+            draining = true;
+            try {
+                writers.execute(this::drain);
+            } catch (RejectedExecutionException ex) {
+                draining = false;
+                throw new IOException("The write-behind is shut down", ex);
+            }
+        }
+
+        //Writes the queued buffers in order, until the queue is empty or a write fails, then completes finish() if
+        //requested
+        private void drain() {
+            while (true) {
+                ByteBuffer buffer;
+                synchronized (this) {
+                    buffer = queued.poll();
+                    if (buffer == null && !finishing) {
+                        draining = false;
+                        notifyAll();
+                        return;
+                    }
+                }
+
+                if (buffer == null) {
+                    complete();
+                    return;
+                }
+
+                try {
+                    long length = buffer.remaining();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+
+                    unsynced += length;
+                    boolean synced = policy == PERIODIC && unsynced >= syncInterval;
+                    if (synced) {
+                        channel.force(false);
+                        unsynced = 0;
+                    }
+
+                    record(length, synced);
+                } catch (IOException ex) {
+                    fail(buffer, ex);
+                    return;
+                }
+
+                // the buffer goes back to the pool rather than to the stream while other streams wait for one, the
+                // stream then waiting for its turn as well if it is
+                Runnable task = null;
+                ArrayDeque<ByteBuffer> returned = null;
+                boolean shared = isStarved();
+                synchronized (this) {
+                    if (shared) {
+                        allocated--;
+                        returned = new ArrayDeque<>(1);
+                        returned.add(buffer);
+                    } else {
+                        free.add(buffer.clear());
+                    }
+
+                    notifyAll();
+                    if (waiting) {
+                        waiting = false;
+                        task = ready;
+                    }
+                }
+
+                if (returned != null) {
+                    release(returned, null);
+                }
+
+                if (task != null) {
+                    task.run();
+                }
+            }
+        }
+
+        //Syncs the file once its data has been written for finish(), and wakes the transfer up
+        private void complete() {
+            IOException failed = null;
+            try {
+                if (policy != NEVER && unsynced > 0) {
+                    channel.force(false);
+                    unsynced = 0;
+                    record(0, true);
+                }
+            } catch (IOException ex) {
+                failed = ex;
+                record(false, true);
+            }
+
+            Runnable task;
+            synchronized (this) {
+                if (failure == null) {
+                    failure = failed;
+                }
+
+                finishing = false;
+                draining = false;
+                notifyAll();
+                task = ready;
+            }
+
+            if (task != null) {
+                task.run();
+            }
+        }
+
+        //Records the failure of a writer, and wakes the transfer up to have it thrown
+        private void fail(ByteBuffer buffer, IOException ex) {
+            Runnable task;
+            synchronized (this) {
+                failure = ex;
+                free.add(buffer.clear());
+                while (!queued.isEmpty()) {
+                    free.add(queued.poll().clear());
+                }
+
+                finishing = false;
+                draining = false;
+                notifyAll();
+                task = ready;
+                waiting = false;
+            }
+
+            record(false, true);
+            if (task != null) {
+                task.run();
+            }
+        }
+
+        //Takes the buffers of the stream back from it once closed, the caller must hold the lock
+        private ArrayDeque<ByteBuffer> take() {
+            ArrayDeque<ByteBuffer> returned = new ArrayDeque<>(free);
+            if (current != null) {
+                returned.add(current);
+                current = null;
+            }
+
+            free.clear();
+            allocated = 0;
+
+            return returned;
+        }
+
+        //Wakes the stream up once a buffer has been returned to the pool
+        private void wake() {
+            Runnable task = null;
+            synchronized (this) {
+                notifyAll();
+                if (waiting && !closed) {
+                    waiting = false;
+                    task = ready;
+                }
+            }
+
+            if (task != null) {
+                task.run();
+            }
+        }
+
+        //Waits for a writer to complete a buffer, the caller must hold the lock
+        private void await() throws IOException {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the write-behind", ex);
+            }
+        }
+    }
+}
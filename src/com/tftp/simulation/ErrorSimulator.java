@@ -5,11 +5,14 @@ import java.net.InetAddress;
 import java.util.LinkedList;
 import java.util.Scanner;
 import java.io.IOException;
+
+import com.tftp.TFTPConfig;
 import com.tftp.core.Socket;
 import com.tftp.core.protocol.Packet.PacketTypes;
 import com.tftp.simulation.modifications.NetworkModification;
 import com.tftp.simulation.modifications.PacketModification;
 import com.tftp.workers.SimulatorListener;
+import com.tftp.workers.TaskExecutor;
 
 /**
  * ErrorSimulator aids in testing the rigidty and robustness of the transfer protocol implemented between
@@ -136,20 +139,21 @@ public class ErrorSimulator extends Socket {
 
     /**
      * Runs the simulation cycle for the ErrorSimulator. Once a packet is received, it is processed and a
-     * MutableSession is created for that specific client.
+     * MutableSession is created for that specific client. Never returns, unless the socket fails.
      *
      * @throws IOException
      */
-    private void simulate() throws IOException, InterruptedException {
+    public void simulate() throws IOException, InterruptedException {
         System.out.printf("ErrorSimulator has successfully launched its operations.\n\n");
         int sessions = 0;
+        TaskExecutor executor = TaskExecutor.create(TFTPConfig.TASK_EXECUTOR);
 
         while (true) {
             DatagramPacket client = receive();
             inform(client, "Received Packet");
 
             MutableSession session = new MutableSession(this, client, client.getPort());
-            new Thread(session, "Session" + sessions++).start();
+            executor.execute(session, "Session" + sessions++);
         }
     }
 
@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.net.SocketTimeoutException;
 
 import com.tftp.core.Socket;
+import com.tftp.core.protocol.PacketClassifier;
 import com.tftp.core.protocol.Packet.PacketTypes;
 import com.tftp.core.protocol.TFTPError;
 import com.tftp.simulation.modifications.NetworkModification;
@@ -257,6 +258,9 @@ public class MutableSession extends Socket implements Runnable {
                 break;
         }
 
+        // the packet has been modified in place, and must be classified again
+        PacketClassifier.invalidate(packet);
+
         packet = simulator.produceFrom(packet, dest, address);
         inform(packet, "Sending Packet", true);
         send(packet);
@@ -0,0 +1,161 @@
+package com.tftp.test;
+
+import com.tftp.Client;
+import com.tftp.Server;
+import com.tftp.TFTPConfig;
+import com.tftp.io.FileTransfer;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.function.BooleanSupplier;
+
+/**
+ * AllocationCheck measures the bytes allocated per block by a steady transfer, on the server (Connection or
+ * ChannelConnection) and on the Client, for both a read and a write. The Client runs in a process of its own, with a
+ * directory of its own, and each process counts the bytes allocated by its threads while the file being written
+ * grows from a quarter to three quarters of its size (i.e. past the setup of the transfer and before its end).
+ *
+ * Usage: AllocationCheck [file size=20000000] [block size=512] [window size=1] [engine (1 or 2, both if omitted)]
+ *
+ * The threads of a process are counted as a whole (e.g. the listener and timer threads of the server along with the
+ * thread of the transfer), and the count needs a JVM reporting the allocations of its threads (i.e. HotSpot). Exits
+ * with 1 if a transfer did not complete, or if the selector engine allocated an object per block (i.e. at least
+ * MIN_OBJECT bytes per block on average). The threaded engine and the Client are only reported: DatagramSocket.send
+ * builds the address of every packet sent, 40 bytes on a 64-bit JVM.
+ *
+ * @author Ahmed Sakr
+ * @since June the 12th, 2017
+ */
+public class AllocationCheck {
+
+    // the size of the smallest object of a 64-bit JVM (i.e. a header without fields), in bytes
+    private static final double MIN_OBJECT = 16;
+
+    public static void main(String[] args) throws Exception {
+        long size = Loopback.arg(args, 0, 20_000_000);
+        int blockSize = (int) Loopback.arg(args, 1, 512);
+        int windowSize = (int) Loopback.arg(args, 2, 1);
+
+        if (args.length < 4) {
+            int status = 0;
+            for (int engine : new int[] {Server.THREADED, Server.SELECTOR}) {
+                status |= Loopback.fork(AllocationCheck.class, size, blockSize, windowSize, engine).waitFor();
+            }
+
+            System.exit(status);
+        } else if (args.length > 4) {
+            client(args, size, blockSize, windowSize);
+        }
+
+        int engine = (int) Loopback.arg(args, 3, Server.SELECTOR);
+        File directory = Loopback.directory("allocation");
+        Loopback.file(directory, "down.bin", size);
+        new File(directory, "up.bin").deleteOnExit();
+
+        File local = Files.createTempDirectory("allocation").toFile();
+        local.deleteOnExit();
+        Loopback.file(local, "up.bin", size);
+        new File(local, "down.bin").deleteOnExit();
+
+        TFTPConfig.SERVER_ENGINE = engine;
+        Server server = Loopback.launch();
+
+        int status = 0;
+        for (String request : new String[] {"r", "w"}) {
+            File written = request.equals("r") ? new File(local, "down.bin") : new File(directory, "up.bin");
+            Process client = Loopback.fork(AllocationCheck.class, size, blockSize, windowSize, engine, request,
+                    local.getPath(), directory.getPath());
+
+            double allocated = allocated(written, size, blockSize, client::isAlive);
+            status |= client.waitFor();
+            if (engine == Server.SELECTOR && !(allocated < MIN_OBJECT)) {
+                status = 1;
+            }
+
+            Loopback.out.printf("Engine %d, server %s: %.1f bytes per block\n", engine,
+                    request.equals("r") ? "read" : "write", allocated);
+        }
+
+        server.shutdown();
+        System.exit(status);
+    }
+
+    //Runs a single transfer of the Client on this thread, counting the allocations of this process from another one
+    private static void client(String[] args, long size, int blockSize, int windowSize) throws Exception {
+        String request = args[4];
+        File written = new File(request.equals("r") ? args[5] : args[6], request.equals("r") ? "down.bin" : "up.bin");
+
+        TFTPConfig.CLIENT_BLOCK_SIZE_OPTION = blockSize == FileTransfer.BLOCK_SIZE ? 0 : blockSize;
+        TFTPConfig.CLIENT_WINDOW_SIZE_OPTION = windowSize == 1 ? 0 : windowSize;
+        FileTransfer.setStartingDirectory(args[5], false);
+        PrintStream out = Loopback.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        Thread transfer = Thread.currentThread();
+        double[] allocated = {Double.NaN};
+        Thread sampler = new Thread(() -> allocated[0] = allocated(written, size, blockSize, transfer::isAlive));
+        sampler.setDaemon(true);
+        sampler.start();
+
+        new Client().transfer(written.getName().getBytes(), FileTransfer.OCTET.getBytes(),
+                InetAddress.getLocalHost().getHostAddress(), request);
+        sampler.join();
+
+        boolean complete = written.length() == size;
+        out.printf("Engine %s, client %s: %.1f bytes per block%s\n", args[3], request.equals("r") ? "read" : "write",
+                allocated[0], complete ? "" : " (INCOMPLETE)");
+        System.exit(complete ? 0 : 1);
+    }
+
+    //The bytes allocated per block by the threads of this process (less the calling one), while the file written by
+    //the transfer grows from a quarter to three quarters of its size. NaN if the transfer ended before
+    private static double allocated(File written, long size, int blockSize, BooleanSupplier running) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        HashMap<Long, Long> start = null;
+        long from = 0;
+
+        while (running.getAsBoolean()) {
+            long length = written.length();
+            if (start == null && length >= size / 4) {
+                start = allocations(threads);
+                from = length;
+            } else if (start != null && length >= size * 3 / 4) {
+                HashMap<Long, Long> end = allocations(threads);
+                long bytes = 0;
+                for (Long id : end.keySet()) {
+                    bytes += end.get(id) - start.getOrDefault(id, 0L);
+                }
+
+                return (double) bytes / ((length - from) / blockSize);
+            }
+
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                return Double.NaN;
+            }
+        }
+
+        return Double.NaN;
+    }
+
+    //The bytes allocated so far by every live thread, less the calling one
+    private static HashMap<Long, Long> allocations(com.sun.management.ThreadMXBean threads) {
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+
+        HashMap<Long, Long> allocations = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] != Thread.currentThread().getId() && bytes[i] >= 0) {
+                allocations.put(ids[i], bytes[i]);
+            }
+        }
+
+        return allocations;
+    }
+}
@@ -0,0 +1,62 @@
+package com.tftp.test;
+
+import com.tftp.TFTPConfig;
+import com.tftp.io.FileTransfer;
+
+import java.io.File;
+
+/**
+ * BackendBench compares the read backends of FileTransfer (see TFTPConfig.FILE_READ_BACKEND) across file sizes: the
+ * blocks are read sequentially from the stream, by position through the channel, or copied from a memory mapping of
+ * the file, into the DATA packet sent for every block (see Loopback.read()).
+ *
+ * Usage: BackendBench [rounds=5] [largest file size=268435456]
+ *
+ * Every file is mapped regardless of its size (i.e. TFTPConfig.FILE_MAP_THRESHOLD is 0). The files are read warm,
+ * small ones over and over so that every round reads at least 32 MB, and the best of the rounds is reported.
+ *
+ * @author Ahmed Sakr
+ * @since June the 12th, 2017
+ */
+public class BackendBench {
+
+    // the least amount of bytes read per round
+    private static final long ROUND = 32 * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int rounds = (int) Loopback.arg(args, 0, 5);
+        long largest = Loopback.arg(args, 1, 256 * 1024 * 1024);
+
+        File directory = Loopback.directory("backend");
+        TFTPConfig.FILE_MAP_THRESHOLD = 0;
+
+        for (int blockSize : new int[] {512, 8192}) {
+            for (long size = 64 * 1024; size <= largest; size *= 16) {
+                String name = "backend." + size;
+                if (!new File(directory, name).exists()) {
+                    Loopback.file(directory, name, size);
+                }
+
+                StringBuilder line = new StringBuilder(String.format("blksize %4d, %9d bytes:", blockSize, size));
+                for (int backend : new int[] {FileTransfer.STREAM, FileTransfer.CHANNEL, FileTransfer.MAPPED}) {
+                    TFTPConfig.FILE_READ_BACKEND = backend;
+                    long reads = Math.max(1, ROUND / size);
+                    double best = 0;
+                    for (int round = 0; round < rounds; round++) {
+                        long start = System.nanoTime();
+                        for (long i = 0; i < reads; i++) {
+                            Loopback.read(name, blockSize, false);
+                        }
+
+                        best = Math.max(best, reads * size / 1e3 / ((System.nanoTime() - start) / 1e6));
+                    }
+
+                    line.append(String.format("  %s %6.0f MB/s", backend == FileTransfer.STREAM ? "stream" :
+                            backend == FileTransfer.CHANNEL ? "channel" : "mapped", best));
+                }
+
+                Loopback.out.println(line);
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.tftp.test;
+
+import com.tftp.Server;
+import com.tftp.TFTPConfig;
+import com.tftp.io.ContentCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * BootStormBench reads the same boot image over and over through the server, as the machines of a rack booting one
+ * after another, once with the content cache of the server (see TFTPConfig.CONTENT_CACHE_SIZE) and once without it,
+ * and reports the reads the server made from its files (i.e. the read system calls and bytes of /proc/self/io) along
+ * with the time the boots took.
+ *
+ * Usage: BootStormBench [boots=20] [image size=8388608] [block size=1428] [engine (1 or 2)=2]
+ *
+ * A read of a file being read is refused, so the boots are successive (concurrent boots go through multicast
+ * groups). The selector engine does not wait for a file missing from the cache: the first boot is read from the disk
+ * while the image is loaded in the background. The reads are not reported on platforms without /proc.
+ *
+ * @author Ahmed Sakr
+ * @since June the 12th, 2017
+ */
+public class BootStormBench {
+
+    public static void main(String[] args) throws Exception {
+        int boots = (int) Loopback.arg(args, 0, 20);
+        long size = Loopback.arg(args, 1, 8 * 1024 * 1024);
+        int blockSize = (int) Loopback.arg(args, 2, 1428);
+        int engine = (int) Loopback.arg(args, 3, Server.SELECTOR);
+
+        if (args.length < 5) {
+            int status = 0;
+            for (long cache : new long[] {0, TFTPConfig.CONTENT_CACHE_SIZE}) {
+                status |= Loopback.fork(BootStormBench.class, boots, size, blockSize, engine, cache).waitFor();
+            }
+
+            System.exit(status);
+        }
+
+        TFTPConfig.SERVER_ENGINE = engine;
+        TFTPConfig.CONTENT_CACHE_SIZE = Loopback.arg(args, 4, 0);
+        File directory = Loopback.directory("boot");
+        Loopback.file(directory, "boot.img", size);
+        Server server = Loopback.launch();
+
+        long[] before = io();
+        int completed = 0;
+        double elapsed = 0;
+        for (int boot = 0; boot < boots; boot++) {
+            ReadClients client = new ReadClients(ReadClients.local(TFTPConfig.SERVER_PORT), "boot.img");
+            client.setBlockSize(blockSize);
+            client.run(1, 1);
+
+            completed += client.getCompleted();
+            elapsed += client.getElapsed();
+        }
+
+        long[] after = io();
+        ContentCache cache = server.getTransferController().getContentCache();
+        Loopback.out.printf("Cache %s: %d of %d boots in %.0f ms, %d read calls, %.1f MB read (%d hits, %d misses)\n",
+                TFTPConfig.CONTENT_CACHE_SIZE > 0 ? "on" : "off", completed, boots, elapsed, after[0] - before[0],
+                (after[1] - before[1]) / 1e6, cache.getHits(), cache.getMisses());
+
+        server.shutdown();
+        System.exit(completed == boots ? 0 : 1);
+    }
+
+    //The read system calls and bytes read by this process so far, 0 if unknown
+    private static long[] io() throws IOException {
+        long[] io = new long[2];
+        File file = new File("/proc/self/io");
+        if (!file.exists()) {
+            return io;
+        }
+
+        for (String line : Files.readAllLines(file.toPath())) {
+            if (line.startsWith("syscr:")) {
+                io[0] = Long.parseLong(line.substring(6).trim());
+            } else if (line.startsWith("rchar:")) {
+                io[1] = Long.parseLong(line.substring(6).trim());
+            }
+        }
+
+        return io;
+    }
+}
@@ -0,0 +1,143 @@
+package com.tftp.test;
+
+import com.tftp.core.protocol.Packet;
+import com.tftp.core.protocol.Packet.PacketTypes;
+import com.tftp.core.protocol.PacketClassifier;
+
+import java.net.DatagramPacket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ClassifierBench measures the cost of telling the type of a received datagram, as the server does three times on
+ * the way of every packet (i.e. logged by Socket.inform, verified by Authentication, then handled): once with the
+ * recursive form matcher PacketClassifier replaced, kept here as it was for reference, and once with the classifier,
+ * which scans a freshly received datagram and answers the other two lookups from its cache.
+ *
+ * Usage: ClassifierBench [datagrams=1000000] [rounds=5]
+ *
+ * The first rounds warm the JIT compiler up, only the last one is reported.
+ *
+ * @author Ahmed Sakr
+ * @since June the 12th, 2017
+ */
+public class ClassifierBench {
+
+    // the type lookups per received datagram
+    private static final int LOOKUPS = 3;
+
+    private static int sink;
+
+    public static void main(String[] args) {
+        int count = (int) Loopback.arg(args, 0, 1000000);
+        int rounds = (int) Loopback.arg(args, 1, 5);
+
+        byte[] data = new byte[516];
+        data[1] = 3;
+        data[3] = 1;
+        for (int i = 4; i < data.length; i++) {
+            data[i] = Loopback.pattern(i);
+        }
+
+        String[] names = {"DATA (516 B)", "ACK", "ERROR", "RRQ + options"};
+        DatagramPacket[] packets = {
+                new DatagramPacket(data, data.length),
+                datagram("\0\4\0\1"),
+                datagram("\0\5\0\1File not found.\0"),
+                datagram("\0\1recovery-image.bin\0octet\0blksize\0" + "8192\0windowsize\0" + "8\0tsize\0" + "0\0")
+        };
+
+        for (int round = 1; round <= rounds; round++) {
+            for (int i = 0; i < packets.length; i++) {
+                double matched = recursive(packets[i], count), classified = classifier(packets[i], count);
+                if (round == rounds) {
+                    Loopback.out.printf("%-14s recursive matcher %6.0f ns, PacketClassifier %4.0f ns (%d lookups per " +
+                            "datagram)\n", names[i], matched, classified, LOOKUPS);
+                }
+            }
+        }
+
+        if (sink == 42) {
+            Loopback.out.println();
+        }
+    }
+
+    //The time (in nanoseconds) the recursive matcher takes to look the type of the datagram up LOOKUPS times
+    private static double recursive(DatagramPacket packet, int count) {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            for (int lookup = 0; lookup < LOOKUPS; lookup++) {
+                sink += getPacketType(packet).ordinal();
+            }
+        }
+
+        return (double) (System.nanoTime() - start) / count;
+    }
+
+    //The time (in nanoseconds) the classifier takes to scan the datagram as just received, then look its type up
+    //LOOKUPS times
+    private static double classifier(DatagramPacket packet, int count) {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            PacketClassifier.reclassify(packet);
+            for (int lookup = 0; lookup < LOOKUPS; lookup++) {
+                sink += Packet.getPacketType(packet).ordinal();
+            }
+        }
+
+        return (double) (System.nanoTime() - start) / count;
+    }
+
+    private static DatagramPacket datagram(String content) {
+        byte[] data = content.getBytes(StandardCharsets.US_ASCII);
+        return new DatagramPacket(data, data.length);
+    }
+
+    //The type lookup of Packet before PacketClassifier, trying every form in a row
+    private static PacketTypes getPacketType(DatagramPacket packet) {
+        byte read = 1, write = 2, data = 3, ack = 4, error = 5;
+
+        if (matches(packet.getData(), 0, packet.getLength(), "0cx0x0", read, false)) {
+            return PacketTypes.RRQ;
+        } else if (matches(packet.getData(), 0, packet.getLength(), "0cx0x0", write, false)) {
+            return PacketTypes.WRQ;
+        } else if (matches(packet.getData(), 0, packet.getLength(), "0cnnx", data, false)) {
+            return PacketTypes.DATA;
+        } else if (matches(packet.getData(), 0, packet.getLength(), "0cnn", ack, false)) {
+            return PacketTypes.ACK;
+        } else if (matches(packet.getData(), 0, packet.getLength(), "0cx0", error, false)) {
+            return PacketTypes.ERROR;
+        } else {
+            return PacketTypes.UNKNOWN;
+        }
+    }
+
+    //The recursive form matcher of Packet before PacketClassifier (c: opcode, 0: zero, n: any byte, x: text)
+    private static boolean matches(byte[] data, int index, int size, String form, byte opcode, boolean inText) {
+        if (form.isEmpty() && index == size) {
+            return true;
+        }
+
+        if (index == size && form.length() == 1 && form.charAt(0) == 'x') {
+            return true;
+        }
+
+        char letter = 0;
+        if (!form.isEmpty()) {
+            letter = form.charAt(0);
+        }
+
+        if (letter == 'c' && data[index] == opcode) {
+            return matches(data, ++index, size, form.substring(1), opcode, false);
+        } else if (letter == '0' && data[index] == 0) {
+            return matches(data, ++index, size, form.substring(1), opcode, false);
+        } else if (letter == 'x') {
+            return matches(data, ++index, size, form.substring(1), opcode, true);
+        } else if (letter == 'n') {
+            return matches(data, ++index, size, form.substring(1), opcode, false);
+        } else if (inText) {
+            return matches(data, ++index, size, form, opcode, true);
+        } else {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.tftp.test;
+
+import com.tftp.Server;
+import com.tftp.TFTPConfig;
+import com.tftp.workers.TaskExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+
+/**
+ * ExecutorBench compares the task executors of the threaded engine (see TaskExecutor): it holds as many read
+ * transfers in flight as asked for, and reports the peak amount of concurrent transfers, the heap and resident
+ * memory of the server at the peak, and the time from a request to its first block (i.e. the startup latency of a
+ * connection).
+ *
+ * Usage: ExecutorBench [transfers=2000] [ACK pause (ms)=1000] [executor (1 or 2, both if omitted)]
+ *
+ * Each executor runs in a process of its own, so that the memory of one does not weigh on the other. Virtual
+ * threads need Java 21 (or 19 and 20 with --enable-preview), the platform executor is used instead otherwise.
+ *
+ * @author Ahmed Sakr
+ * @since June the 12th, 2017
+ */
+public class ExecutorBench {
+
+    public static void main(String[] args) throws Exception {
+        int count = (int) Loopback.arg(args, 0, 2000);
+        long pause = Loopback.arg(args, 1, 1000);
+
+        if (args.length < 3) {
+            for (int executor : new int[] {TaskExecutor.PLATFORM, TaskExecutor.VIRTUAL}) {
+                Loopback.fork(ExecutorBench.class, count, pause, executor).waitFor();
+            }
+
+            return;
+        }
+
+        int executor = (int) Loopback.arg(args, 2, TaskExecutor.PLATFORM);
+        File directory = Loopback.directory("executor");
+        Loopback.links(Loopback.file(directory, "executor.bin", 8192), count);
+
+        TFTPConfig.SERVER_ENGINE = Server.THREADED;
+        TFTPConfig.TASK_EXECUTOR = executor;
+        TFTPConfig.SERVER_MAX_TRANSFERS = count;
+        TFTPConfig.SERVER_PENDING_REQUESTS = count;
+        TFTPConfig.CONTENT_CACHE_SIZE = 0;
+        TFTPConfig.INITIAL_TIMEOUT = (int) Math.max(TFTPConfig.INITIAL_TIMEOUT, 4 * pause);
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Server server = Loopback.launch();
+        long heap = 0, resident = 0;
+        int peak = 0;
+
+        Process clients = Loopback.clients("executor.bin", count, pause);
+        while (clients.isAlive()) {
+            heap = Math.max(heap, memory.getHeapMemoryUsage().getUsed());
+            resident = Math.max(resident, resident());
+            peak = Math.max(peak, threads.getThreadCount());
+            Thread.sleep(100);
+        }
+
+        Loopback.out.printf("%s executor: %d transfers at most at once, %d platform threads, heap %d MB, " +
+                        "resident %d MB\n\n", executor == TaskExecutor.VIRTUAL ? "Virtual" : "Platform",
+                server.getAdmissionController().getPeak(), peak, heap >> 20, resident >> 20);
+
+        server.shutdown();
+        System.exit(clients.exitValue());
+    }
+
+    //The resident memory of this process, where the platform threads hold their stacks (0 if unknown)
+    private static long resident() throws IOException {
+        File status = new File("/proc/self/status");
+        if (!status.exists()) {
+            return 0;
+        }
+
+        for (String line : Files.readAllLines(status.toPath())) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+            }
+        }
+
+        return 0;
+    }
+}
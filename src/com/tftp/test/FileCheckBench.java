@@ -0,0 +1,185 @@
+package com.tftp.test;
+
+import com.tftp.Client;
+import com.tftp.Server;
+import com.tftp.TFTPConfig;
+import com.tftp.io.FileTransfer;
+
+import java.io.File;
+import java.io.FilePermission;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.security.Permission;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * FileCheckBench counts the file system calls the server makes per block transferred: reads (RRQ) and writes (WRQ)
+ * of two sizes are run through the server, and the calls of the larger transfer beyond those of the smaller one are
+ * divided by the blocks it has in addition, so that the calls made once per transfer (opening the file, checking its
+ * access, the free space of the disk) cancel out.
+ *
+ * Usage: FileCheckBench [small file size=1048576] [large file size=9437184] [block size=512] [engine (1 or 2)=2]
+ *
+ * The checks of the files are counted as the JDK checks them against a security manager, by kind: a stat, access or
+ * open for reading (read), a create or open for writing (write), an unlink (delete) and a statfs (i.e. the free space
+ * of the disk), only for the files of the server. The read and write system calls are those of /proc/self/io (not
+ * reported on platforms without /proc), which counts those of the sockets along with those of the files: a packet
+ * received or sent is a call of its own. The JDK must permit a security manager to be installed, i.e.
+ * -Djava.security.manager=allow from Java 18 onwards.
+ *
+ * The clients run in processes of their own, a transfer each, so that only the calls of the server are counted.
+ *
+ * @author Ahmed Sakr
+ * @since June the 12th, 2017
+ */
+public class FileCheckBench {
+
+    // the kinds of calls counted, the read and write system calls last
+    private static final String[] KINDS = {"read", "write", "delete", "statfs", "syscr", "syscw"};
+
+    @SuppressWarnings("removal")
+    public static void main(String[] args) throws Exception {
+        long small = Loopback.arg(args, 0, 1024 * 1024);
+        long large = Loopback.arg(args, 1, 9 * 1024 * 1024);
+        int blockSize = (int) Loopback.arg(args, 2, 512);
+        int engine = (int) Loopback.arg(args, 3, Server.SELECTOR);
+
+        if (args.length > 4) {
+            client(args[4], args[5], args[6], blockSize);
+        }
+
+        TFTPConfig.SERVER_ENGINE = engine;
+        // the blocks read are read from the files rather than from memory
+        TFTPConfig.CONTENT_CACHE_SIZE = 0;
+        File directory = Loopback.directory("filecheck");
+        File local = Files.createTempDirectory("filecheck").toFile();
+        local.deleteOnExit();
+
+        long[] sizes = {small, large};
+        for (long size : sizes) {
+            Loopback.file(directory, "down." + size, size);
+            Loopback.file(local, "up." + size, size);
+            new File(directory, "up." + size).deleteOnExit();
+            new File(local, "down." + size).deleteOnExit();
+        }
+
+        Server server = Loopback.launch();
+        Counter counter = new Counter(directory.getPath());
+        try {
+            System.setSecurityManager(counter);
+        } catch (UnsupportedOperationException e) {
+            Loopback.out.println("A security manager may not be installed, run with -Djava.security.manager=allow");
+            System.exit(1);
+        }
+
+        Loopback.out.printf("Engine %d, blksize %d, calls per transfer of %d and %d bytes, and per block:\n", engine,
+                blockSize, small, large);
+        int status = 0;
+        for (String mode : new String[] {"r", "w"}) {
+            long[][] calls = new long[sizes.length][];
+            for (int i = 0; i < sizes.length; i++) {
+                String name = (mode.equals("r") ? "down." : "up.") + sizes[i];
+                long[] before = counter.snapshot();
+                status |= Loopback.fork(FileCheckBench.class, small, large, blockSize, engine, local.getPath(), name,
+                        mode).waitFor();
+
+                // the server handles the last packet of the transfer after the client is done with it
+                Thread.sleep(200);
+                calls[i] = counter.snapshot();
+                for (int kind = 0; kind < KINDS.length; kind++) {
+                    calls[i][kind] -= before[kind];
+                }
+            }
+
+            double blocks = (double) (large / blockSize - small / blockSize);
+            for (int kind = 0; kind < KINDS.length; kind++) {
+                Loopback.out.printf("%s %-6s %8d %8d %8.2f\n", mode.equals("r") ? "RRQ" : "WRQ", KINDS[kind],
+                        calls[0][kind], calls[1][kind], (calls[1][kind] - calls[0][kind]) / blocks);
+            }
+        }
+
+        server.shutdown();
+        System.exit(status);
+    }
+
+    //Runs a single transfer of the Client on this thread
+    private static void client(String directory, String name, String mode, int blockSize) throws Exception {
+        TFTPConfig.CLIENT_BLOCK_SIZE_OPTION = blockSize == FileTransfer.BLOCK_SIZE ? 0 : blockSize;
+        FileTransfer.setStartingDirectory(directory, false);
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        new Client().transfer(name.getBytes(), FileTransfer.OCTET.getBytes(),
+                InetAddress.getLocalHost().getHostAddress(), mode);
+        System.exit(0);
+    }
+
+
+    /**
+     * Counter is a security manager permitting everything, counting the checks of the files of the server by kind.
+     * A free space query checks the permission to query the file system along with the read of the directory, counted
+     * as a statfs alone.
+     */
+    @SuppressWarnings("removal")
+    private static class Counter extends SecurityManager {
+
+        private String directory;
+        private AtomicLongArray calls = new AtomicLongArray(KINDS.length);
+
+        // the free space being queried by the thread, its read of the directory is not counted
+        private ThreadLocal<Boolean> statfs = ThreadLocal.withInitial(() -> false);
+
+        private Counter(String directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        public void checkPermission(Permission permission) {
+            if (permission instanceof RuntimePermission && permission.getName().equals("getFileSystemAttributes")) {
+                calls.incrementAndGet(3);
+                statfs.set(true);
+            } else if (permission instanceof FilePermission && permission.getName().startsWith(directory)) {
+                String actions = permission.getActions();
+                if (statfs.get()) {
+                    statfs.set(false);
+                } else if (actions.contains("delete")) {
+                    calls.incrementAndGet(2);
+                } else if (actions.contains("write")) {
+                    calls.incrementAndGet(1);
+                } else if (actions.contains("read")) {
+                    calls.incrementAndGet(0);
+                }
+            }
+        }
+
+        @Override
+        public void checkPermission(Permission permission, Object context) {
+            checkPermission(permission);
+        }
+
+        //The calls counted so far, and the read and write system calls of this process
+        private long[] snapshot() throws IOException {
+            long[] snapshot = new long[KINDS.length];
+            for (int kind = 0; kind < 4; kind++) {
+                snapshot[kind] = calls.get(kind);
+            }
+
+            File file = new File("/proc/self/io");
+            if (!file.exists()) {
+                return snapshot;
+            }
+
+            for (String line : Files.readAllLines(file.toPath())) {
+                if (line.startsWith("syscr:")) {
+                    snapshot[4] = Long.parseLong(line.substring(6).trim());
+                } else if (line.startsWith("syscw:")) {
+                    snapshot[5] = Long.parseLong(line.substring(6).trim());
+                }
+            }
+
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.tftp.test;
+
+import com.tftp.Server;
+import com.tftp.TFTPConfig;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * ListenerBench measures the rate at which the server takes requests in, for an increasing amount of listeners
+ * sharing the server port (see TFTPConfig.SERVER_LISTENERS). Every client keeps a single request in flight, for a
+ * file that does not exist, so that every request is parsed, admitted and answered without any transfer following.
+ *
+ * Usage: ListenerBench [seconds=5] [clients=256] [listeners=4]
+ *
+ * The listener counts (1, 2, 4, ... up to the given one) each run in a process of their own. The listeners only
+ * spread the requests over more than one core, a single core host takes them in at the same rate regardless.
+ *
+ * @author Ahmed Sakr
+ * @since June the 12th, 2017
+ */
+public class ListenerBench {
+
+    // the time (in milliseconds) after which a request left unanswered is sent again
+    private static final long RESEND = 200;
+
+    public static void main(String[] args) throws Exception {
+        long seconds = Loopback.arg(args, 0, 5);
+        int count = (int) Loopback.arg(args, 1, 256);
+
+        if (args.length < 4) {
+            for (int listeners = 1; listeners <= Loopback.arg(args, 2, 4); listeners *= 2) {
+                Loopback.fork(ListenerBench.class, seconds, count, listeners, "run").waitFor();
+            }
+
+            return;
+        }
+
+        int listeners = (int) Loopback.arg(args, 2, 1);
+        Loopback.directory("listener");
+        TFTPConfig.SERVER_ENGINE = Server.SELECTOR;
+        TFTPConfig.SERVER_LISTENERS = listeners;
+        Server server = Loopback.launch();
+
+        InetSocketAddress address = ReadClients.local(TFTPConfig.SERVER_PORT);
+        ByteBuffer request = ByteBuffer.wrap("\0\1missing.bin\0octet\0".getBytes(StandardCharsets.US_ASCII));
+        ByteBuffer response = ByteBuffer.allocateDirect(516);
+        Selector selector = Selector.open();
+        long[] sent = new long[count];
+
+        for (int i = 0; i < count; i++) {
+            DatagramChannel channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.bind(new InetSocketAddress(address.getAddress(), 0));
+            channel.register(selector, SelectionKey.OP_READ, i);
+            channel.send(request.duplicate(), address);
+            sent[i] = System.nanoTime();
+        }
+
+        long answered = 0, resent = 0, start = System.nanoTime(), end = start + seconds * 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            selector.select(10);
+            Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+            while (selected.hasNext()) {
+                SelectionKey key = selected.next();
+                selected.remove();
+
+                DatagramChannel channel = (DatagramChannel) key.channel();
+                while (channel.receive(response.clear()) != null) {
+                    answered++;
+                }
+
+                channel.send(request.duplicate(), address);
+                sent[(Integer) key.attachment()] = System.nanoTime();
+            }
+
+            // the requests dropped by a saturated listener are sent again
+            long now = System.nanoTime();
+            for (SelectionKey key : selector.keys()) {
+                int i = (Integer) key.attachment();
+                if (now - sent[i] > RESEND * 1_000_000L) {
+                    ((DatagramChannel) key.channel()).send(request.duplicate(), address);
+                    sent[i] = now;
+                    resent++;
+                }
+            }
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        Loopback.out.printf("%d listener(s): %.0f requests/s (%d answered, %d resent after %d ms, %d cores)\n",
+                listeners, answered / elapsed, answered, resent, RESEND, Runtime.getRuntime().availableProcessors());
+
+        server.shutdown();
+        System.exit(0);
+    }
+}
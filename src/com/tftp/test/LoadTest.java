@@ -0,0 +1,70 @@
+package com.tftp.test;
+
+import com.tftp.Server;
+import com.tftp.TFTPConfig;
+import com.tftp.core.AdmissionController;
+import com.tftp.core.EventLoop;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * LoadTest runs a server in this process and reads a file through it with as many concurrent transfers as asked for,
+ * sampling the threads of the server along the way: with the selector engine, the thread count stays the same whether
+ * ten or tens of thousands of transfers are in flight, while the threaded engine grows by a thread per transfer.
+ *
+ * Usage: LoadTest [transfers=10000] [file size=8192] [ACK pause (ms)=1000] [engine (1 or 2)=2]
+ *
+ * Every transfer reads its own link to the same file, as concurrent reads of a file are refused. The clients run in
+ * a process of their own (see Loopback.clients()), each holding a channel, and pause before every acknowledgment to keep the
+ * transfers in flight long enough to overlap. The limit of open files (ulimit -n) must allow a file per transfer.
+ *
+ * @author Ahmed Sakr
+ * @since June the 12th, 2017
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int count = (int) Loopback.arg(args, 0, 10000);
+        long size = Loopback.arg(args, 1, 8192);
+        long pause = Loopback.arg(args, 2, 1000);
+        int engine = (int) Loopback.arg(args, 3, Server.SELECTOR);
+
+        File directory = Loopback.directory("load");
+        Loopback.links(Loopback.file(directory, "load.bin", size), count);
+
+        TFTPConfig.SERVER_ENGINE = engine;
+        TFTPConfig.SERVER_TRANSPORT = EventLoop.SHARED;
+        TFTPConfig.SERVER_MAX_TRANSFERS = count;
+        TFTPConfig.SERVER_PENDING_REQUESTS = count;
+        TFTPConfig.CONTENT_CACHE_SIZE = 0;
+
+        // the pause of the clients is not a loss, the first round trips are not retransmitted
+        TFTPConfig.INITIAL_TIMEOUT = (int) Math.max(TFTPConfig.INITIAL_TIMEOUT, 4 * pause);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int before = threads.getThreadCount();
+        Server server = Loopback.launch();
+        int idle = threads.getThreadCount(), peak = idle;
+        AdmissionController admission = server.getAdmissionController();
+
+        Process clients = Loopback.clients("load.bin", count, pause);
+
+        for (long sampled = 0; clients.isAlive(); Thread.sleep(100)) {
+            int current = threads.getThreadCount();
+            peak = Math.max(peak, current);
+            if (System.currentTimeMillis() - sampled >= 1000) {
+                sampled = System.currentTimeMillis();
+                Loopback.out.printf("server transfers: %6d  threads: %4d\n", admission.getCurrent(), current);
+            }
+        }
+
+        Loopback.out.printf("Engine %d: %d transfers of %d bytes, at most %d at once\n", engine, count, size,
+                admission.getPeak());
+        Loopback.out.printf("Threads: %d before the server, %d idle, %d at the peak\n", before, idle, peak);
+
+        server.shutdown();
+        System.exit(clients.exitValue());
+    }
+}
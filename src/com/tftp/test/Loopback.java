@@ -0,0 +1,222 @@
+package com.tftp.test;
+
+import com.tftp.Server;
+import com.tftp.core.protocol.PacketCodec;
+import com.tftp.io.FileTransfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Loopback gathers what the benchmark and load drivers of this package share: a scratch directory for the server,
+ * the files read through it, and a server running in the driver's own process.
+ *
+ * The files are written with a pattern (see pattern()), so that the data received by a driver can be checked at any
+ * offset without a copy of the file.
+ *
+ * @author Ahmed Sakr
+ * @since June the 12th, 2017
+ */
+class Loopback {
+
+    // the console of the driver, the server and its transfers being silenced
+    static final PrintStream out = System.out;
+
+    /**
+     * Creates a scratch directory and makes it the directory of the transfers.
+     *
+     * @param prefix the prefix of the directory name
+     *
+     * @return the directory
+     */
+    static File directory(String prefix) throws IOException {
+        File directory = Files.createTempDirectory(prefix).toFile();
+        directory.deleteOnExit();
+        FileTransfer.setStartingDirectory(directory.getPath(), false);
+
+        return directory;
+    }
+
+
+    /**
+     * Writes a file of the given size with the pattern, removed when the driver exits.
+     *
+     * @param directory the directory of the file
+     * @param name the name of the file
+     * @param size the size of the file in bytes
+     *
+     * @return the file
+     */
+    static File file(File directory, String name, long size) throws IOException {
+        File file = new File(directory, name);
+        file.deleteOnExit();
+
+        ByteBuffer chunk = ByteBuffer.allocateDirect(1024 * 1024);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (long position = 0; position < size; position += chunk.limit()) {
+                chunk.clear();
+                while (chunk.hasRemaining()) {
+                    chunk.put(pattern(position + chunk.position()));
+                }
+
+                chunk.flip().limit((int) Math.min(chunk.capacity(), size - position));
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk, position + chunk.position());
+                }
+            }
+        }
+
+        return file;
+    }
+
+
+    /**
+     * Links the given file under numbered names (i.e. load.bin.0, load.bin.1, ...), so that concurrent transfers of
+     * its content read distinct files.
+     *
+     * @param file the file linked
+     * @param count the amount of links
+     *
+     * @return the names of the links
+     */
+    static String[] links(File file, int count) throws IOException {
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            File link = new File(file.getParentFile(), file.getName() + "." + i);
+            link.deleteOnExit();
+            Files.createLink(link.toPath(), file.toPath());
+            names[i] = link.getName();
+        }
+
+        return names;
+    }
+
+
+    /**
+     * Reads a file of the directory of the transfers block by block through a FileTransfer, as the server does for a
+     * read transfer: every block goes into the DATA packet sent for it, either read in place (see
+     * FileTransfer.read(ByteBuffer)) or read in an array of its own and copied in the packet.
+     *
+     * @param name the name of the file
+     * @param blockSize the block size of the transfer
+     * @param copy if the blocks are read through FileTransfer.read() and copied, rather than read in place
+     *
+     * @return the amount of blocks read
+     */
+    static int read(String name, int blockSize, boolean copy) throws Exception {
+        FileTransfer transfer = new FileTransfer(name, FileTransfer.READ);
+        transfer.setBlockSize(blockSize);
+        PacketCodec packet = PacketCodec.allocate(blockSize + PacketCodec.HEADER_SIZE);
+
+        int block = 0;
+        while (!transfer.isComplete()) {
+            block++;
+            if (copy) {
+                byte[] data = transfer.read();
+                packet.putData(block, data, 0, transfer.lastBlockSize());
+            } else {
+                packet.putData(block, transfer.read(packet.payload(blockSize)));
+            }
+        }
+
+        return block;
+    }
+
+
+    /**
+     *
+     * @return the byte of the files written by file() at the given offset.
+     */
+    static byte pattern(long offset) {
+        long block = offset >>> 9;
+        return (byte) (offset ^ block ^ (block >>> 8) ^ (block >>> 16));
+    }
+
+
+    /**
+     * Launches a server on its own thread, with the current TFTPConfig, and silences the console output of the
+     * server and its transfers (the driver reports through Loopback.out). The console input of the server is left
+     * open, so that it runs until the driver exits.
+     *
+     * @return the server, listening once this method returns
+     */
+    static Server launch() throws IOException {
+        System.setIn(new PipedInputStream(new PipedOutputStream()));
+        Server server = new Server();
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        Thread thread = new Thread(() -> {
+            try {
+                server.launch();
+            } catch (Exception e) {
+                // the server is shut down along with the driver
+            }
+        }, "Server");
+        thread.setDaemon(true);
+        thread.start();
+
+        try {
+            Thread.sleep(200);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return server;
+    }
+
+
+    /**
+     * Starts the given amount of read transfers from a process of their own (see ReadClients.main()), which holds the
+     * channels of the clients apart from the files of the server, each process being limited in open files.
+     *
+     * @param files the prefix of the files read (see links())
+     * @param count the amount of transfers
+     * @param pause the pause of the clients before every acknowledgment, in milliseconds
+     *
+     * @return the process of the clients, reporting to the console of the driver
+     */
+    static Process clients(String files, int count, long pause) throws IOException {
+        return fork(ReadClients.class, files, count, pause);
+    }
+
+
+    /**
+     * Runs the main() of the given class in a new process, on the JVM and class path of this one.
+     *
+     * @param main the class run
+     * @param args the arguments of main()
+     *
+     * @return the process, reporting to the console of the driver
+     */
+    static Process fork(Class<?> main, Object... args) throws IOException {
+        ArrayList<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(main.getName());
+        for (Object arg : args) {
+            command.add(String.valueOf(arg));
+        }
+
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+
+    /**
+     *
+     * @return the argument at the given index, or the default value if it was not given.
+     */
+    static long arg(String[] args, int index, long value) {
+        return args.length > index ? Long.parseLong(args[index]) : value;
+    }
+}
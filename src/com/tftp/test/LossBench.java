@@ -0,0 +1,64 @@
+package com.tftp.test;
+
+import com.tftp.TFTPConfig;
+import com.tftp.core.protocol.Packet.PacketTypes;
+import com.tftp.simulation.ErrorSimulator;
+
+import java.io.File;
+
+/**
+ * LossBench reads a file through the ErrorSimulator, which loses DATA packets on the way, once with the adaptive
+ * retransmission timeout and once with the fixed one (see TFTPConfig.ADAPTIVE_TIMEOUT), and reports the time the
+ * read took in both cases.
+ *
+ * Usage: LossBench [file size=131072] [lost DATA packet every n blocks=20] [engine (1 or 2)=1]
+ *
+ * The first transmission of every n-th block is lost, its retransmission gets through. The client does not resend
+ * its acknowledgments, leaving the recovery to the server (the simulator relays a single packet at a time).
+ *
+ * @author Ahmed Sakr
+ * @since June the 12th, 2017
+ */
+public class LossBench {
+
+    public static void main(String[] args) throws Exception {
+        long size = Loopback.arg(args, 0, 131072);
+        int every = (int) Loopback.arg(args, 1, 20);
+        TFTPConfig.SERVER_ENGINE = (int) Loopback.arg(args, 2, 1);
+
+        File directory = Loopback.directory("loss");
+        Loopback.file(directory, "loss.bin", size);
+        Loopback.launch();
+
+        ErrorSimulator simulator = new ErrorSimulator();
+        Thread thread = new Thread(() -> {
+            try {
+                simulator.simulate();
+            } catch (Exception e) {
+                // the simulator is shut down along with the driver
+            }
+        }, "ErrorSimulator");
+        thread.setDaemon(true);
+        thread.start();
+
+        long blocks = size / 512 + 1;
+        for (boolean adaptive : new boolean[] {true, false}) {
+            TFTPConfig.ADAPTIVE_TIMEOUT = adaptive;
+            int lost = 0;
+            for (int block = every; block <= blocks; block += every) {
+                simulator.queueModification(block, PacketTypes.DATA, ErrorSimulator.SIMULATE_LOST_PACKET);
+                lost++;
+            }
+
+            ReadClients client = new ReadClients(ReadClients.local(TFTPConfig.SIMULATOR_PORT), "loss.bin");
+            client.setTimeout(60000);
+            client.run(1, 1);
+
+            Loopback.out.printf("%s timeout: %d of %d bytes read in %.0f ms, %d DATA packets lost\n",
+                    adaptive ? "Adaptive" : "Fixed (" + TFTPConfig.RETRANSMIT_TIMEOUT + " ms)", client.getBytes(),
+                    size, client.getElapsed(), lost);
+        }
+
+        System.exit(0);
+    }
+}
@@ -0,0 +1,94 @@
+package com.tftp.test;
+
+import com.tftp.TFTPConfig;
+import com.tftp.core.protocol.PacketCodec;
+import com.tftp.io.FileTransfer;
+import com.tftp.io.ReadAhead;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ReadAheadBench measures the time the server takes to read a DATA block from a file on a cold page cache, as a
+ * transfer paced by its ACKs would: once reading every block from the file itself, and once copying it from the ring
+ * the read-ahead fills in the background (see ReadAhead). The mean, median, 99th percentile and maximum time per block
+ * are reported, along with the blocks the transfer read before the read-ahead had fetched them.
+ *
+ * Usage: ReadAheadBench [file size=33554432] [block size=512] [interval between blocks in microseconds=100]
+ *        [read-ahead depth=1048576]
+ *
+ * The page cache is dropped before every read (i.e. /proc/sys/vm/drop_caches), which needs the privileges to do so:
+ * otherwise the file is read warm, as reported. The reads from the file itself are helped by the read-ahead of the
+ * operating system (e.g. /sys/block/[device]/queue/read_ahead_kb), which sets how much the ring has to win.
+ *
+ * @author Ahmed Sakr
+ * @since June the 12th, 2017
+ */
+public class ReadAheadBench {
+
+    public static void main(String[] args) throws Exception {
+        long size = Loopback.arg(args, 0, 32 * 1024 * 1024);
+        int blockSize = (int) Loopback.arg(args, 1, 512);
+        long interval = Loopback.arg(args, 2, 100) * 1000;
+        long depth = Loopback.arg(args, 3, 1024 * 1024);
+
+        File file = Loopback.file(Loopback.directory("readahead"), "cold.bin", size);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+
+        TFTPConfig.FILE_READ_BACKEND = FileTransfer.CHANNEL;
+        Loopback.out.printf("%d MB file, blksize %d, a block every %d us\n", size >> 20, blockSize, interval / 1000);
+        for (long maxDepth : new long[] {0, depth}) {
+            boolean cold = drop();
+            ReadAhead readAhead = new ReadAhead(maxDepth, TFTPConfig.READ_AHEAD_MEMORY, TFTPConfig.READ_AHEAD_THREADS);
+            long[] times = read(file.getName(), size, blockSize, interval, readAhead);
+
+            Arrays.sort(times);
+            double mean = Arrays.stream(times).average().orElse(0) / 1000;
+            Loopback.out.printf("%-20s %s: mean %6.1f us, median %6.1f us, p99 %7.1f us, max %8.1f us (%d blocks " +
+                    "overtaken)\n", maxDepth == 0 ? "from the file" : "read-ahead " + (maxDepth >> 10) + " KB",
+                    cold ? "cold" : "warm", mean, times[times.length / 2] / 1000.0,
+                    times[(int) (times.length * 0.99)] / 1000.0, times[times.length - 1] / 1000.0,
+                    readAhead.getOvertaken());
+        }
+    }
+
+    //The time (in nanoseconds) every block of the file took to be read, a block being read every interval
+    private static long[] read(String name, long size, int blockSize, long interval, ReadAhead readAhead) throws Exception {
+        FileTransfer transfer = new FileTransfer(name, FileTransfer.READ);
+        transfer.setBlockSize(blockSize);
+        transfer.setReadAhead(readAhead);
+        PacketCodec packet = PacketCodec.allocate(blockSize + PacketCodec.HEADER_SIZE);
+
+        long[] times = new long[(int) (size / blockSize + 1)];
+        long deadline = System.nanoTime();
+        for (int block = 1; !transfer.isComplete(); block++) {
+            // the next ACK arrives an interval after the previous one
+            deadline += interval;
+            LockSupport.parkNanos(deadline - System.nanoTime());
+
+            long start = System.nanoTime();
+            packet.putData(block, transfer.read(packet.payload(blockSize)));
+            times[block - 1] = System.nanoTime() - start;
+        }
+
+        return times;
+    }
+
+    //Drops the page cache of the system, false if not permitted
+    private static boolean drop() {
+        try (FileOutputStream control = new FileOutputStream("/proc/sys/vm/drop_caches")) {
+            control.write("1".getBytes(StandardCharsets.US_ASCII));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package com.tftp.test;
+
+import com.tftp.TFTPConfig;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * ReadClients drives any amount of read transfers (RRQ) against a server at once, from a single thread and Selector,
+ * so that the load put on the server is not bounded by the threads of the clients. It speaks the protocol on its own
+ * (i.e. without Client or FileTransfer, which share their directory with a server running in the same process): the
+ * received blocks are only counted, or handed to a BlockListener to be verified.
+ *
+ * Every transfer runs on its own channel (i.e. its own TID), opened when the transfer starts and closed once it is
+ * complete. DATA packets are acknowledged once per window, possibly after a pause to keep many transfers in flight,
+ * and the last packet sent is resent whenever the server stays silent for a while (see setTimeout()).
+ *
+ * Block numbers are tracked independently from BlockNumber, rolling over to TFTPConfig.BLOCK_ROLLOVER as set by the
+ * caller (see setRollover()), so that the rollover of the server is checked rather than mirrored.
+ *
+ * @author Ahmed Sakr
+ * @since June the 12th, 2017
+ */
+public class ReadClients {
+
+    private static final int RETRIES = 5;
+
+    private InetSocketAddress server;
+    private String[] filenames;
+    private int blockSize = 512, windowSize = 1, rollover;
+    private long pause, timeout = 1000;
+    private BlockListener listener;
+
+    private Selector selector;
+    private ByteBuffer buffer;
+    private HashSet<Transfer> transfers = new HashSet<>();
+    private ArrayDeque<Transfer> delayed = new ArrayDeque<>();
+    private volatile int active;
+    private int started, peak, completed, failed, responded;
+    private long bytes, setup, elapsed;
+
+    /**
+     * Runs the clients in a process of their own, against the server of this host (see Loopback.clients()).
+     *
+     * Usage: ReadClients [file prefix] [transfers] [ACK pause (ms)] [transfers started per second]
+     *
+     * The transfers read the files prefix.0, prefix.1, ... in turn (see Loopback.links()). Exits with 1 if any of
+     * them failed.
+     */
+    public static void main(String[] args) throws IOException {
+        int count = (int) Loopback.arg(args, 1, 1);
+        String[] files = new String[count];
+        for (int i = 0; i < count; i++) {
+            files[i] = args[0] + "." + i;
+        }
+
+        ReadClients clients = new ReadClients(local(TFTPConfig.SERVER_PORT), files);
+        clients.setPause(Loopback.arg(args, 2, 0));
+        clients.run(count, (int) Loopback.arg(args, 3, 5000));
+
+        System.out.printf("Clients: %d completed, %d failed in %.0f ms, at most %d at once (%.0f us to the first " +
+                        "block)\n", clients.getCompleted(), clients.getFailed(), clients.getElapsed(),
+                clients.getPeak(), clients.getSetupLatency());
+        System.exit(clients.getFailed() == 0 ? 0 : 1);
+    }
+
+
+    /**
+     * @param server the address and port of the server (i.e. TFTPConfig.SERVER_PORT on the local host)
+     * @param filenames the files read by the transfers, in turn (the server refuses concurrent reads of a file outside
+     *                  of multicast groups, see TransferController.isFileLocked())
+     */
+    public ReadClients(InetSocketAddress server, String... filenames) {
+        this.server = server;
+        this.filenames = filenames;
+    }
+
+
+    /**
+     * @param port the port of the server
+     *
+     * @return the address of the server running on this host, as bound by Server.
+     */
+    public static InetSocketAddress local(int port) throws IOException {
+        return new InetSocketAddress(InetAddress.getLocalHost(), port);
+    }
+
+
+    /**
+     * Requests the given block size through the RFC 2348 option.
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+
+    /**
+     * Requests the given window through the RFC 7440 option.
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+
+    /**
+     * Sets the block number expected after block 65535 (0 or 1), as TFTPConfig.BLOCK_ROLLOVER on the server.
+     */
+    public void setRollover(int rollover) {
+        this.rollover = rollover;
+    }
+
+
+    /**
+     * Delays every acknowledgment by the given time, in milliseconds.
+     */
+    public void setPause(long pause) {
+        this.pause = pause;
+    }
+
+
+    /**
+     * Sets the time (in milliseconds) the server may stay silent before the last packet is resent, one second by
+     * default.
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+
+    public void setListener(BlockListener listener) {
+        this.listener = listener;
+    }
+
+
+    /**
+     * Runs the given amount of transfers, started at the given rate, and returns once all of them are complete or
+     * have failed.
+     *
+     * @param count the amount of transfers
+     * @param rate the amount of transfers started per second
+     */
+    public void run(int count, int rate) throws IOException {
+        selector = Selector.open();
+        buffer = ByteBuffer.allocateDirect(blockSize + 4);
+
+        long start = System.nanoTime(), scanned = 0;
+        started = 0;
+        while (started < count || active > 0) {
+            long now = System.nanoTime();
+
+            // the transfers are started at the given rate, not all at once, so that the requests are not dropped
+            long due = Math.min(count, (now - start) / 1_000_000L * rate / 1000 + 1);
+            while (started < due) {
+                start(now);
+            }
+
+            selector.select(1);
+            Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+            while (selected.hasNext()) {
+                SelectionKey key = selected.next();
+                selected.remove();
+                receive((Transfer) key.attachment());
+            }
+
+            now = System.nanoTime();
+            while (!delayed.isEmpty() && delayed.peek().due <= now) {
+                send(delayed.poll(), now);
+            }
+
+            if (now - scanned > 100_000_000L) {
+                scanned = now;
+                expire(now);
+            }
+        }
+
+        elapsed = System.nanoTime() - start;
+        selector.close();
+    }
+
+
+    /**
+     *
+     * @return the amount of transfers currently running.
+     */
+    public int getActive() {
+        return active;
+    }
+
+
+    public int getPeak() {
+        return peak;
+    }
+
+
+    public int getCompleted() {
+        return completed;
+    }
+
+
+    public int getFailed() {
+        return failed;
+    }
+
+
+    /**
+     *
+     * @return the amount of data bytes received by all transfers.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+
+    /**
+     *
+     * @return the average time (in microseconds) between a request and its first DATA (or OACK) packet.
+     */
+    public double getSetupLatency() {
+        return responded == 0 ? 0 : setup / 1000.0 / responded;
+    }
+
+
+    /**
+     *
+     * @return the time (in milliseconds) all transfers took.
+     */
+    public double getElapsed() {
+        return elapsed / 1e6;
+    }
+
+
+    //Opens the channel of a new transfer and sends its request
+    private void start(long now) throws IOException {
+        Transfer transfer = new Transfer();
+        transfer.channel = DatagramChannel.open();
+        transfer.channel.configureBlocking(false);
+        transfer.channel.bind(new InetSocketAddress(server.getAddress(), 0));
+        transfer.channel.register(selector, SelectionKey.OP_READ, transfer);
+        transfer.remote = server;
+        transfer.started = now;
+
+        String filename = filenames[started++ % filenames.length];
+        StringBuilder request = new StringBuilder("\0\1").append(filename).append("\0octet\0");
+        if (blockSize != 512) {
+            request.append("blksize\0").append(blockSize).append('\0');
+        }
+
+        if (windowSize > 1) {
+            request.append("windowsize\0").append(windowSize).append('\0');
+        }
+
+        transfer.packet.put(request.toString().getBytes(StandardCharsets.US_ASCII)).flip();
+        transfers.add(transfer);
+        peak = Math.max(peak, ++active);
+        send(transfer, now);
+    }
+
+    //Handles every packet queued on the channel of the transfer
+    private void receive(Transfer transfer) throws IOException {
+        while (!transfer.done) {
+            buffer.clear();
+            SocketAddress from = transfer.channel.receive(buffer);
+            if (from == null) {
+                return;
+            }
+
+            buffer.flip();
+            transfer.attempts = 0;
+            int opcode = buffer.remaining() >= 4 ? buffer.getShort(0) : 0;
+            if (transfer.first) {
+                transfer.first = false;
+                transfer.remote = from;
+                setup += System.nanoTime() - transfer.started;
+                responded++;
+            }
+
+            if (opcode == 6) {
+                // the options are acknowledged, the server waits for ACK0
+                acknowledge(transfer, 0, false);
+            } else if (opcode == 3) {
+                data(transfer);
+            } else {
+                finish(transfer, false);
+            }
+        }
+    }
+
+    //Consumes the block if it is the one expected, acknowledging the window or the gap left by a lost block
+    private void data(Transfer transfer) throws IOException {
+        int length = buffer.remaining() - 4;
+        if ((buffer.getShort(2) & 0xFFFF) != wrap(transfer.expected)) {
+            // a lost block (or a duplicate): the last block received in order is acknowledged once
+            if (transfer.nacked != transfer.expected) {
+                transfer.nacked = transfer.expected;
+                acknowledge(transfer, transfer.expected - 1, false);
+            }
+
+            return;
+        }
+
+        if (listener != null) {
+            listener.received((long) (transfer.expected - 1) * blockSize, buffer.position(4));
+        }
+
+        bytes += length;
+        transfer.expected++;
+        boolean last = length < blockSize;
+        if (last || transfer.expected - 1 - transfer.acked >= windowSize) {
+            acknowledge(transfer, transfer.expected - 1, last);
+        }
+
+        if (last) {
+            finish(transfer, true);
+        }
+    }
+
+    //Writes the ACK of the given block as the packet of the transfer, and sends it after the pause unless immediate
+    //(i.e. the last ACK, the transfer being complete)
+    private void acknowledge(Transfer transfer, int block, boolean immediate) throws IOException {
+        transfer.acked = block;
+        transfer.packet.clear();
+        transfer.packet.putShort((short) 4).putShort((short) wrap(block)).flip();
+
+        long now = System.nanoTime();
+        if (pause == 0 || immediate) {
+            send(transfer, now);
+        } else if (!transfer.delayed) {
+            transfer.delayed = true;
+            transfer.due = now + pause * 1_000_000L;
+            transfer.last = now;
+            delayed.add(transfer);
+        }
+    }
+
+    private void send(Transfer transfer, long now) throws IOException {
+        transfer.delayed = false;
+        transfer.last = now;
+        if (!transfer.done) {
+            transfer.channel.send(transfer.packet.duplicate(), transfer.remote);
+        }
+    }
+
+    //Resends the last packet of the transfers the server has been silent to, giving up after a few attempts
+    private void expire(long now) throws IOException {
+        for (Transfer transfer : new ArrayList<>(transfers)) {
+            if (now - transfer.last < timeout * 1_000_000L || transfer.delayed) {
+                continue;
+            }
+
+            if (++transfer.attempts > RETRIES) {
+                finish(transfer, false);
+            } else {
+                send(transfer, now);
+            }
+        }
+    }
+
+    private void finish(Transfer transfer, boolean complete) throws IOException {
+        if (complete) {
+            completed++;
+        } else {
+            failed++;
+        }
+
+        transfer.done = true;
+        transfer.channel.close();
+        transfers.remove(transfer);
+        active--;
+    }
+
+    //The 16-bit block number of the given absolute block, rolling over past 65535
+    private int wrap(int block) {
+        if (block <= 0xFFFF) {
+            return block;
+        }
+
+        return rollover == 1 ? (block - 0x10000) % 0xFFFF + 1 : block & 0xFFFF;
+    }
+
+
+    /**
+     * Receives the data of every block, in order, along with its offset in the file.
+     */
+    public interface BlockListener {
+
+        void received(long offset, ByteBuffer payload);
+    }
+
+
+    /**
+     * A single read, along with the last packet sent for it (the request or an ACK).
+     */
+    private class Transfer {
+
+        private DatagramChannel channel;
+        private SocketAddress remote;
+        private ByteBuffer packet = ByteBuffer.allocate(512);
+        private int expected = 1, acked, nacked, attempts;
+        private long started, last, due;
+        private boolean first = true, delayed, done;
+    }
+}
@@ -0,0 +1,51 @@
+package com.tftp.test;
+
+import com.tftp.TFTPConfig;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * ReadPathBench measures the read path of a DATA block, from the file to the packet sent for it: read in an array of
+ * its own by FileTransfer.read() then copied behind the header, against read in place behind the header by
+ * FileTransfer.read(ByteBuffer). Both the throughput and the bytes allocated per block are reported, for a few
+ * block sizes.
+ *
+ * Usage: ReadPathBench [file size=67108864] [rounds=5]
+ *
+ * The file is read warm, through the read backend configured (see TFTPConfig.FILE_READ_BACKEND), and the best of the
+ * rounds is reported.
+ *
+ * @author Ahmed Sakr
+ * @since June the 12th, 2017
+ */
+public class ReadPathBench {
+
+    public static void main(String[] args) throws Exception {
+        long size = Loopback.arg(args, 0, 64 * 1024 * 1024);
+        int rounds = (int) Loopback.arg(args, 1, 5);
+
+        Loopback.file(Loopback.directory("read"), "read.bin", size);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        Loopback.out.printf("%d MB file, read backend %d\n", size >> 20, TFTPConfig.FILE_READ_BACKEND);
+        for (int blockSize : new int[] {512, 1428, 8192}) {
+            StringBuilder line = new StringBuilder(String.format("blksize %5d:", blockSize));
+            for (boolean copy : new boolean[] {true, false}) {
+                double best = 0, allocated = 0;
+                for (int round = 0; round < rounds; round++) {
+                    long bytes = threads.getCurrentThreadAllocatedBytes(), start = System.nanoTime();
+                    int blocks = Loopback.read("read.bin", blockSize, copy);
+                    long elapsed = System.nanoTime() - start;
+
+                    best = Math.max(best, size / 1e3 / (elapsed / 1e6));
+                    allocated = (double) (threads.getCurrentThreadAllocatedBytes() - bytes) / blocks;
+                }
+
+                line.append(String.format("  %s %6.0f MB/s, %6.1f B/block", copy ? "copied" : "in place", best,
+                        allocated));
+            }
+
+            Loopback.out.println(line);
+        }
+    }
+}
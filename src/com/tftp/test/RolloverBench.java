@@ -0,0 +1,75 @@
+package com.tftp.test;
+
+import com.tftp.TFTPConfig;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * RolloverBench reads a file of more than 65535 blocks through the loopback interface, once with the block numbers
+ * rolling over to 0 and once to 1 (see TFTPConfig.BLOCK_ROLLOVER), checks every byte received against the pattern
+ * the file was written with, and reports the throughput of both reads.
+ *
+ * Usage: RolloverBench [file size=4400000000] [block size=8192] [window size=8] [engine (1 or 2)=2]
+ *
+ * The default size takes the block numbers around more than eight times at 8192 bytes a block, and the offsets of
+ * the file past 4 GB (i.e. past any 32-bit offset). The file is written to a scratch directory, removed on exit.
+ *
+ * @author Ahmed Sakr
+ * @since June the 12th, 2017
+ */
+public class RolloverBench {
+
+    public static void main(String[] args) throws Exception {
+        long size = Loopback.arg(args, 0, 4_400_000_000L);
+        int blockSize = (int) Loopback.arg(args, 1, 8192);
+        int windowSize = (int) Loopback.arg(args, 2, 8);
+        TFTPConfig.SERVER_ENGINE = (int) Loopback.arg(args, 3, 2);
+        TFTPConfig.CONTENT_CACHE_SIZE = 0;
+
+        File directory = Loopback.directory("rollover");
+        Loopback.file(directory, "rollover.bin", size);
+        Loopback.launch();
+
+        long blocks = size / blockSize + 1;
+        boolean failed = false;
+        for (int rollover : new int[] {0, 1}) {
+            TFTPConfig.BLOCK_ROLLOVER = rollover;
+            Verifier verifier = new Verifier();
+
+            ReadClients client = new ReadClients(ReadClients.local(TFTPConfig.SERVER_PORT), "rollover.bin");
+            client.setBlockSize(blockSize);
+            client.setWindowSize(windowSize);
+            client.setRollover(rollover);
+            client.setListener(verifier);
+            client.run(1, 1);
+
+            boolean complete = client.getCompleted() == 1 && client.getBytes() == size && verifier.mismatches == 0;
+            failed |= !complete;
+            Loopback.out.printf("Rollover to %d: %d of %d bytes (%d blocks, %d rollovers) read in %.0f ms, " +
+                            "%.1f MB/s, %d bytes mismatched, %s\n", rollover, client.getBytes(), size, blocks,
+                    (blocks - 1) / (rollover == 1 ? 0xFFFF : 0x10000), client.getElapsed(),
+                    client.getBytes() / 1e3 / client.getElapsed(), verifier.mismatches, complete ? "OK" : "FAILED");
+        }
+
+        System.exit(failed ? 1 : 0);
+    }
+
+
+    /**
+     * Compares every block received with the pattern of the file at its offset.
+     */
+    private static class Verifier implements ReadClients.BlockListener {
+
+        private long mismatches;
+
+        @Override
+        public void received(long offset, ByteBuffer payload) {
+            for (int i = payload.position(); i < payload.limit(); i++) {
+                if (payload.get(i) != Loopback.pattern(offset + i - payload.position())) {
+                    mismatches++;
+                }
+            }
+        }
+    }
+}
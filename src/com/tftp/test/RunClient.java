@@ -78,7 +78,8 @@ public class RunClient {
                     }
 
                     byte[] filename = getInput("Enter file name: ").getBytes();
-                    byte[] mode = "octet".getBytes();
+                    String transferMode = getInput("Would you like to transfer in netascii (text) mode? (y/N) ");
+                    byte[] mode = (transferMode.equalsIgnoreCase("y") ? FileTransfer.NETASCII : FileTransfer.OCTET).getBytes();
                     client.transfer(filename, mode, ip, requestType);
                     client.close();
 
@@ -5,6 +5,7 @@ import com.tftp.Server;
 import com.tftp.TFTPConfig;
 import com.tftp.exceptions.InvalidPacketException;
 import com.tftp.io.FileTransfer;
+import com.tftp.workers.TaskExecutor;
 
 import java.io.IOException;
 import java.net.SocketException;
@@ -44,6 +45,16 @@ public class RunServer {
                 TFTPConfig.SERVER_VERBOSE = true;
             }
 
+            String engine = getInput("The Server is set to use a thread per transfer. Would you like to use the event-loop engine instead? (y/N) ");
+            if (engine.toLowerCase().equals("y")) {
+                TFTPConfig.SERVER_ENGINE = Server.SELECTOR;
+            } else {
+                String threads = getInput("Connections run on platform threads. Would you like to run them on virtual threads instead? (y/N) ");
+                if (threads.toLowerCase().equals("y")) {
+                    TFTPConfig.TASK_EXECUTOR = TaskExecutor.VIRTUAL;
+                }
+            }
+
             server.launch();
         } catch (SocketException e) {
             System.out.printf("Shutdown successful: no more incoming connections to be serviced...\n");
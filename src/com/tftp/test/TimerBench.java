@@ -0,0 +1,120 @@
+package com.tftp.test;
+
+import com.tftp.TFTPConfig;
+import com.tftp.core.TimerWheel;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TimerBench measures the cost of arming, re-arming and cancelling retransmission deadlines on the TimerWheel, with
+ * as many outstanding deadlines as asked for, against a ScheduledThreadPoolExecutor (i.e. a binary heap) doing the
+ * same. The deadlines are spread over the timeouts a transfer may use (see TFTPConfig.MAX_TIMEOUT), and re-arming
+ * one stands for a block acknowledged in time. The wheel is also advanced past all of its deadlines at once, the way
+ * a loop fires the retransmissions due in bulk.
+ *
+ * Usage: TimerBench [timers=200000] [rounds=5]
+ *
+ * The first rounds warm the JIT compiler up, only the last one is reported.
+ *
+ * @author Ahmed Sakr
+ * @since June the 12th, 2017
+ */
+public class TimerBench {
+
+    private static final Runnable TASK = () -> { };
+
+    public static void main(String[] args) {
+        int count = (int) Loopback.arg(args, 0, 200000);
+        int rounds = (int) Loopback.arg(args, 1, 5);
+
+        long[] delays = new long[count];
+        Random random = new Random(69);
+        for (int i = 0; i < count; i++) {
+            delays[i] = TFTPConfig.MIN_TIMEOUT + random.nextInt(TFTPConfig.MAX_TIMEOUT - TFTPConfig.MIN_TIMEOUT);
+        }
+
+        for (int round = 1; round <= rounds; round++) {
+            boolean last = round == rounds;
+            wheel(delays, last);
+            heap(delays, last);
+        }
+    }
+
+    //Arms, re-arms, cancels and fires the deadlines on a TimerWheel
+    private static void wheel(long[] delays, boolean report) {
+        TimerWheel wheel = new TimerWheel(TFTPConfig.TIMER_TICK, TFTPConfig.TIMER_BUCKETS);
+        TimerWheel.Timeout[] timeouts = new TimerWheel.Timeout[delays.length];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < delays.length; i++) {
+            timeouts[i] = wheel.schedule(TASK, delays[i]);
+        }
+
+        long armed = System.nanoTime();
+        for (int i = 0; i < delays.length; i++) {
+            timeouts[i].reschedule(delays[delays.length - 1 - i]);
+        }
+
+        long rearmed = System.nanoTime();
+        for (TimerWheel.Timeout timeout : timeouts) {
+            timeout.cancel();
+        }
+
+        long cancelled = System.nanoTime();
+        for (int i = 0; i < delays.length; i++) {
+            timeouts[i] = wheel.schedule(TASK, delays[i]);
+        }
+
+        long fire = System.nanoTime();
+        int fired = wheel.advance(System.currentTimeMillis() + TFTPConfig.MAX_TIMEOUT + TFTPConfig.TIMER_TICK);
+        long end = System.nanoTime();
+
+        if (report) {
+            Loopback.out.printf("TimerWheel (%d buckets of %d ms), %d timers: arm %.0f ns, re-arm %.0f ns, " +
+                            "cancel %.0f ns, fire %.0f ns (%d fired)\n", TFTPConfig.TIMER_BUCKETS,
+                    TFTPConfig.TIMER_TICK, delays.length, per(start, armed, delays.length),
+                    per(armed, rearmed, delays.length), per(rearmed, cancelled, delays.length),
+                    per(fire, end, fired), fired);
+        }
+    }
+
+    //Arms, re-arms and cancels the deadlines on a ScheduledThreadPoolExecutor, removing them as they are cancelled
+    private static void heap(long[] delays, boolean report) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+        ScheduledFuture<?>[] futures = new ScheduledFuture<?>[delays.length];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < delays.length; i++) {
+            futures[i] = executor.schedule(TASK, delays[i], TimeUnit.MILLISECONDS);
+        }
+
+        long armed = System.nanoTime();
+        for (int i = 0; i < delays.length; i++) {
+            futures[i].cancel(false);
+            futures[i] = executor.schedule(TASK, delays[delays.length - 1 - i], TimeUnit.MILLISECONDS);
+        }
+
+        long rearmed = System.nanoTime();
+        for (ScheduledFuture<?> future : futures) {
+            future.cancel(false);
+        }
+
+        long end = System.nanoTime();
+        executor.shutdownNow();
+
+        if (report) {
+            Loopback.out.printf("ScheduledThreadPoolExecutor, %d timers: arm %.0f ns, re-arm %.0f ns, cancel %.0f ns\n",
+                    delays.length, per(start, armed, delays.length), per(armed, rearmed, delays.length),
+                    per(rearmed, end, delays.length));
+        }
+    }
+
+    //The time of every operation, in nanoseconds
+    private static double per(long start, long end, int operations) {
+        return operations == 0 ? 0 : (double) (end - start) / operations;
+    }
+}
@@ -0,0 +1,90 @@
+package com.tftp.test;
+
+import com.tftp.Server;
+import com.tftp.TFTPConfig;
+import com.tftp.core.EventLoop;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * TransportBench compares the transports of the selector engine (see TFTPConfig.SERVER_TRANSPORT): it holds as
+ * many read transfers in flight as asked for, and reports the peak amount of sockets held by the server along with
+ * the time from a request to its first block (i.e. the setup latency of a transfer, as seen by its client).
+ *
+ * Usage: TransportBench [transfers=2000] [ACK pause (ms)=1000] [transport (1 or 2, both if omitted)]
+ *
+ * Each transport runs in a process of its own. The sockets are counted from the open files of the process
+ * (/proc/self/fd), and are not reported on other platforms.
+ *
+ * @author Ahmed Sakr
+ * @since June the 12th, 2017
+ */
+public class TransportBench {
+
+    public static void main(String[] args) throws Exception {
+        int count = (int) Loopback.arg(args, 0, 2000);
+        long pause = Loopback.arg(args, 1, 1000);
+
+        if (args.length < 3) {
+            for (int transport : new int[] {EventLoop.DEDICATED, EventLoop.SHARED}) {
+                Loopback.fork(TransportBench.class, count, pause, transport).waitFor();
+            }
+
+            return;
+        }
+
+        int transport = (int) Loopback.arg(args, 2, EventLoop.DEDICATED);
+        File directory = Loopback.directory("transport");
+        Loopback.links(Loopback.file(directory, "transport.bin", 8192), count);
+
+        TFTPConfig.SERVER_ENGINE = Server.SELECTOR;
+        TFTPConfig.SERVER_TRANSPORT = transport;
+        TFTPConfig.SERVER_MAX_TRANSFERS = count;
+        TFTPConfig.SERVER_PENDING_REQUESTS = count;
+        TFTPConfig.CONTENT_CACHE_SIZE = 0;
+        TFTPConfig.INITIAL_TIMEOUT = (int) Math.max(TFTPConfig.INITIAL_TIMEOUT, 4 * pause);
+
+        Server server = Loopback.launch();
+        int idle = sockets(), peak = idle;
+
+        Process clients = Loopback.clients("transport.bin", count, pause);
+        while (clients.isAlive()) {
+            peak = Math.max(peak, sockets());
+            Thread.sleep(100);
+        }
+
+        Loopback.out.printf("%s transport: %d transfers at most at once, %d sockets idle, %d at the peak\n\n",
+                transport == EventLoop.SHARED ? "Shared" : "Dedicated", server.getAdmissionController().getPeak(),
+                idle, peak);
+
+        server.shutdown();
+        System.exit(clients.exitValue());
+    }
+
+    //The sockets open in this process (0 if the open files are not listed by the platform)
+    private static int sockets() throws IOException {
+        Path open = new File("/proc/self/fd").toPath();
+        if (!Files.isDirectory(open)) {
+            return 0;
+        }
+
+        int sockets = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(open)) {
+            for (Path file : files) {
+                try {
+                    if (Files.readSymbolicLink(file).toString().startsWith("socket:")) {
+                        sockets++;
+                    }
+                } catch (IOException e) {
+                    // closed while listed
+                }
+            }
+        }
+
+        return sockets;
+    }
+}
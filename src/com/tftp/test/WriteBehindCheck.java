@@ -0,0 +1,121 @@
+package com.tftp.test;
+
+import com.tftp.Client;
+import com.tftp.Server;
+import com.tftp.TFTPConfig;
+import com.tftp.io.FileTransfer;
+import com.tftp.io.WriteBehind;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * WriteBehindCheck writes files to the selector engine concurrently, through a write-behind given fewer buffers than
+ * the writes would hold together (see TFTPConfig.WRITE_BEHIND_MEMORY) and syncing every file once written, and
+ * checks that the event loops never waited for the write-behind: neither for a buffer, nor for the last block of a
+ * file to be written and synced. Every file received is compared with the file sent.
+ *
+ * Usage: WriteBehindCheck [writes=8] [file size=4194304] [block size=1428] [write-behind buffers=4]
+ *
+ * The clients run in processes of their own, a write each. The loops are found waiting through the amount of times
+ * their threads entered a waiting state (see ThreadInfo.getWaitedCount()), which a selection does not count. Exits
+ * with 1 if a file was not received whole, or if a loop waited.
+ *
+ * @author Ahmed Sakr
+ * @since June the 12th, 2017
+ */
+public class WriteBehindCheck {
+
+    // the size of the buffers of the write-behind, small for the writes to run short of them often
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int writes = (int) Loopback.arg(args, 0, 8);
+        long size = Loopback.arg(args, 1, 4 * 1024 * 1024);
+        int blockSize = (int) Loopback.arg(args, 2, 1428);
+        int buffers = (int) Loopback.arg(args, 3, 4);
+
+        if (args.length > 4) {
+            client(args[4], args[5], blockSize);
+        }
+
+        TFTPConfig.SERVER_ENGINE = Server.SELECTOR;
+        TFTPConfig.WRITE_BEHIND_BUFFER = BUFFER_SIZE;
+        TFTPConfig.WRITE_BEHIND_MEMORY = (long) buffers * BUFFER_SIZE;
+        TFTPConfig.WRITE_SYNC = WriteBehind.END;
+        File directory = Loopback.directory("writebehind");
+
+        File local = Files.createTempDirectory("writebehind").toFile();
+        local.deleteOnExit();
+        Loopback.file(local, "up.bin", size);
+        String[] names = Loopback.links(new File(local, "up.bin"), writes);
+        for (String name : names) {
+            new File(directory, name).deleteOnExit();
+        }
+
+        Server server = Loopback.launch();
+        long waited = waited();
+        long start = System.nanoTime();
+
+        ArrayList<Process> clients = new ArrayList<>();
+        for (String name : names) {
+            clients.add(Loopback.fork(WriteBehindCheck.class, writes, size, blockSize, buffers, local.getPath(), name));
+        }
+
+        int status = 0;
+        for (Process client : clients) {
+            status |= client.waitFor();
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e6;
+        waited = waited() - waited;
+
+        int complete = 0;
+        for (String name : names) {
+            File received = new File(directory, name);
+            if (received.length() == size && Arrays.equals(Files.readAllBytes(received.toPath()),
+                    Files.readAllBytes(new File(local, name).toPath()))) {
+                complete++;
+            }
+        }
+
+        Loopback.out.printf("%d of %d writes of %d bytes received whole in %.0f ms, %d write-behind buffers of %d " +
+                "bytes, event loops waited %d times\n", complete, writes, size, elapsed, buffers, BUFFER_SIZE, waited);
+        Loopback.out.println(server.getTransferController().getWriteBehind());
+
+        server.shutdown();
+        System.exit(status != 0 || complete != writes || waited != 0 ? 1 : 0);
+    }
+
+    //Runs a single write of the Client on this thread
+    private static void client(String directory, String name, int blockSize) throws Exception {
+        TFTPConfig.CLIENT_BLOCK_SIZE_OPTION = blockSize == FileTransfer.BLOCK_SIZE ? 0 : blockSize;
+        FileTransfer.setStartingDirectory(directory, false);
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        new Client().transfer(name.getBytes(), FileTransfer.OCTET.getBytes(),
+                InetAddress.getLocalHost().getHostAddress(), "w");
+        System.exit(0);
+    }
+
+    //The amount of times the threads of the event loops have waited so far
+    private static long waited() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long waited = 0;
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info != null && info.getThreadName().startsWith("EventLoop")) {
+                waited += info.getWaitedCount();
+            }
+        }
+
+        return waited;
+    }
+}
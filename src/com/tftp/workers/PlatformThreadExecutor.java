@@ -0,0 +1,18 @@
+package com.tftp.workers;
+
+/**
+ * PlatformThreadExecutor spawns a new platform thread for every task.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 1st, 2017.
+ */
+public class PlatformThreadExecutor implements TaskExecutor {
+
+    @Override
+    public void execute(Runnable task, String name) {
+        new Thread(task, name).start();
+    }
+}
@@ -5,6 +5,7 @@ import com.tftp.Server;
 
 /**
  * QuitListener is an independent thread that listens on the main server console for input, specifically "quit".
+ * It also reports the admission counts and the content cache, read-ahead and write-behind usage of the server on "stats".
  *
  * Course: Real Time Concurrent Systems
  * Term: Summer 2017
@@ -32,6 +33,11 @@ public class QuitListener extends Thread {
             if (input.equals("quit")) {
                 server.shutdown();
                 break;
+            } else if (input.equals("stats")) {
+                System.out.println(server.getAdmissionController());
+                System.out.println(server.getTransferController().getContentCache());
+                System.out.println(server.getTransferController().getReadAhead());
+                System.out.println(server.getTransferController().getWriteBehind());
             }
         }
     }
@@ -0,0 +1,49 @@
+package com.tftp.workers;
+
+/**
+ * TaskExecutor abstracts how the server and the simulator run the blocking task of every request
+ * (i.e. Connection and MutableSession), so that the threading model can be changed without touching them.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 1st, 2017.
+ */
+public interface TaskExecutor {
+
+    // every task runs on its own platform (i.e. operating system) thread
+    int PLATFORM = 1;
+
+    // every task runs on its own virtual thread, if supported by the running JVM
+    int VIRTUAL = 2;
+
+    /**
+     * Runs the task asynchronously.
+     *
+     * @param task the task to be run
+     * @param name the name of the thread running the task
+     */
+    void execute(Runnable task, String name);
+
+
+    /**
+     * Constructs the TaskExecutor for the given mode. If virtual threads are requested but not supported by the
+     * running JVM, the platform thread executor is used instead.
+     *
+     * @param mode the execution mode (i.e. PLATFORM or VIRTUAL)
+     *
+     * @return the TaskExecutor instance
+     */
+    static TaskExecutor create(int mode) {
+        if (mode == VIRTUAL) {
+            if (VirtualThreadExecutor.isSupported()) {
+                return new VirtualThreadExecutor();
+            }
+
+            System.out.println("Virtual threads are not supported by this JVM. Falling back to platform threads.");
+        }
+
+        return new PlatformThreadExecutor();
+    }
+}
@@ -0,0 +1,59 @@
+package com.tftp.workers;
+
+import java.lang.reflect.Method;
+
+/**
+ * VirtualThreadExecutor spawns a new virtual thread for every task. Blocking socket operations park the virtual
+ * thread instead of its carrier, allowing for a far greater number of concurrent transfers than platform threads.
+ *
+ * Up to Java 23, DatagramSocket.receive() holds the monitor of the packet while it blocks, which pins the virtual
+ * thread to its carrier: the transfers waiting for a packet at once are then bounded by the carrier threads
+ * (jdk.virtualThreadScheduler.maxPoolSize, 256 by default), see ExecutorBench.
+ *
+ * Virtual threads are looked up reflectively (Thread.ofVirtual()) so that the project still compiles and runs on
+ * JVMs that predate them; use isSupported() before constructing an instance.
+ *
+ * Course: Real Time Concurrent Systems
+ * Term: Summer 2017
+ *
+ * @author Ahmed Sakr, Josh Campitelli, Brian Zhang, Ahmed Khattab, Dario Luzuriaga
+ * @since May the 1st, 2017.
+ */
+public class VirtualThreadExecutor implements TaskExecutor {
+
+    private static Method ofVirtual, name, start;
+
+    static {
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class);
+            start = builder.getMethod("start", Runnable.class);
+
+            // preview builds expose the methods but refuse to use them
+            ofVirtual.invoke(null);
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            ofVirtual = null;
+        }
+    }
+
+
+    /**
+     *
+     * @return if the running JVM is able to create virtual threads.
+     */
+    public static boolean isSupported() {
+        return ofVirtual != null;
+    }
+
+
+    @Override
+    public void execute(Runnable task, String threadName) {
+        try {
+            Object builder = name.invoke(ofVirtual.invoke(null), threadName);
+            start.invoke(builder, task);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Unable to start virtual thread " + threadName, ex);
+        }
+    }
+}